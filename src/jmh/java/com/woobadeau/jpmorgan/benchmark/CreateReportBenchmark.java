@@ -0,0 +1,60 @@
+package com.woobadeau.jpmorgan.benchmark;
+
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.settlement.ReportAccumulator;
+import com.woobadeau.jpmorgan.settlement.SettlementReport;
+import com.woobadeau.jpmorgan.settlement.SettlementReportManager;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of instructions into a report, at varied entity and day cardinalities.
+ * One operation aggregates one instruction.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CreateReportBenchmark {
+    private static final int INSTRUCTIONS = 100000;
+
+    @Param({"10", "1000", "50000"})
+    public int entities;
+
+    @Param({"1", "30", "365"})
+    public int days;
+
+    private List<Instruction> instructions;
+
+    @Setup
+    public void setup() {
+        SyntheticInstructions generator = new SyntheticInstructions(42, entities, days);
+        instructions = new ArrayList<>(INSTRUCTIONS);
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            instructions.add(generator.nextInstruction());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public SettlementReport createReport() throws SettlementConfigurationException, SettlementException {
+        return SettlementReportManager.createReport(instructions.iterator());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public SettlementReport createReportFixedPoint() throws SettlementConfigurationException, SettlementException {
+        ReportAccumulator accumulator = new ReportAccumulator(6);
+        for (Instruction instruction : instructions) {
+            accumulator.accept(instruction);
+        }
+        return accumulator.toReport();
+    }
+}
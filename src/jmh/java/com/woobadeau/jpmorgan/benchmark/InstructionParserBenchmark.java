@@ -0,0 +1,74 @@
+package com.woobadeau.jpmorgan.benchmark;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+import com.woobadeau.jpmorgan.transaction.BufferInstructionParser;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of single lines, for both README date formats and separators.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InstructionParserBenchmark {
+    private static final int LINES = 1024;
+
+    /**
+     * Separator and date format, separated by a pipe
+     */
+    @Param({" |dd MMM yyyy", ",|dd MMM yyyy", " |yyyyMMdd", ",|yyyyMMdd"})
+    public String format;
+
+    /**
+     * Whether stage metrics are recorded, to measure their overhead
+     */
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private String separator;
+    private String dateFormat;
+    private String[] lines;
+    private ByteBuffer[] buffers;
+    private BufferInstructionParser bufferParser;
+    private int next;
+
+    @Setup
+    public void setup() {
+        int pipe = format.indexOf('|');
+        separator = format.substring(0, pipe);
+        dateFormat = format.substring(pipe + 1);
+        SyntheticInstructions instructions = new SyntheticInstructions(42, 1000, 30);
+        lines = new String[LINES];
+        buffers = new ByteBuffer[LINES];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = instructions.nextLine(separator, dateFormat);
+            buffers[i] = ByteBuffer.wrap(lines[i].getBytes(StandardCharsets.UTF_8));
+        }
+        bufferParser = new BufferInstructionParser(separator, dateFormat);
+        if (metrics) {
+            StageMetrics.enable();
+        }
+    }
+
+    @Benchmark
+    public Instruction parseLine() throws InstructionParsingException {
+        return InstructionParser.parseLine(lines[next++ & (LINES - 1)], separator, dateFormat);
+    }
+
+    @Benchmark
+    public Instruction parseBuffer() throws InstructionParsingException {
+        ByteBuffer buffer = buffers[next++ & (LINES - 1)];
+        buffer.rewind();
+        return bufferParser.next(buffer);
+    }
+}
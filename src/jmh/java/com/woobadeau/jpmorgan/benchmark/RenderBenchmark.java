@@ -0,0 +1,98 @@
+package com.woobadeau.jpmorgan.benchmark;
+
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.settlement.ReportAccumulator;
+import com.woobadeau.jpmorgan.settlement.ReportFormat;
+import com.woobadeau.jpmorgan.settlement.SettlementReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of a report with SettlementReport#toString, or streamed in each format with a ReportWriter.<br/>
+ * Rankings are cached per day once rendered: the cold benchmark renders a fresh copy of the report each time,
+ * the cached ones render the same report again.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+    private static final int INSTRUCTIONS = 100000;
+
+    @Param({"100", "10000"})
+    public int entities;
+
+    @Param({"30"})
+    public int days;
+
+    private ReportAccumulator source;
+    private SettlementReport cachedReport;
+    private SettlementReport coldReport;
+
+    @Setup(Level.Trial)
+    public void setup() throws SettlementConfigurationException, SettlementException {
+        SyntheticInstructions generator = new SyntheticInstructions(42, entities, days);
+        source = new ReportAccumulator();
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            source.accept(generator.nextInstruction());
+        }
+        cachedReport = source.toReport();
+        cachedReport.toString();
+    }
+
+    @Setup(Level.Invocation)
+    public void copyReport() {
+        ReportAccumulator copy = new ReportAccumulator();
+        copy.merge(source);
+        coldReport = copy.toReport();
+    }
+
+    @Benchmark
+    public String renderCold() {
+        return coldReport.toString();
+    }
+
+    @Benchmark
+    public String renderCached() {
+        return cachedReport.toString();
+    }
+
+    @Benchmark
+    public void streamTextCached() throws IOException {
+        ReportFormat.TEXT.writer(new DiscardingWriter()).write(cachedReport);
+    }
+
+    @Benchmark
+    public void streamCsvCached() throws IOException {
+        ReportFormat.CSV.writer(new DiscardingWriter()).write(cachedReport);
+    }
+
+    @Benchmark
+    public void streamJsonCached() throws IOException {
+        ReportFormat.JSON.writer(new DiscardingWriter()).write(cachedReport);
+    }
+
+    private static class DiscardingWriter extends Writer {
+        @Override
+        public void write(char[] chars, int offset, int length) {
+        }
+
+        @Override
+        public void write(String string) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.woobadeau.jpmorgan.benchmark;
+
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.settlement.SettlementDateManager;
+import com.woobadeau.jpmorgan.transaction.EpochDays;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settlement date resolution across currencies with different settlement days (AED and SAR settle Sunday to Thursday).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SettlementDateManagerBenchmark {
+    private static final int INSTRUCTIONS = 1024;
+
+    private SettlementDateManager settlementDateManager;
+    private Date[] dates;
+    private String[] currencies;
+    private long[] epochDays;
+    private int[] currencyIds;
+    private long[] settled;
+    private int next;
+
+    @Setup
+    public void setup() throws SettlementConfigurationException {
+        settlementDateManager = SettlementDateManager.getInstance();
+        SyntheticInstructions instructions = new SyntheticInstructions(42, 100, 365);
+        dates = new Date[INSTRUCTIONS];
+        currencies = new String[INSTRUCTIONS];
+        epochDays = new long[INSTRUCTIONS];
+        currencyIds = new int[INSTRUCTIONS];
+        settled = new long[INSTRUCTIONS];
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            Instruction instruction = instructions.nextInstruction();
+            dates[i] = instruction.getSettlementDate();
+            currencies[i] = instruction.getCurrency();
+            epochDays[i] = EpochDays.of(dates[i]);
+            currencyIds[i] = settlementDateManager.currencyId(currencies[i]);
+        }
+    }
+
+    @Benchmark
+    public Date dateSettled() throws SettlementConfigurationException, SettlementException {
+        int i = next++ & (INSTRUCTIONS - 1);
+        return settlementDateManager.dateSettled(dates[i], currencies[i]);
+    }
+
+    @Benchmark
+    public long settledEpochDay() throws SettlementException {
+        int i = next++ & (INSTRUCTIONS - 1);
+        return settlementDateManager.settledEpochDay(epochDays[i], currencyIds[i]);
+    }
+
+    /**
+     * One operation resolves all the instructions.
+     */
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long[] settledEpochDays() throws SettlementException {
+        settlementDateManager.settledEpochDays(epochDays, currencyIds, settled, INSTRUCTIONS);
+        return settled;
+    }
+}
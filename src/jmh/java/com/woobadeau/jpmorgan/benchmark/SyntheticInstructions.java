@@ -0,0 +1,126 @@
+package com.woobadeau.jpmorgan.benchmark;
+
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.TransactionDirection;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic settlement instructions, as parsed objects or as lines of a settlement file.<br/>
+ * The same seed and parameters always give the same sequence of instructions.<br/>
+ * Entities are drawn uniformly unless a skew is set, currencies are drawn uniformly from the given list:
+ * repeating a currency in the list weights it accordingly.
+ */
+public class SyntheticInstructions {
+    static final String[] CURRENCIES = {"SGP", "AED", "SAR", "GBP", "EUR", "USD", "JPY", "CHF"};
+
+    private final Random random;
+    private final String[] entities;
+    private final Date[] days;
+    private final String[] currencies;
+    /**
+     * Cumulative probabilities of the entities, null for a uniform distribution
+     */
+    private double[] cumulativeWeights;
+
+    /**
+     * @param seed the seed of the generator
+     * @param entityCount the number of distinct entities
+     * @param dayCount the number of distinct requested settlement days, starting on 2016-01-01
+     * @param currencies the currencies of the instructions
+     */
+    public SyntheticInstructions(long seed, int entityCount, int dayCount, String... currencies) {
+        this.random = new Random(seed);
+        this.entities = new String[entityCount];
+        for (int i = 0; i < entityCount; i++) {
+            entities[i] = "entity" + i;
+        }
+        this.days = new Date[dayCount];
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2016, Calendar.JANUARY, 1);
+        for (int i = 0; i < dayCount; i++) {
+            days[i] = calendar.getTime();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        this.currencies = currencies.length == 0 ? CURRENCIES : currencies;
+    }
+
+    /**
+     * Draw entities from a Zipf distribution: the entity of rank k (starting at 1) is drawn with a probability proportional to 1 / k^exponent.
+     * @param exponent the exponent of the distribution, 0 for a uniform distribution
+     * @return this generator
+     */
+    public SyntheticInstructions skewed(double exponent) {
+        if (exponent == 0) {
+            cumulativeWeights = null;
+            return this;
+        }
+        cumulativeWeights = new double[entities.length];
+        double total = 0;
+        for (int i = 0; i < entities.length; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cumulativeWeights[i] = total;
+        }
+        for (int i = 0; i < entities.length; i++) {
+            cumulativeWeights[i] /= total;
+        }
+        return this;
+    }
+
+    /**
+     * @return the next instruction
+     */
+    public Instruction nextInstruction() {
+        Instruction instruction = new Instruction();
+        instruction.setEntity(entities[nextEntity()]);
+        instruction.setTransactionDirection(random.nextBoolean() ? TransactionDirection.B : TransactionDirection.S);
+        instruction.setForex(BigDecimal.valueOf(1 + random.nextInt(30000), 2 + random.nextInt(3)));
+        instruction.setCurrency(currencies[random.nextInt(currencies.length)]);
+        int day = random.nextInt(days.length);
+        instruction.setInstructionDate(days[Math.max(0, day - random.nextInt(3))]);
+        instruction.setSettlementDate(days[day]);
+        instruction.setUnits(1 + random.nextInt(1000));
+        instruction.setPricePerUnit(BigDecimal.valueOf(1 + random.nextInt(1000000), 2));
+        return instruction;
+    }
+
+    /**
+     * @param separator the field separator
+     * @param dateFormat the date format
+     * @return the next instruction as a line of a settlement file, without line terminator
+     */
+    public String nextLine(String separator, String dateFormat) {
+        return format(nextInstruction(), separator, new SimpleDateFormat(dateFormat));
+    }
+
+    /**
+     * @return the line of a settlement file representing the instruction
+     */
+    static String format(Instruction instruction, String separator, SimpleDateFormat dateFormat) {
+        return instruction.getEntity() + separator +
+                instruction.getTransactionDirection() + separator +
+                instruction.getForex().toPlainString() + separator +
+                instruction.getCurrency() + separator +
+                dateFormat.format(instruction.getInstructionDate()) + separator +
+                dateFormat.format(instruction.getSettlementDate()) + separator +
+                instruction.getUnits() + separator +
+                instruction.getPricePerUnit().toPlainString();
+    }
+
+    /**
+     * Draws the index of the entity of the next instruction.
+     */
+    private int nextEntity() {
+        if (cumulativeWeights == null) {
+            return random.nextInt(entities.length);
+        }
+        int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, entities.length - 1);
+    }
+}
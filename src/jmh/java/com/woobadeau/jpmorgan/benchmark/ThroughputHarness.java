@@ -0,0 +1,552 @@
+package com.woobadeau.jpmorgan.benchmark;
+
+import com.woobadeau.jpmorgan.ReportBuilder;
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.settlement.ReportAccumulator;
+import com.woobadeau.jpmorgan.settlement.ReportFormat;
+import com.woobadeau.jpmorgan.settlement.SettlementReport;
+import com.woobadeau.jpmorgan.settlement.SettlementReportManager;
+import com.woobadeau.jpmorgan.transaction.BufferInstructionParser;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionFileReader;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * End to end throughput harness.<br/>
+ * Generates a synthetic settlement file, or reuses the one generated by a previous run with the same settings,
+ * then runs com.woobadeau.jpmorgan.ReportBuilder on it several times, with the report written to a discarding stream.
+ * Each run records lines per second, peak resident set size, peak heap usage and collections,
+ * then runs the stages of the pipeline separately to time them.<br/>
+ * Results are written as JSON so that runs of different versions can be compared.
+ *
+ * Usage of ThroughputHarness:
+ * java -cp benchmarks.jar com.woobadeau.jpmorgan.benchmark.ThroughputHarness [OPTIONS]
+ * OPTIONS:
+ * -n {lines} : the number of lines of the settlement file - default 2000000
+ * -e {entities} : the number of distinct entities - default 10000
+ * -z {exponent} : the exponent of the Zipf distribution of entities, 0 for uniform - default 1
+ * -d {days} : the number of distinct requested settlement days - default 365
+ * -cur {currencies} : comma separated currencies, repeat a currency to weight it - default SGP,AED,SAR,GBP,EUR,USD,JPY,CHF
+ * -df {format} : the date format of the settlement file - default dd MMM yyyy
+ * -s {separator} : the field separator of the settlement file - default " " (single space)
+ * -p {threads} : passed to ReportBuilder - default 1
+ * -fp {scale} : passed to ReportBuilder - default exact decimals
+ * -w {runs} : the number of warmup runs - default 1
+ * -r {runs} : the number of measured runs - default 3
+ * -seed {seed} : the seed of the generator - default 42
+ * -dir {directory} : the directory of generated files - default java.io.tmpdir
+ * -label {label} : a label for the results, for instance a version - default none
+ * -o {resultsFile} : the JSON results file - default standard output
+ */
+public class ThroughputHarness {
+    private static final String DEFAULT_DATE_FORMAT = "dd MMM yyyy";
+    private static final String DEFAULT_SEPARATOR = " ";
+
+    private long lines = 2000000;
+    private int entities = 10000;
+    private double skew = 1;
+    private int days = 365;
+    private String[] currencies = SyntheticInstructions.CURRENCIES;
+    private String dateFormat = DEFAULT_DATE_FORMAT;
+    private String separator = DEFAULT_SEPARATOR;
+    private int threads = 1;
+    private int fixedPointScale = -1;
+    private int warmupRuns = 1;
+    private int runs = 3;
+    private long seed = 42;
+    private File directory = new File(System.getProperty("java.io.tmpdir"));
+    private String label;
+    private File resultsFile;
+
+    public static void main(String[] args) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        ThroughputHarness harness = new ThroughputHarness();
+        harness.parseCommandLine(args);
+        harness.run();
+    }
+
+    private void run() throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        Json results = new Json().beginObject()
+                .field("label", label)
+                .field("timestamp", new Date().toInstant().toString())
+                .field("javaVersion", System.getProperty("java.version"))
+                .field("javaVm", System.getProperty("java.vm.name"))
+                .field("availableProcessors", Runtime.getRuntime().availableProcessors())
+                .field("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        results.name("settings").beginObject()
+                .field("lines", lines)
+                .field("entities", entities)
+                .field("skew", skew)
+                .field("days", days)
+                .field("currencies", String.join(",", currencies))
+                .field("dateFormat", dateFormat)
+                .field("separator", separator)
+                .field("threads", threads)
+                .field("fixedPointScale", fixedPointScale)
+                .field("seed", seed)
+                .endObject();
+
+        File file = settlementFile();
+        long generationMillis = -1;
+        if (!file.isFile()) {
+            System.err.println("Generating " + file);
+            long start = System.nanoTime();
+            generate(file);
+            generationMillis = millisSince(start);
+        }
+        results.name("file").beginObject()
+                .field("path", file.getPath())
+                .field("bytes", file.length())
+                .field("generationMillis", generationMillis)
+                .endObject();
+
+        List<Double> linesPerSecond = new ArrayList<>();
+        long peakRss = -1;
+        long peakHeap = -1;
+        results.name("runs").beginArray();
+        for (int i = 0; i < warmupRuns + runs; i++) {
+            boolean warmup = i < warmupRuns;
+            results.beginObject().field("warmup", warmup);
+
+            boolean rssReset = resetPeaks();
+            Map<String, long[]> collections = collections();
+            long start = System.nanoTime();
+            runReportBuilder(file);
+            long endToEndMillis = millisSince(start);
+            long rss = peakRss();
+            long heap = peakHeap();
+            double throughput = lines * 1000d / Math.max(1, endToEndMillis);
+            results.field("endToEndMillis", endToEndMillis)
+                    .field("linesPerSecond", Math.round(throughput))
+                    .field("peakRssBytes", rss)
+                    .field("peakRssReset", rssReset)
+                    .field("peakHeapBytes", heap);
+            writeCollections(results, collections);
+            writeStages(results, file);
+            results.endObject();
+
+            System.err.println((warmup ? "Warmup run " : "Run ") + (i + 1) + ": " + endToEndMillis + " ms, " + Math.round(throughput) + " lines/s");
+            if (!warmup) {
+                linesPerSecond.add(throughput);
+                peakRss = Math.max(peakRss, rss);
+                peakHeap = Math.max(peakHeap, heap);
+            }
+        }
+        results.endArray();
+
+        Collections.sort(linesPerSecond);
+        results.name("summary").beginObject()
+                .field("medianLinesPerSecond", linesPerSecond.isEmpty() ? -1 : Math.round(linesPerSecond.get(linesPerSecond.size() / 2)))
+                .field("bestLinesPerSecond", linesPerSecond.isEmpty() ? -1 : Math.round(linesPerSecond.get(linesPerSecond.size() - 1)))
+                .field("peakRssBytes", peakRss)
+                .field("peakHeapBytes", peakHeap)
+                .endObject();
+        results.endObject();
+
+        if (resultsFile == null) {
+            System.out.println(results);
+        } else {
+            try (Writer writer = Files.newBufferedWriter(resultsFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(results.toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @return the generated file for the current settings, named after a hash of the settings
+     */
+    private File settlementFile() {
+        String settings = lines + "|" + entities + "|" + skew + "|" + days + "|" + String.join(",", currencies) + "|" + dateFormat + "|" + separator + "|" + seed;
+        return new File(directory, String.format("settlements-%d-%08x.txt", lines, settings.hashCode()));
+    }
+
+    private void generate(File file) throws IOException {
+        SyntheticInstructions instructions = new SyntheticInstructions(seed, entities, days, currencies).skewed(skew);
+        SimpleDateFormat formatter = new SimpleDateFormat(dateFormat);
+        File partial = new File(file.getPath() + ".part");
+        try (Writer writer = Files.newBufferedWriter(partial.toPath(), StandardCharsets.UTF_8)) {
+            for (long i = 0; i < lines; i++) {
+                writer.write(SyntheticInstructions.format(instructions.nextInstruction(), separator, formatter));
+                writer.write('\n');
+            }
+        }
+        if (!partial.renameTo(file)) {
+            throw new IOException("Could not rename " + partial + " to " + file);
+        }
+    }
+
+    private void runReportBuilder(File file) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        List<String> arguments = new ArrayList<>(Arrays.asList("-f", file.getPath(), "-df", dateFormat, "-s", separator, "-p", String.valueOf(threads)));
+        if (fixedPointScale >= 0) {
+            arguments.add("-fp");
+            arguments.add(String.valueOf(fixedPointScale));
+        }
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new DiscardingOutputStream(), false, "UTF-8"));
+        try {
+            ReportBuilder.main(arguments.toArray(new String[0]));
+        } finally {
+            System.out.flush();
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Time the stages of the pipeline separately: parsing alone, parsing and aggregation, then rendering.
+     * Parsing alone is always sequential, parsing and aggregation uses the same parallelism as com.woobadeau.jpmorgan.ReportBuilder.
+     */
+    private void writeStages(Json results, File file) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        long start = System.nanoTime();
+        read(file, null);
+        long parseMillis = millisSince(start);
+
+        start = System.nanoTime();
+        SettlementReport report;
+        if (threads > 1 && BufferInstructionParser.supportsSeparator(separator)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                report = SettlementReportManager.createReport(file, separator, dateFormat, () -> new ReportAccumulator(fixedPointScale), pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            ReportAccumulator accumulator = new ReportAccumulator(fixedPointScale);
+            read(file, accumulator);
+            report = accumulator.toReport();
+        }
+        long parseAndAggregateMillis = millisSince(start);
+
+        start = System.nanoTime();
+        ReportFormat.TEXT.writer(new DiscardingOutputStream()).write(report);
+        long renderMillis = millisSince(start);
+
+        results.name("stages").beginObject()
+                .field("parseMillis", parseMillis)
+                .field("parseAndAggregateMillis", parseAndAggregateMillis)
+                .field("renderMillis", renderMillis)
+                .endObject();
+    }
+
+    /**
+     * Read the settlement file the way com.woobadeau.jpmorgan.ReportBuilder reads it sequentially.
+     * @param accumulator the accumulator of the instructions, null to parse only
+     */
+    private void read(File file, ReportAccumulator accumulator) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        if (BufferInstructionParser.supportsSeparator(separator)) {
+            try (InstructionFileReader reader = InstructionFileReader.open(file, new BufferInstructionParser(separator, dateFormat))) {
+                Instruction instruction;
+                while ((instruction = reader.next()) != null) {
+                    if (accumulator != null) {
+                        accumulator.accept(instruction);
+                    }
+                }
+            }
+        } else {
+            try (Scanner scanner = new Scanner(file)) {
+                while (scanner.hasNextLine()) {
+                    Instruction instruction = InstructionParser.parseLine(scanner.nextLine(), separator, dateFormat);
+                    if (accumulator != null) {
+                        accumulator.accept(instruction);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reset the peak heap usage of the memory pools and, on Linux, the peak resident set size of the process.
+     * @return true if the peak resident set size could be reset, otherwise it is the peak since the start of the process
+     */
+    private static boolean resetPeaks() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        try (Writer writer = new FileWriter("/proc/self/clear_refs")) {
+            writer.write("5");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the peak resident set size in bytes, -1 if it is not available
+     */
+    private static long peakRss() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            //Not available outside of Linux
+        }
+        return -1;
+    }
+
+    /**
+     * @return the sum of the peak usages of the heap pools since they were reset, an upper bound of the peak heap usage
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return the collection count and time of each collector
+     */
+    private static Map<String, long[]> collections() {
+        Map<String, long[]> collections = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections.put(collector.getName(), new long[]{collector.getCollectionCount(), collector.getCollectionTime()});
+        }
+        return collections;
+    }
+
+    /**
+     * Write the collections since the given ones
+     */
+    private static void writeCollections(Json results, Map<String, long[]> before) {
+        results.name("gc").beginArray();
+        for (Map.Entry<String, long[]> collector : collections().entrySet()) {
+            long[] start = before.getOrDefault(collector.getKey(), new long[2]);
+            results.beginObject()
+                    .field("collector", collector.getKey())
+                    .field("count", collector.getValue()[0] - start[0])
+                    .field("millis", collector.getValue()[1] - start[1])
+                    .endObject();
+        }
+        results.endArray();
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private void parseCommandLine(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i == args.length - 1) {
+                printUsage();
+                System.exit(1);
+            }
+            String value = args[++i];
+            try {
+                switch (args[i - 1]) {
+                    case "-n":
+                        lines = Long.parseLong(value);
+                        break;
+                    case "-e":
+                        entities = Integer.parseInt(value);
+                        break;
+                    case "-z":
+                        skew = Double.parseDouble(value);
+                        break;
+                    case "-d":
+                        days = Integer.parseInt(value);
+                        break;
+                    case "-cur":
+                        currencies = value.split(",");
+                        break;
+                    case "-df":
+                        dateFormat = value;
+                        break;
+                    case "-s":
+                        separator = value;
+                        break;
+                    case "-p":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "-fp":
+                        fixedPointScale = Integer.parseInt(value);
+                        break;
+                    case "-w":
+                        warmupRuns = Integer.parseInt(value);
+                        break;
+                    case "-r":
+                        runs = Integer.parseInt(value);
+                        break;
+                    case "-seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "-dir":
+                        directory = new File(value);
+                        break;
+                    case "-label":
+                        label = value;
+                        break;
+                    case "-o":
+                        resultsFile = new File(value);
+                        break;
+                    default:
+                        printUsage();
+                        System.exit(1);
+                }
+            } catch (NumberFormatException e) {
+                printUsage();
+                System.exit(1);
+            }
+        }
+        if (lines < 0 || entities < 1 || skew < 0 || days < 1 || threads < 1 || fixedPointScale > 18 || warmupRuns < 0 || runs < 1) {
+            printUsage();
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage of ThroughputHarness:");
+        System.out.println("java -cp benchmarks.jar com.woobadeau.jpmorgan.benchmark.ThroughputHarness [OPTIONS]");
+        System.out.println("OPTIONS:");
+        System.out.println(" -n {lines} : the number of lines of the settlement file - default 2000000");
+        System.out.println(" -e {entities} : the number of distinct entities - default 10000");
+        System.out.println(" -z {exponent} : the exponent of the Zipf distribution of entities, 0 for uniform - default 1");
+        System.out.println(" -d {days} : the number of distinct requested settlement days - default 365");
+        System.out.println(" -cur {currencies} : comma separated currencies, repeat a currency to weight it - default SGP,AED,SAR,GBP,EUR,USD,JPY,CHF");
+        System.out.println(" -df {format} : the date format of the settlement file - default dd MMM yyyy");
+        System.out.println(" -s {separator} : the field separator of the settlement file - default \" \" (single space)");
+        System.out.println(" -p {threads} : passed to ReportBuilder - default 1");
+        System.out.println(" -fp {scale} : passed to ReportBuilder - default exact decimals");
+        System.out.println(" -w {runs} : the number of warmup runs - default 1");
+        System.out.println(" -r {runs} : the number of measured runs - default 3");
+        System.out.println(" -seed {seed} : the seed of the generator - default 42");
+        System.out.println(" -dir {directory} : the directory of generated files - default java.io.tmpdir");
+        System.out.println(" -label {label} : a label for the results, for instance a version - default none");
+        System.out.println(" -o {resultsFile} : the JSON results file - default standard output");
+    }
+
+    /**
+     * Stream discarding everything written to it, standing for the standard output of com.woobadeau.jpmorgan.ReportBuilder.
+     */
+    private static class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * Minimal JSON writer for the results, fields are separated by commas as they are added.
+     */
+    private static class Json {
+        private final StringBuilder json = new StringBuilder();
+        private boolean first = true;
+
+        Json beginObject() {
+            separate();
+            json.append('{');
+            first = true;
+            return this;
+        }
+
+        Json endObject() {
+            json.append('}');
+            first = false;
+            return this;
+        }
+
+        Json beginArray() {
+            separate();
+            json.append('[');
+            first = true;
+            return this;
+        }
+
+        Json endArray() {
+            json.append(']');
+            first = false;
+            return this;
+        }
+
+        /**
+         * Start a field, its value being the next object or array
+         */
+        Json name(String name) {
+            separate();
+            string(name);
+            json.append(':');
+            first = true;
+            return this;
+        }
+
+        Json field(String name, String value) {
+            name(name);
+            first = false;
+            if (value == null) {
+                json.append("null");
+            } else {
+                string(value);
+            }
+            return this;
+        }
+
+        Json field(String name, long value) {
+            name(name);
+            first = false;
+            json.append(value);
+            return this;
+        }
+
+        Json field(String name, double value) {
+            name(name);
+            first = false;
+            json.append(value);
+            return this;
+        }
+
+        Json field(String name, boolean value) {
+            name(name);
+            first = false;
+            json.append(value);
+            return this;
+        }
+
+        private void separate() {
+            if (!first) {
+                json.append(',');
+            }
+        }
+
+        private void string(String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+
+        @Override
+        public String toString() {
+            return json.toString();
+        }
+    }
+}
@@ -1,51 +1,311 @@
 package com.woobadeau.jpmorgan;
 
+import com.woobadeau.jpmorgan.exception.DeduplicationException;
 import com.woobadeau.jpmorgan.exception.InstructionParsingException;
 import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
 import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+import com.woobadeau.jpmorgan.server.IngestServer;
+import com.woobadeau.jpmorgan.settlement.ConcurrentReportAccumulator;
+import com.woobadeau.jpmorgan.settlement.ReportAccumulator;
+import com.woobadeau.jpmorgan.settlement.ReportFormat;
+import com.woobadeau.jpmorgan.settlement.ReportWriter;
+import com.woobadeau.jpmorgan.settlement.SettlementConfigurationWatcher;
 import com.woobadeau.jpmorgan.settlement.SettlementDateManager;
+import com.woobadeau.jpmorgan.settlement.SettlementFileBatch;
+import com.woobadeau.jpmorgan.settlement.SettlementFileReader;
+import com.woobadeau.jpmorgan.settlement.SettlementPipeline;
 import com.woobadeau.jpmorgan.settlement.SettlementReport;
 import com.woobadeau.jpmorgan.settlement.SettlementReportManager;
-import com.woobadeau.jpmorgan.transaction.Instruction;
-import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import com.woobadeau.jpmorgan.transaction.BufferInstructionParser;
+import com.woobadeau.jpmorgan.transaction.Compression;
+import com.woobadeau.jpmorgan.transaction.InstructionColumnsReader;
+import com.woobadeau.jpmorgan.transaction.InstructionColumnsWriter;
+import com.woobadeau.jpmorgan.transaction.InstructionDeduplicator;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.HashSet;
-import java.util.Scanner;
-import java.util.Set;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Main class for the report builder.
  * Parses the command line and runs the report on the file specified.
  *
  * Usage of ReportBuilder:
- * java -jar reportBuilder.jar -f settlementFileName [OPTIONS]
+ * java -jar reportBuilder.jar -f settlementFileName [-f settlementFileName...] [OPTIONS]
+ * java -jar reportBuilder.jar -l port [OPTIONS]
+ * java -jar reportBuilder.jar -resume checkpointFileName [OPTIONS]
+ * The settlement file of -f can be a directory, whose files are all read, or a glob pattern such as "settlements/*.txt".
+ * Text settlement files compressed with gzip or Zstandard are detected and decompressed on a thread of their own while they are parsed.
+ * Several files are read concurrently and reported together, the time spent on each file and the failures are printed on the standard error.
  * OPTIONS:
  * -c {propertiesFileName} : a currency property file with configuration for currency settlement dates
  * -df {format} : the date format used in the settlement file - default dd MMM yyyy (see https://docs.oracle.com/javase/8/docs/api/java/text/SimpleDateFormat.html)
  * -s {separator} : the filed separator used in the settlement file - default " " (single space)
+ * -p {threads} : read the settlement file in parallel chunks with the given number of threads - default 1. With several settlement files, the number of files read at once - default the number of processors
+ * -pipeline {parsers} : read the settlement file on one thread and parse it on the given number of threads, aggregating in file order
+ *             while the next blocks are read and parsed (see com.woobadeau.jpmorgan.settlement.SettlementPipeline) - takes precedence over -p for a single file
+ * -fp {scale} : add amounts as fixed point longs with the given number of decimals (0 to 18), falling back to exact decimals when needed - default exact decimals
+ * -l {port} : instead of reading a settlement file, listen on the given local port for instruction lines and report commands (see com.woobadeau.jpmorgan.server.IngestServer),
+ *             with -p setting the number of connection loops. The currency property file given with -c is reloaded whenever it changes.
+ * -cv {columnarFileName} : instead of reporting, convert the settlement file to a columnar file (see com.woobadeau.jpmorgan.transaction.InstructionColumnsWriter).
+ *             Columnar files given with -f are detected and reported without parsing, -df, -s and -p are then ignored.
+ * -of {text|csv|json} : the format of the report, streamed one day after the other - default text (see com.woobadeau.jpmorgan.settlement.ReportFormat)
+ * -o {outputFileName} : write the report to the given file instead of the standard output
+ * -checkpoint {checkpointFileName} : save the aggregated totals to the given file after reading the settlement file
+ * -resume {checkpointFileName} : start from the totals of a checkpoint file, then add the instructions of the settlement file if any
+ * -dedup {heap|offheap} : skip the instructions already read in this run, keeping their fingerprints on the heap or in direct memory
+ * -lenient {rejectFileName} : skip malformed lines instead of stopping, writing them to the given file with the reason they were rejected
+ * --stats : print the number of events and the latencies of each stage on the standard error at the end of the run.
+ *           The same metrics are available through JMX while running, see com.woobadeau.jpmorgan.metrics.StageMetrics
  */
 public class ReportBuilder {
 
-    private static String settlementFile = null;
+    private static final List<String> settlementPaths = new ArrayList<>();
+    private static String currencyFile = null;
     private static String separator = null;
     private static String dateFormat = null;
+    private static int parallelism = 1;
+    private static int pipelineParsers = 0;
+    private static int fixedPointScale = -1;
+    private static int port = -1;
+    private static String columnarFile = null;
+    private static ReportFormat outputFormat = ReportFormat.TEXT;
+    private static String outputFile = null;
+    private static String checkpointFile = null;
+    private static String resumeFile = null;
+    private static InstructionDeduplicator deduplicator = null;
+    private static String rejectFile = null;
+    private static InstructionRejects rejects = null;
+    private static boolean printStats = false;
 
-    public static void main(String[] args) throws SettlementConfigurationException, FileNotFoundException, InstructionParsingException, SettlementException {
+    public static void main(String[] args) throws SettlementConfigurationException, IOException, InstructionParsingException, SettlementException {
+        try {
+            run(args);
+        } catch (DeduplicationException e) {
+            //Running out of memory for the fingerprints is not a bug of the run, only its message is worth showing
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void run(String[] args) throws SettlementConfigurationException, IOException, InstructionParsingException, SettlementException {
         parseCommandLine(args);
-        Scanner scanner = new Scanner(new File(settlementFile));
-        Set<Instruction> instructions = new HashSet<>();
-        while (scanner.hasNextLine()) {
-            Instruction instruction = InstructionParser.parseLine(scanner.nextLine(), separator, dateFormat);
-            instructions.add(instruction);
-        }
-        SettlementReport report = SettlementReportManager.createReport(instructions);
-        System.out.println(report.toString());
+        StageMetrics.enable();
+        if (port >= 0) {
+            IngestServer server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), separator, dateFormat,
+                    parallelism, new ConcurrentReportAccumulator(parallelism * 2, fixedPointScale, deduplicator));
+            server.start();
+            SettlementConfigurationWatcher watcher = currencyFile != null ? new SettlementConfigurationWatcher(Paths.get(currencyFile)) : null;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    try {
+                        server.close();
+                    } finally {
+                        if (watcher != null) {
+                            watcher.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    //The process is exiting anyway
+                }
+            }));
+            System.out.println("Listening on port " + server.getPort());
+            return;
+        }
+        if (rejectFile != null) {
+            rejects = new InstructionRejects(new File(rejectFile));
+        }
+        List<File> files = new ArrayList<>();
+        for (String settlementPath : settlementPaths) {
+            files.addAll(SettlementFileBatch.resolve(settlementPath));
+        }
+        if (columnarFile != null) {
+            try (InstructionColumnsWriter writer = new InstructionColumnsWriter(new File(columnarFile))) {
+                for (File file : files) {
+                    readSettlementFile(file, instruction -> {
+                        if (deduplicator == null || deduplicator.add(instruction)) {
+                            writer.write(instruction);
+                        }
+                    });
+                }
+                System.out.println("Converted " + writer.rows() + " instructions to " + columnarFile);
+            }
+            printDuplicates();
+            printRejects();
+            printStats();
+            return;
+        }
+        ReportAccumulator accumulator = new ReportAccumulator(fixedPointScale, deduplicator);
+        if (resumeFile != null) {
+            accumulator.readCheckpoint(new File(resumeFile));
+        }
+        boolean failed = false;
+        if (files.size() == 1) {
+            accumulator = accumulate(files.get(0), accumulator);
+        } else if (files.size() > 1) {
+            failed = !accumulateBatch(files, accumulator);
+        }
+        if (checkpointFile != null) {
+            if (failed) {
+                System.err.println("Checkpoint not saved: the failed files would be missing from the next runs");
+            } else {
+                accumulator.writeCheckpoint(new File(checkpointFile));
+            }
+        }
+        SettlementReport report = accumulator.toReport();
+        StageMetrics.getInstance().reportSize(report.getEntityCount(), report.getDayCount());
+        printReport(report);
+        printDuplicates();
+        printRejects();
+        printStats();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static void printDuplicates() {
+        if (deduplicator != null) {
+            System.err.println("Skipped " + deduplicator.duplicates() + " duplicate instructions, " + deduplicator.size() + " distinct instructions held in "
+                    + deduplicator.bytes() / 1024 + " KB");
+        }
+    }
+
+    private static void printRejects() throws IOException {
+        if (rejects != null) {
+            rejects.close();
+            System.err.println(rejects + (rejects.total() > 0 ? ", written to " + rejectFile : ""));
+        }
+    }
+
+    private static void printStats() {
+        if (printStats) {
+            System.err.print(StageMetrics.getInstance());
+        }
+    }
+
+    /**
+     * Aggregate several settlement files concurrently, then print the time spent on each file and the failures on the standard error
+     * @return true if all the files were aggregated
+     */
+    private static boolean accumulateBatch(List<File> files, ReportAccumulator accumulator) throws IOException {
+        long start = System.nanoTime();
+        int threads = parallelism > 1 ? parallelism : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        List<SettlementFileBatch.FileResult> results;
+        try {
+            results = new SettlementFileBatch(separator, dateFormat, fixedPointScale, deduplicator, rejects).accumulate(files, accumulator, executor);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the settlement files");
+        } finally {
+            executor.shutdownNow();
+        }
+        long instructions = 0;
+        int failures = 0;
+        for (SettlementFileBatch.FileResult result : results) {
+            System.err.println(result);
+            instructions += result.getInstructions();
+            if (result.getFailure() != null) {
+                failures++;
+            }
+        }
+        System.err.println(files.size() + " files, " + instructions + " instructions in " + (System.nanoTime() - start) / 1000000 + " ms, "
+                + failures + " failed");
+        return failures == 0;
+    }
+
+    /**
+     * Aggregate the instructions of a settlement file after the ones already accumulated
+     * @return the accumulator holding all the instructions, the given one unless no checkpoint was read into it
+     */
+    private static ReportAccumulator accumulate(File file, ReportAccumulator accumulator) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        if (InstructionColumnsReader.isColumnar(file)) {
+            try (InstructionColumnsReader reader = InstructionColumnsReader.open(file)) {
+                accumulator.accept(reader);
+            }
+        } else if (parallelism > 1 && pipelineParsers == 0 && BufferInstructionParser.supportsSeparator(separator)
+                && Compression.detect(file) == Compression.NONE) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                ReportAccumulator fileAccumulator = SettlementReportManager.accumulate(file, separator, dateFormat,
+                        () -> new ReportAccumulator(fixedPointScale, deduplicator), rejects, pool);
+                if (resumeFile == null) {
+                    return fileAccumulator;
+                }
+                accumulator.merge(fileAccumulator);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            readSettlementFile(file, accumulator::accept);
+        }
+        return accumulator;
+    }
+
+    /**
+     * Stream the report to the output file, or to the standard output
+     */
+    private static void printReport(SettlementReport report) throws IOException {
+        if (outputFile != null) {
+            try (ReportWriter writer = outputFormat.writer(new FileOutputStream(outputFile))) {
+                writer.write(report);
+            }
+            return;
+        }
+        ReportWriter writer = outputFormat.writer(System.out);
+        writer.write(report);
+        if (outputFormat == ReportFormat.TEXT) {
+            //The text report has always been printed with a trailing line break
+            System.out.println();
+        }
+    }
+
+    /**
+     * Parse the instructions of a text settlement file in order, decompressing it if needed
+     */
+    private static void readSettlementFile(File file, SettlementPipeline.InstructionConsumer consumer) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        int parsers = pipelineParsers > 0 ? pipelineParsers : parallelism;
+        new SettlementFileReader(separator, dateFormat, parsers, pipelineParsers > 0, rejects).read(file, consumer);
+    }
+
+    /**
+     * Options only last one run: main can be called several times in the same JVM, for instance by the throughput harness
+     */
+    private static void resetOptions() {
+        settlementPaths.clear();
+        currencyFile = null;
+        separator = null;
+        dateFormat = null;
+        parallelism = 1;
+        pipelineParsers = 0;
+        fixedPointScale = -1;
+        port = -1;
+        columnarFile = null;
+        outputFormat = ReportFormat.TEXT;
+        outputFile = null;
+        checkpointFile = null;
+        resumeFile = null;
+        deduplicator = null;
+        rejectFile = null;
+        rejects = null;
+        printStats = false;
     }
 
     private static void parseCommandLine(String[] args) throws SettlementConfigurationException, FileNotFoundException {
+        resetOptions();
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
                 case "-f":
@@ -53,14 +313,15 @@ public class ReportBuilder {
                         printUsage();
                         System.exit(1);
                     }
-                    settlementFile = args[++i];
+                    settlementPaths.add(args[++i]);
                     break;
                 case "-c":
                     if (i == args.length -1) {
                         printUsage();
                         System.exit(1);
                     }
-                    SettlementDateManager.setup(new FileInputStream(new File(args[++i])));
+                    currencyFile = args[++i];
+                    SettlementDateManager.setup(new FileInputStream(new File(currencyFile)));
                     break;
                 case "-df":
                     if (i == args.length -1) {
@@ -76,24 +337,148 @@ public class ReportBuilder {
                     }
                     separator = args[++i];
                     break;
+                case "-p":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    parallelism = parsePositive(args[++i], 1, Integer.MAX_VALUE);
+                    break;
+                case "-pipeline":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    pipelineParsers = parsePositive(args[++i], 1, Integer.MAX_VALUE);
+                    break;
+                case "-fp":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    fixedPointScale = parsePositive(args[++i], 0, 18);
+                    break;
+                case "-l":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    port = parsePositive(args[++i], 0, 65535);
+                    break;
+                case "-cv":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    columnarFile = args[++i];
+                    break;
+                case "-of":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    outputFormat = ReportFormat.of(args[++i]);
+                    if (outputFormat == null) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    break;
+                case "-o":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    outputFile = args[++i];
+                    break;
+                case "-checkpoint":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    checkpointFile = args[++i];
+                    break;
+                case "-resume":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    resumeFile = args[++i];
+                    break;
+                case "-dedup":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    switch (args[++i]) {
+                        case "heap":
+                            deduplicator = new InstructionDeduplicator(false);
+                            break;
+                        case "offheap":
+                            deduplicator = new InstructionDeduplicator(true);
+                            break;
+                        default:
+                            printUsage();
+                            System.exit(1);
+                    }
+                    break;
+                case "--stats":
+                    printStats = true;
+                    break;
+                case "-lenient":
+                    if (i == args.length -1) {
+                        printUsage();
+                        System.exit(1);
+                    }
+                    rejectFile = args[++i];
+                    break;
                 default:
                     printUsage();
                     System.exit(1);
             }
         }
 
-        if (settlementFile == null) {
+        if ((settlementPaths.isEmpty() && resumeFile == null && port < 0) || (columnarFile != null && settlementPaths.isEmpty())) {
             printUsage();
             System.exit(1);
         }
     }
 
+    private static int parsePositive(String argument, int min, int max) {
+        try {
+            int value = Integer.parseInt(argument);
+            if (value >= min && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            //Usage is printed below
+        }
+        printUsage();
+        System.exit(1);
+        return 1;
+    }
+
     private static void printUsage() {
         System.out.println("Usage of ReportBuilder:");
-        System.out.println("java -jar reportBuilder.jar -f settlementFileName [OPTIONS]");
+        System.out.println("java -jar reportBuilder.jar -f settlementFileName [-f settlementFileName...] [OPTIONS]");
+        System.out.println("java -jar reportBuilder.jar -l port [OPTIONS]");
+        System.out.println("java -jar reportBuilder.jar -resume checkpointFileName [OPTIONS]");
+        System.out.println("The settlement file can be a directory or a glob pattern such as \"settlements/*.txt\", several files are read concurrently");
+        System.out.println("Settlement files compressed with gzip or Zstandard are detected and decompressed while they are parsed");
         System.out.println("OPTIONS:");
         System.out.println(" -c {propertiesFileName} : a currency property file with configuration for currency settlement dates");
         System.out.println(" -df {format} : the date format used in the settlement file - default dd MMM yyyy (see https://docs.oracle.com/javase/8/docs/api/java/text/SimpleDateFormat.html)");
         System.out.println(" -s {separator} : the filed separator used in the settlement file - default \" \" (single space)");
+        System.out.println(" -p {threads} : read the settlement file in parallel chunks with the given number of threads - default 1. With several settlement files, the number of files read at once - default the number of processors");
+        System.out.println(" -pipeline {parsers} : read the settlement file on one thread and parse it on the given number of threads, aggregating in file order - takes precedence over -p for a single file");
+        System.out.println(" -fp {scale} : add amounts as fixed point longs with the given number of decimals (0 to 18), falling back to exact decimals when needed - default exact decimals");
+        System.out.println(" -l {port} : instead of reading a settlement file, listen on the given local port for instruction lines and report commands, with -p setting the number of connection loops. The currency property file given with -c is reloaded whenever it changes");
+        System.out.println(" -cv {columnarFileName} : instead of reporting, convert the settlement file to a columnar file. Columnar files given with -f are detected and reported without parsing, -df, -s and -p are then ignored");
+        System.out.println(" -of {text|csv|json} : the format of the report, streamed one day after the other - default text");
+        System.out.println(" -o {outputFileName} : write the report to the given file instead of the standard output");
+        System.out.println(" -checkpoint {checkpointFileName} : save the aggregated totals to the given file after reading the settlement file");
+        System.out.println(" -resume {checkpointFileName} : start from the totals of a checkpoint file, then add the instructions of the settlement file if any");
+        System.out.println(" -dedup {heap|offheap} : skip the instructions already read in this run, keeping their fingerprints on the heap or in direct memory");
+        System.out.println(" -lenient {rejectFileName} : skip malformed lines instead of stopping, writing them to the given file with the reason they were rejected");
+        System.out.println(" --stats : print the number of events and the latencies of each stage on the standard error at the end of the run, also available through JMX while running");
     }
 }
@@ -0,0 +1,10 @@
+package com.woobadeau.jpmorgan.exception;
+
+/**
+ * Thrown when the instructions seen so far no longer fit in the memory given to the deduplicator.
+ */
+public class DeduplicationException extends SettlementException {
+    public DeduplicationException(String s) {
+        super(s);
+    }
+}
@@ -1,11 +1,34 @@
 package com.woobadeau.jpmorgan.exception;
 
+import com.woobadeau.jpmorgan.transaction.RejectReason;
+
 public class InstructionParsingException extends Exception {
+    private final RejectReason reason;
+
     public InstructionParsingException(String message) {
         super(message);
+        this.reason = null;
     }
 
     public InstructionParsingException(String message, Exception cause) {
         super(message, cause);
+        this.reason = null;
+    }
+
+    public InstructionParsingException(String message, RejectReason reason) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public InstructionParsingException(String message, Exception cause, RejectReason reason) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    /**
+     * @return the reason the line was rejected, null if unknown
+     */
+    public RejectReason getReason() {
+        return reason;
     }
 }
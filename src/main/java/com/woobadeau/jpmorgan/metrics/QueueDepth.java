@@ -0,0 +1,56 @@
+package com.woobadeau.jpmorgan.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Depth of a bounded queue between two stages, sampled by its producer each time it adds an element.<br/>
+ * A queue mostly full means the consumer is the bottleneck, a queue mostly empty the producer.
+ * Queues of the same name in pipelines running at the same time share their depth, so it is recorded by several producers at once:
+ * samples are added without locking and the depths are read without locking.
+ */
+public class QueueDepth {
+    private final String name;
+    private final int capacity;
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder totalDepth = new LongAdder();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    QueueDepth(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param depth the number of elements in the queue after an element was added
+     */
+    public void record(int depth) {
+        samples.increment();
+        totalDepth.add(depth);
+        if (depth > maxDepth.get()) {
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getMeanDepth() {
+        long count = samples.sum();
+        return count == 0 ? 0 : (double) totalDepth.sum() / count;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-20s capacity %3d, mean depth %6.2f, max depth %3d", name, capacity, getMeanDepth(), getMaxDepth());
+    }
+}
@@ -0,0 +1,27 @@
+package com.woobadeau.jpmorgan.metrics;
+
+/**
+ * Stages of the processing of settlement lines, timed by com.woobadeau.jpmorgan.metrics.StageMetrics.
+ */
+public enum Stage {
+    /**
+     * Finding the end of a line in a mapped window, which is when the bytes of the file are actually read
+     */
+    READ,
+    /**
+     * Parsing a line into an instruction, rejected lines included
+     */
+    PARSE,
+    /**
+     * Computing the settlement day of an instruction
+     */
+    SETTLE,
+    /**
+     * Adding an instruction to its daily report
+     */
+    AGGREGATE,
+    /**
+     * Writing the report of a day
+     */
+    RENDER
+}
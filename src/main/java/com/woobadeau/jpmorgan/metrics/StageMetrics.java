@@ -0,0 +1,361 @@
+package com.woobadeau.jpmorgan.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Counters and latency histograms of the stages of a run, see com.woobadeau.jpmorgan.metrics.Stage.<br/>
+ * Hot paths call com.woobadeau.jpmorgan.metrics.StageMetrics#start() before a stage and
+ * com.woobadeau.jpmorgan.metrics.StageMetrics#stop(com.woobadeau.jpmorgan.metrics.Stage, long) after it.
+ * Every event is counted but only one in 16 is timed, and each thread records into its own com.woobadeau.jpmorgan.metrics.StageRecorder,
+ * so recording costs a few nanoseconds and no contention. Recorders are merged when metrics are read, without stopping the threads:
+ * values read while a run is going on may lag slightly behind.
+ * The recorders of ended threads, such as the parsers of a pipeline, are added to a single retired recorder, so threads come and go without leaking theirs.<br/>
+ * Nothing is recorded until com.woobadeau.jpmorgan.metrics.StageMetrics#enable() is called, which also registers the metrics as an MBean.
+ */
+public class StageMetrics implements StageMetricsMBean {
+    public static final String OBJECT_NAME = "com.woobadeau.jpmorgan:type=StageMetrics";
+    private static final int SAMPLE_MASK = 15;
+    private static final long DISABLED = Long.MIN_VALUE;
+    private static final long NOT_TIMED = Long.MIN_VALUE + 1;
+
+    private static final StageMetrics INSTANCE = new StageMetrics();
+    private static volatile boolean enabled;
+
+    /**
+     * Recorders of the threads that were alive when last checked, guarded by their own lock
+     */
+    private final List<StageRecorder> recorders = new ArrayList<>();
+    /**
+     * Sum of the recorders of the threads that ended
+     */
+    private final StageRecorder retired = new StageRecorder(null);
+    private final ThreadLocal<StageRecorder> recorder = ThreadLocal.withInitial(() -> {
+        StageRecorder threadRecorder = new StageRecorder(Thread.currentThread());
+        synchronized (recorders) {
+            retireEndedThreads();
+            recorders.add(threadRecorder);
+        }
+        return threadRecorder;
+    });
+    private final Map<String, QueueDepth> queueDepths = new LinkedHashMap<>();
+    private volatile long startNanos = System.nanoTime();
+    private volatile long distinctEntities;
+    private volatile long settlementDays;
+
+    private StageMetrics() {
+    }
+
+    public static StageMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start recording, and register the metrics with the platform MBean server if they are not yet.
+     * Lines per second are counted from the first call.
+     */
+    public static synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        INSTANCE.startNanos = System.nanoTime();
+        enabled = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            //Registered by an earlier run in the same JVM
+        } catch (JMException e) {
+            System.err.println("Stage metrics not available through JMX: " + e.getMessage());
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the value to be given to com.woobadeau.jpmorgan.metrics.StageMetrics#stop(com.woobadeau.jpmorgan.metrics.Stage, long) at the end of the stage
+     */
+    public static long start() {
+        if (!enabled) {
+            return DISABLED;
+        }
+        return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0 ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Count an event of the stage, and time it if it was sampled
+     * @param stage the stage the event belongs to
+     * @param start the value returned by com.woobadeau.jpmorgan.metrics.StageMetrics#start() at the beginning of the stage
+     */
+    public static void stop(Stage stage, long start) {
+        if (start == DISABLED) {
+            return;
+        }
+        StageRecorder threadRecorder = INSTANCE.recorder.get();
+        if (start == NOT_TIMED) {
+            threadRecorder.count(stage);
+        } else {
+            threadRecorder.time(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param bytes the number of bytes of settlement files read
+     */
+    public static void bytesRead(long bytes) {
+        if (enabled) {
+            INSTANCE.recorder.get().bytesRead += bytes;
+        }
+    }
+
+    public static void lineRejected() {
+        if (enabled) {
+            INSTANCE.recorder.get().rejectedLines++;
+        }
+    }
+
+    /**
+     * @param name the name of the queue, the depth of a queue of the same name is shared with it
+     * @param capacity the capacity of the queue
+     * @return the depth to be recorded by the producer of the queue
+     */
+    public synchronized QueueDepth queueDepth(String name, int capacity) {
+        return queueDepths.computeIfAbsent(name, key -> new QueueDepth(key, capacity));
+    }
+
+    @Override
+    public synchronized String[] getQueueDepths() {
+        String[] depths = new String[queueDepths.size()];
+        int i = 0;
+        for (QueueDepth queueDepth : queueDepths.values()) {
+            depths[i++] = queueDepth.toString();
+        }
+        return depths;
+    }
+
+    /**
+     * Set the size of the report, once the settlement files are read
+     */
+    public void reportSize(long distinctEntities, long settlementDays) {
+        this.distinctEntities = distinctEntities;
+        this.settlementDays = settlementDays;
+    }
+
+    /**
+     * Add the recorders of the threads that ended to the retired one. A thread that ended wrote all its metrics before
+     * java.lang.Thread#isAlive() returned false, so none is lost. Called with the lock of the recorders held.
+     */
+    private void retireEndedThreads() {
+        Iterator<StageRecorder> iterator = recorders.iterator();
+        while (iterator.hasNext()) {
+            StageRecorder threadRecorder = iterator.next();
+            if (!threadRecorder.owner.isAlive()) {
+                threadRecorder.addTo(retired);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the recorders of the live threads, and a copy of the retired one so that no recorder is counted twice
+     */
+    private List<StageRecorder> recorders() {
+        synchronized (recorders) {
+            retireEndedThreads();
+            List<StageRecorder> all = new ArrayList<>(recorders);
+            StageRecorder retiredCopy = new StageRecorder(null);
+            retired.addTo(retiredCopy);
+            all.add(retiredCopy);
+            return all;
+        }
+    }
+
+    /**
+     * @return the number of recorders of live threads
+     */
+    int liveRecorders() {
+        synchronized (recorders) {
+            retireEndedThreads();
+            return recorders.size();
+        }
+    }
+
+    @Override
+    public String[] getStages() {
+        String[] stages = new String[Stage.values().length];
+        for (Stage stage : Stage.values()) {
+            stages[stage.ordinal()] = stage.name();
+        }
+        return stages;
+    }
+
+    @Override
+    public long[] getEvents() {
+        long[] events = new long[Stage.values().length];
+        for (StageRecorder threadRecorder : recorders()) {
+            for (int i = 0; i < events.length; i++) {
+                events[i] += threadRecorder.events[i];
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Extrapolate the time of all the events from the time of the sampled ones
+     */
+    @Override
+    public long[] getTotalMillis() {
+        long[] totals = new long[Stage.values().length];
+        List<StageRecorder> all = recorders();
+        for (int i = 0; i < totals.length; i++) {
+            long samples = 0;
+            long nanos = 0;
+            long events = 0;
+            for (StageRecorder threadRecorder : all) {
+                samples += threadRecorder.samples[i];
+                nanos += threadRecorder.sampledNanos[i];
+                events += threadRecorder.events[i];
+            }
+            totals[i] = samples == 0 ? 0 : (long) ((double) nanos / samples * events / 1000000);
+        }
+        return totals;
+    }
+
+    @Override
+    public long[] getMeanNanos() {
+        long[] means = new long[Stage.values().length];
+        List<StageRecorder> all = recorders();
+        for (int i = 0; i < means.length; i++) {
+            long samples = 0;
+            long nanos = 0;
+            for (StageRecorder threadRecorder : all) {
+                samples += threadRecorder.samples[i];
+                nanos += threadRecorder.sampledNanos[i];
+            }
+            means[i] = samples == 0 ? 0 : nanos / samples;
+        }
+        return means;
+    }
+
+    @Override
+    public long[] getMedianNanos() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long[] getP99Nanos() {
+        return percentile(0.99);
+    }
+
+    private long[] percentile(double fraction) {
+        long[] percentiles = new long[Stage.values().length];
+        List<StageRecorder> all = recorders();
+        for (int i = 0; i < percentiles.length; i++) {
+            long[] histogram = new long[StageRecorder.BUCKETS];
+            long samples = 0;
+            for (StageRecorder threadRecorder : all) {
+                for (int bucket = 0; bucket < histogram.length; bucket++) {
+                    histogram[bucket] += threadRecorder.histograms[i][bucket];
+                }
+                samples += threadRecorder.samples[i];
+            }
+            long rank = (long) Math.ceil(samples * fraction);
+            long seen = 0;
+            for (int bucket = 0; bucket < histogram.length && samples > 0; bucket++) {
+                seen += histogram[bucket];
+                if (seen >= rank) {
+                    percentiles[i] = StageRecorder.bucketValue(bucket);
+                    break;
+                }
+            }
+        }
+        return percentiles;
+    }
+
+    @Override
+    public long[] getMaxNanos() {
+        long[] max = new long[Stage.values().length];
+        for (StageRecorder threadRecorder : recorders()) {
+            for (int i = 0; i < max.length; i++) {
+                max[i] = Math.max(max[i], threadRecorder.maxNanos[i]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of lines parsed per second since the metrics were enabled
+     */
+    @Override
+    public long getLinesPerSecond() {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        return (long) (getEvents()[Stage.PARSE.ordinal()] * 1e9 / elapsedNanos);
+    }
+
+    @Override
+    public long getBytesRead() {
+        long bytes = 0;
+        for (StageRecorder threadRecorder : recorders()) {
+            bytes += threadRecorder.bytesRead;
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getRejectedLines() {
+        long rejected = 0;
+        for (StageRecorder threadRecorder : recorders()) {
+            rejected += threadRecorder.rejectedLines;
+        }
+        return rejected;
+    }
+
+    @Override
+    public long getDistinctEntities() {
+        return distinctEntities;
+    }
+
+    @Override
+    public long getSettlementDays() {
+        return settlementDays;
+    }
+
+    @Override
+    public String getSummary() {
+        return toString();
+    }
+
+    @Override
+    public String toString() {
+        long[] events = getEvents();
+        long[] totals = getTotalMillis();
+        long[] means = getMeanNanos();
+        long[] medians = getMedianNanos();
+        long[] p99 = getP99Nanos();
+        long[] max = getMaxNanos();
+        StringBuilder builder = new StringBuilder(String.format("%-10s %12s %10s %10s %10s %10s %12s%n",
+                "Stage", "Events", "Total ms", "Mean ns", "p50 ns", "p99 ns", "Max ns"));
+        for (Stage stage : Stage.values()) {
+            int i = stage.ordinal();
+            builder.append(String.format("%-10s %12d %10d %10d %10d %10d %12d%n", stage, events[i], totals[i], means[i], medians[i], p99[i], max[i]));
+        }
+        for (String queueDepth : getQueueDepths()) {
+            builder.append("Queue ").append(queueDepth).append('\n');
+        }
+        return builder.append("Lines per second: ").append(getLinesPerSecond())
+                .append("\nBytes read: ").append(getBytesRead())
+                .append("\nRejected lines: ").append(getRejectedLines())
+                .append("\nDistinct entities: ").append(getDistinctEntities())
+                .append("\nSettlement days: ").append(getSettlementDays())
+                .append("\n").toString();
+    }
+}
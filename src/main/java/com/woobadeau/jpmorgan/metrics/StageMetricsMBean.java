@@ -0,0 +1,45 @@
+package com.woobadeau.jpmorgan.metrics;
+
+/**
+ * Management interface of com.woobadeau.jpmorgan.metrics.StageMetrics, registered as com.woobadeau.jpmorgan:type=StageMetrics.<br/>
+ * Per stage values are arrays in the order of com.woobadeau.jpmorgan.metrics.StageMetricsMBean#getStages().
+ */
+public interface StageMetricsMBean {
+
+    String[] getStages();
+
+    long[] getEvents();
+
+    /**
+     * @return the estimated time spent in each stage, in milliseconds
+     */
+    long[] getTotalMillis();
+
+    long[] getMeanNanos();
+
+    long[] getMedianNanos();
+
+    long[] getP99Nanos();
+
+    long[] getMaxNanos();
+
+    long getLinesPerSecond();
+
+    long getBytesRead();
+
+    long getRejectedLines();
+
+    long getDistinctEntities();
+
+    long getSettlementDays();
+
+    /**
+     * @return the depth of the queues between stages of pipelined runs, see com.woobadeau.jpmorgan.metrics.QueueDepth
+     */
+    String[] getQueueDepths();
+
+    /**
+     * @return all the metrics as a table, as printed by the report builder
+     */
+    String getSummary();
+}
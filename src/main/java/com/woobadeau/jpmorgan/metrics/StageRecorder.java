@@ -0,0 +1,80 @@
+package com.woobadeau.jpmorgan.metrics;
+
+/**
+ * Metrics recorded by one thread, only written by that thread until it ends.<br/>
+ * Latencies are kept in a histogram of 8 buckets per power of two, so percentiles are known within 12.5%.
+ */
+class StageRecorder {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    final long[] events = new long[Stage.values().length];
+    final long[] samples = new long[Stage.values().length];
+    final long[] sampledNanos = new long[Stage.values().length];
+    final long[] maxNanos = new long[Stage.values().length];
+    final long[][] histograms = new long[Stage.values().length][BUCKETS];
+    long bytesRead;
+    long rejectedLines;
+    /**
+     * Thread recording the metrics, null for the recorder the metrics of ended threads are added to
+     */
+    final Thread owner;
+
+    StageRecorder(Thread owner) {
+        this.owner = owner;
+    }
+
+    void count(Stage stage) {
+        events[stage.ordinal()]++;
+    }
+
+    void time(Stage stage, long nanos) {
+        int index = stage.ordinal();
+        events[index]++;
+        samples[index]++;
+        sampledNanos[index] += nanos;
+        if (nanos > maxNanos[index]) {
+            maxNanos[index] = nanos;
+        }
+        histograms[index][bucket(nanos)]++;
+    }
+
+    /**
+     * Add the metrics of this recorder to the given one
+     */
+    void addTo(StageRecorder total) {
+        for (int i = 0; i < events.length; i++) {
+            total.events[i] += events[i];
+            total.samples[i] += samples[i];
+            total.sampledNanos[i] += sampledNanos[i];
+            total.maxNanos[i] = Math.max(total.maxNanos[i], maxNanos[i]);
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                total.histograms[i][bucket] += histograms[i][bucket];
+            }
+        }
+        total.bytesRead += bytesRead;
+        total.rejectedLines += rejectedLines;
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the middle of the latencies of the bucket
+     */
+    static long bucketValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) / 2;
+    }
+}
@@ -0,0 +1,465 @@
+package com.woobadeau.jpmorgan.server;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.settlement.ConcurrentReportAccumulator;
+import com.woobadeau.jpmorgan.settlement.ReportFormat;
+import com.woobadeau.jpmorgan.settlement.ReportWriter;
+import com.woobadeau.jpmorgan.settlement.SettlementDateManager;
+import com.woobadeau.jpmorgan.settlement.SettlementReport;
+import com.woobadeau.jpmorgan.transaction.BufferInstructionParser;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector loop serving the connections handed to it by the com.woobadeau.jpmorgan.server.IngestServer.<br/>
+ * Lines are parsed as they are read and parsed instructions are batched per connection.
+ * Instructions, commands and responses are all encoded in UTF-8, whatever the default charset.
+ * A batch is aggregated when it is full, when the lines read so far are exhausted or before a command is answered,
+ * so a command always sees the instructions sent before it on the same connection.<br/>
+ * A client that sends faster than it reads its responses is held back: once the responses waiting to be written to a connection
+ * reach com.woobadeau.jpmorgan.server.IngestLoop#MAX_PENDING_OUTPUT bytes, its lines are left unread until they are written.<br/>
+ * Reports are streamed the same way: a few days are rendered at a time, the next ones once the previous ones are written,
+ * so that a large report neither holds the loop nor its other connections.
+ */
+class IngestLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+    static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    private static final int REPORT_DAYS_PER_CHUNK = 16;
+    private static final int OUTPUT_CHUNK_SIZE = 16 * 1024;
+
+    private final Selector selector;
+    private final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+    private final ConcurrentReportAccumulator accumulator;
+    private final IngestStatistics statistics;
+    private final String separator;
+    private final String dateFormat;
+    private final int batchSize;
+    /**
+     * Parser of the instruction lines, null if the separator is a regular expression only supported by com.woobadeau.jpmorgan.transaction.InstructionParser
+     */
+    private final BufferInstructionParser parser;
+    private final SimpleDateFormat dateParser;
+    private volatile boolean running = true;
+
+    IngestLoop(ConcurrentReportAccumulator accumulator, IngestStatistics statistics, String separator, String dateFormat, int batchSize) throws IOException {
+        this.selector = Selector.open();
+        this.accumulator = accumulator;
+        this.statistics = statistics;
+        this.separator = separator;
+        this.dateFormat = dateFormat;
+        this.batchSize = batchSize;
+        this.parser = BufferInstructionParser.supportsSeparator(separator) ? new BufferInstructionParser(separator, dateFormat, StandardCharsets.UTF_8) : null;
+        this.dateParser = new SimpleDateFormat(dateFormat == null ? IngestServer.DEFAULT_DATE_FORMAT : dateFormat);
+    }
+
+    /**
+     * Hand a new connection over to this loop, from any thread.
+     */
+    void register(SocketChannel channel) {
+        newConnections.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Stop the loop and close its connections.
+     */
+    void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                registerNewConnections();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Ingest loop stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                //Nothing left to release
+            }
+        }
+    }
+
+    private void registerNewConnections() throws IOException {
+        SocketChannel channel;
+        while ((channel = newConnections.poll()) != null) {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, batchSize);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.input) < 0) {
+            connection.endOfInput = true;
+        }
+        processInput(connection);
+        if (!connection.closing && !connection.endOfInput && !connection.outputFull() && connection.report == null && !connection.input.hasRemaining()) {
+            //The buffer holds a single line that does not fit in it
+            if (connection.input.capacity() >= MAX_LINE_LENGTH) {
+                connection.respond("ERR Line longer than " + MAX_LINE_LENGTH + " bytes");
+                connection.closeAfterWrites();
+            } else {
+                ByteBuffer input = ByteBuffer.allocate(connection.input.capacity() * 2);
+                connection.input.flip();
+                input.put(connection.input);
+                connection.input = input;
+            }
+        }
+        connection.updateInterest();
+    }
+
+    /**
+     * Carry on with the report being streamed, then handle the lines read so far, until the responses waiting to be written fill up,
+     * and close the connection after the last line of the client.
+     */
+    private void processInput(Connection connection) throws IOException {
+        continueReport(connection);
+        long readNanos = System.nanoTime();
+        connection.input.flip();
+        processLines(connection, readNanos);
+        flush(connection, readNanos);
+        connection.input.compact();
+        if (connection.endOfInput && connection.report == null && connection.input.position() == 0) {
+            connection.closeAfterWrites();
+        }
+    }
+
+    /**
+     * Handle the complete lines between the position and the limit of the input buffer, moving the position after the last one handled.
+     * Lines are left in the buffer once the responses waiting to be written fill up, or while a report is streamed.
+     * After the last bytes of the client, the remaining bytes are a line as well.
+     */
+    private void processLines(Connection connection, long readNanos) throws IOException {
+        ByteBuffer input = connection.input;
+        int start = input.position();
+        int limit = input.limit();
+        for (int i = start; i < limit && connection.acceptsLines(); i++) {
+            if (input.get(i) == '\n') {
+                processLine(connection, input, start, i, readNanos);
+                start = i + 1;
+            }
+        }
+        if (connection.endOfInput && start < limit && connection.acceptsLines()) {
+            processLine(connection, input, start, limit, readNanos);
+            start = limit;
+        }
+        input.position(start);
+    }
+
+    private void processLine(Connection connection, ByteBuffer input, int start, int end, long readNanos) throws IOException {
+        if (end > start && input.get(end - 1) == '\r') {
+            end--;
+        }
+        connection.lines++;
+        if (start == end || connection.closing) {
+            return;
+        }
+        if (input.get(start) == '#') {
+            flush(connection, readNanos);
+            command(connection, string(input, start + 1, end).trim());
+            return;
+        }
+        try {
+            Instruction instruction = parser != null ? parser.parse(input, start, end) : InstructionParser.parseLine(string(input, start, end), separator, dateFormat);
+            //Settled here rather than when the batch is aggregated, so that the line can be reported to the client
+            SettlementDateManager settlementDateManager = SettlementDateManager.getInstance();
+            connection.settlementDays[connection.batch.size()] = settlementDateManager.settledEpochDay(instruction.getSettlementEpochDay(),
+                    settlementDateManager.currencyId(instruction.getCurrency()));
+            connection.batch.add(instruction);
+            if (connection.batch.size() >= batchSize) {
+                flush(connection, readNanos);
+            }
+        } catch (InstructionParsingException | SettlementConfigurationException | SettlementException e) {
+            statistics.lineRejected();
+            connection.respond("ERR Line " + connection.lines + ": " + e.getMessage().replace('\n', ' '));
+        }
+    }
+
+    /**
+     * Aggregate the pending batch of the connection.
+     */
+    private void flush(Connection connection, long readNanos) {
+        List<Instruction> batch = connection.batch;
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            accumulator.acceptAll(batch, connection.settlementDays);
+        } catch (SettlementException e) {
+            //Only thrown by the deduplicator once it is full, the instructions of the batch before the failing one are aggregated
+            connection.respond("ERR Line " + connection.lines + ": " + e.getMessage());
+        }
+        statistics.batchAggregated(batch.size(), System.nanoTime() - readNanos);
+        batch.clear();
+    }
+
+    private void command(Connection connection, String command) throws IOException {
+        String[] words = command.split("\\s+", 2);
+        switch (words[0].toUpperCase()) {
+            case "REPORT":
+                if (words.length == 1) {
+                    connection.report = accumulator.snapshot();
+                    connection.reportWriter = ReportFormat.TEXT.writer(new OutputWriter(connection));
+                    connection.reportDay = ReportWriter.FIRST_DAY;
+                    connection.reportWriter.writeStart();
+                    continueReport(connection);
+                } else {
+                    try {
+                        Date settlementDate = dateParser.parse(words[1]);
+                        connection.respond(accumulator.snapshot(settlementDate).toString(settlementDate) + "END");
+                    } catch (ParseException e) {
+                        connection.respond("ERR Unparseable date: " + words[1]);
+                    }
+                }
+                break;
+            case "STATS":
+                connection.respond(statistics.toString() + "END");
+                break;
+            case "QUIT":
+                connection.closeAfterWrites();
+                break;
+            default:
+                connection.respond("ERR Unknown command: " + words[0]);
+        }
+    }
+
+    /**
+     * Render the next days of the report being streamed, until the responses waiting to be written fill up or the report ends.
+     */
+    private void continueReport(Connection connection) throws IOException {
+        while (connection.report != null && !connection.outputFull()) {
+            connection.reportDay = connection.reportWriter.writeDays(connection.report, connection.reportDay, REPORT_DAYS_PER_CHUNK);
+            if (connection.reportDay == ReportWriter.LAST_DAY) {
+                connection.reportWriter.writeEnd();
+                connection.report = null;
+                connection.reportWriter = null;
+                connection.respond("END");
+            } else {
+                connection.reportWriter.flush();
+            }
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        Queue<ByteBuffer> output = connection.output;
+        while (!output.isEmpty()) {
+            connection.channel.write(output.peek());
+            if (output.peek().hasRemaining()) {
+                return;
+            }
+            connection.pendingOutput -= output.poll().capacity();
+        }
+        if (connection.closing) {
+            connection.close();
+            return;
+        }
+        //Report and lines left unread while the responses were pending
+        processInput(connection);
+        connection.updateInterest();
+    }
+
+    private static String string(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * State of a client connection.
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final Queue<ByteBuffer> output = new ArrayDeque<>();
+        private final List<Instruction> batch = new ArrayList<>();
+        /**
+         * Settlement epoch days of the instructions of the batch
+         */
+        private final long[] settlementDays;
+        /**
+         * Report being streamed, null if none
+         */
+        private SettlementReport report;
+        private ReportWriter reportWriter;
+        /**
+         * Next day of the report to be rendered
+         */
+        private long reportDay;
+        /**
+         * Number of bytes of the responses waiting to be written
+         */
+        private long pendingOutput;
+        /**
+         * Number of lines read so far, to locate errors
+         */
+        private long lines;
+        private boolean closing;
+        /**
+         * True once the client sent its last bytes
+         */
+        private boolean endOfInput;
+
+        Connection(SocketChannel channel, int batchSize) {
+            this.channel = channel;
+            this.settlementDays = new long[batchSize];
+        }
+
+        /**
+         * Queue a response line, written when the channel is ready
+         */
+        void respond(String response) {
+            queue((response + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Queue bytes of a response, written when the channel is ready
+         */
+        void queue(byte[] response) {
+            output.add(ByteBuffer.wrap(response));
+            pendingOutput += response.length;
+            updateInterest();
+        }
+
+        /**
+         * @return true if nothing more should be rendered until responses are written
+         */
+        boolean outputFull() {
+            return pendingOutput >= MAX_PENDING_OUTPUT;
+        }
+
+        /**
+         * @return true if the next line can be handled, the responses to the previous ones being below their limit
+         */
+        boolean acceptsLines() {
+            return report == null && !outputFull();
+        }
+
+        /**
+         * Read while the responses waiting to be written are below their limit, and write while there are some
+         */
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int interest = 0;
+            if (!closing && !endOfInput && acceptsLines()) {
+                interest |= SelectionKey.OP_READ;
+            }
+            if (!output.isEmpty()) {
+                interest |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(interest);
+        }
+
+        /**
+         * Stop reading and close the connection once the queued responses are written
+         */
+        void closeAfterWrites() {
+            closing = true;
+            if (output.isEmpty()) {
+                close();
+            } else if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //The connection is dropped anyway
+            }
+        }
+    }
+
+    /**
+     * Characters of a streamed report, queued to the connection in UTF-8 chunks.
+     */
+    private static class OutputWriter extends Writer {
+        private final Connection connection;
+        private final StringBuilder chunk = new StringBuilder();
+
+        OutputWriter(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(char[] characters, int offset, int length) {
+            chunk.append(characters, offset, length);
+            if (chunk.length() >= OUTPUT_CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            chunk.append(string, offset, offset + length);
+            if (chunk.length() >= OUTPUT_CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (chunk.length() > 0) {
+                connection.queue(chunk.toString().getBytes(StandardCharsets.UTF_8));
+                chunk.setLength(0);
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.woobadeau.jpmorgan.server;
+
+import com.woobadeau.jpmorgan.settlement.ConcurrentReportAccumulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Long running server aggregating instruction lines sent over TCP into a live report.<br/>
+ * Clients send instruction lines in the separator and date format of the server, one per line.
+ * Lines that cannot be parsed or settled are answered with a single line starting with ERR and the line number.
+ * Lines starting with # are commands, answered with their result followed by a line holding END:
+ * <ul>
+ *     <li>#REPORT : the report of all the instructions received so far</li>
+ *     <li>#REPORT {date} : the report of the given settlement date, in the date format of the server</li>
+ *     <li>#STATS : the ingest statistics of the server, see com.woobadeau.jpmorgan.server.IngestStatistics</li>
+ *     <li>#QUIT : close the connection</li>
+ * </ul>
+ * Connections are accepted by one thread and served by a fixed number of non blocking selector loops,
+ * each aggregating micro batches of instructions into a shared com.woobadeau.jpmorgan.settlement.ConcurrentReportAccumulator.
+ */
+public class IngestServer implements Closeable {
+    static final String DEFAULT_DATE_FORMAT = "dd MMM yyyy";
+    /**
+     * Default maximum number of instructions aggregated at once per connection
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final InetSocketAddress address;
+    private final ConcurrentReportAccumulator accumulator;
+    private final IngestStatistics statistics = new IngestStatistics();
+    private final IngestLoop[] loops;
+    private final Thread[] loopThreads;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+
+    /**
+     * @param address the address to listen on, port 0 for any free port
+     * @param separator the field separator of instruction lines, null for the default one
+     * @param dateFormat the date format of instruction lines and commands, null for the default one
+     * @param loops the number of selector loops serving connections
+     * @param accumulator the accumulator of the instructions received
+     */
+    public IngestServer(InetSocketAddress address, String separator, String dateFormat, int loops, ConcurrentReportAccumulator accumulator) throws IOException {
+        this(address, separator, dateFormat, loops, DEFAULT_BATCH_SIZE, accumulator);
+    }
+
+    /**
+     * @param address the address to listen on, port 0 for any free port
+     * @param separator the field separator of instruction lines, null for the default one
+     * @param dateFormat the date format of instruction lines and commands, null for the default one
+     * @param loops the number of selector loops serving connections
+     * @param batchSize the maximum number of instructions aggregated at once per connection
+     * @param accumulator the accumulator of the instructions received
+     */
+    public IngestServer(InetSocketAddress address, String separator, String dateFormat, int loops, int batchSize, ConcurrentReportAccumulator accumulator) throws IOException {
+        this.address = address;
+        this.accumulator = accumulator;
+        this.loops = new IngestLoop[loops];
+        this.loopThreads = new Thread[loops];
+        for (int i = 0; i < loops; i++) {
+            this.loops[i] = new IngestLoop(accumulator, statistics, separator, dateFormat, batchSize);
+            this.loopThreads[i] = new Thread(this.loops[i], "ingest-loop-" + i);
+        }
+    }
+
+    /**
+     * Bind the server and start serving connections.
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        for (Thread loopThread : loopThreads) {
+            loopThread.start();
+        }
+        acceptThread = new Thread(this::acceptConnections, "ingest-accept");
+        acceptThread.start();
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        try {
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                statistics.connectionOpened();
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        } catch (ClosedChannelException e) {
+            //The server was closed
+        } catch (IOException e) {
+            System.err.println("Ingest server stopped accepting connections: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * @return the accumulator of the instructions received, which can also be fed or queried directly
+     */
+    public ConcurrentReportAccumulator getAccumulator() {
+        return accumulator;
+    }
+
+    public IngestStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Stop accepting connections and close the open ones, waiting for the loops to stop.
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        for (IngestLoop loop : loops) {
+            loop.close();
+        }
+        try {
+            if (acceptThread != null) {
+                acceptThread.join();
+            }
+            for (Thread loopThread : loopThreads) {
+                if (loopThread.isAlive()) {
+                    loopThread.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
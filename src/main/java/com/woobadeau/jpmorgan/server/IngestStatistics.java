@@ -0,0 +1,100 @@
+package com.woobadeau.jpmorgan.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ingest counters of a com.woobadeau.jpmorgan.server.IngestServer, updated by all its connections.<br/>
+ * The latency of a batch is the time between the read of its first line and its aggregation into the report.
+ */
+public class IngestStatistics {
+    private final long startNanos = System.nanoTime();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder instructions = new LongAdder();
+    private final LongAdder rejectedLines = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchLatencyNanos = new LongAdder();
+    private final AtomicLong maxBatchLatencyNanos = new AtomicLong();
+
+    void connectionOpened() {
+        connections.increment();
+    }
+
+    void lineRejected() {
+        rejectedLines.increment();
+    }
+
+    /**
+     * @param size the number of instructions of the batch
+     * @param latencyNanos the latency of the batch
+     */
+    void batchAggregated(int size, long latencyNanos) {
+        instructions.add(size);
+        batches.increment();
+        batchLatencyNanos.add(latencyNanos);
+        maxBatchLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    /**
+     * @return the number of connections accepted since the start of the server
+     */
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    /**
+     * @return the number of instructions aggregated since the start of the server
+     */
+    public long getInstructions() {
+        return instructions.sum();
+    }
+
+    /**
+     * @return the number of lines that could not be parsed or aggregated
+     */
+    public long getRejectedLines() {
+        return rejectedLines.sum();
+    }
+
+    /**
+     * @return the number of batches aggregated
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the mean batch latency in microseconds
+     */
+    public long getMeanBatchLatencyMicros() {
+        long count = batches.sum();
+        return count == 0 ? 0 : batchLatencyNanos.sum() / count / 1000;
+    }
+
+    /**
+     * @return the highest batch latency in microseconds
+     */
+    public long getMaxBatchLatencyMicros() {
+        return maxBatchLatencyNanos.get() / 1000;
+    }
+
+    /**
+     * @return the mean number of instructions aggregated per second since the start of the server
+     */
+    public long getInstructionsPerSecond() {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        return (long) (instructions.sum() * 1e9 / elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "Connections: " + getConnections() +
+                "\nInstructions: " + getInstructions() +
+                "\nRejected lines: " + getRejectedLines() +
+                "\nBatches: " + getBatches() +
+                "\nInstructions per second: " + getInstructionsPerSecond() +
+                "\nMean batch latency (us): " + getMeanBatchLatencyMicros() +
+                "\nMax batch latency (us): " + getMaxBatchLatencyMicros() +
+                "\n";
+    }
+}
@@ -0,0 +1,166 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.math.BigDecimal;
+
+/**
+ * Running total of amounts.<br/>
+ * In fixed point mode the total is a long holding the amount multiplied by 10^scale. It only switches to
+ * java.math.BigDecimal, for good, when an amount has more decimals than the scale or when a product or the total overflows,
+ * so totals are always exact.<br/>
+ * In decimal mode every amount is added as a java.math.BigDecimal.
+ */
+final class AmountAccumulator implements Comparable<AmountAccumulator> {
+    /**
+     * Scale of the accumulators always working with java.math.BigDecimal
+     */
+    static final int DECIMAL_MODE = -1;
+    static final int MAX_SCALE = 18;
+
+    /**
+     * Marks overflowing products. A product equal to Long.MIN_VALUE is treated as an overflow too,
+     * which only sends the total to decimal mode earlier than needed.
+     */
+    private static final long OVERFLOW = Long.MIN_VALUE;
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final int scale;
+    private long unscaled;
+    /**
+     * The total once in decimal mode, null while the total is held in unscaled
+     */
+    private BigDecimal decimal;
+
+    /**
+     * @param scale the number of decimals kept in fixed point mode, com.woobadeau.jpmorgan.settlement.AmountAccumulator#DECIMAL_MODE for decimal mode
+     */
+    AmountAccumulator(int scale) {
+        if (scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Scale " + scale + " is greater than " + MAX_SCALE);
+        }
+        this.scale = scale;
+        if (scale < 0) {
+            decimal = new BigDecimal(0);
+        }
+    }
+
+    /**
+     * Add the value of an instruction: price * forex * units.
+     */
+    void addProduct(BigDecimal price, BigDecimal forex, int units) {
+        if (decimal == null && price.precision() <= MAX_SCALE && forex.precision() <= MAX_SCALE) {
+            long product = multiply(price.unscaledValue().longValue(), forex.unscaledValue().longValue());
+            if (product != OVERFLOW) {
+                product = multiply(product, units);
+                if (product != OVERFLOW && addScaled(product, price.scale() + forex.scale())) {
+                    return;
+                }
+            }
+        }
+        add(price.multiply(forex).multiply(new BigDecimal(units)));
+    }
+
+    /**
+     * Add the value of an instruction given as unscaled values: (priceUnscaled * 10^-priceScale) * (forexUnscaled * 10^-forexScale) * units.
+     * Same as com.woobadeau.jpmorgan.settlement.AmountAccumulator#addProduct(java.math.BigDecimal, java.math.BigDecimal, int)
+     * without creating java.math.BigDecimal objects while the total fits in fixed point.
+     */
+    void addProduct(long priceUnscaled, int priceScale, long forexUnscaled, int forexScale, int units) {
+        if (decimal == null) {
+            long product = multiply(priceUnscaled, forexUnscaled);
+            if (product != OVERFLOW) {
+                product = multiply(product, units);
+                if (product != OVERFLOW && addScaled(product, priceScale + forexScale)) {
+                    return;
+                }
+            }
+        }
+        add(BigDecimal.valueOf(priceUnscaled, priceScale).multiply(BigDecimal.valueOf(forexUnscaled, forexScale)).multiply(new BigDecimal(units)));
+    }
+
+    /**
+     * Add an amount.
+     */
+    void add(BigDecimal amount) {
+        if (decimal == null && amount.precision() <= MAX_SCALE && addScaled(amount.unscaledValue().longValue(), amount.scale())) {
+            return;
+        }
+        toDecimal();
+        decimal = decimal.add(amount);
+    }
+
+    /**
+     * Add the total of another accumulator.
+     */
+    void add(AmountAccumulator other) {
+        if (other.decimal == null) {
+            if (decimal == null && addScaled(other.unscaled, other.scale)) {
+                return;
+            }
+            toDecimal();
+            decimal = decimal.add(BigDecimal.valueOf(other.unscaled, other.scale));
+        } else {
+            toDecimal();
+            decimal = decimal.add(other.decimal);
+        }
+    }
+
+    /**
+     * @return the total
+     */
+    BigDecimal value() {
+        return decimal != null ? decimal : BigDecimal.valueOf(unscaled, scale);
+    }
+
+    @Override
+    public int compareTo(AmountAccumulator other) {
+        if (decimal == null && other.decimal == null && scale == other.scale) {
+            return Long.compare(unscaled, other.unscaled);
+        }
+        return value().compareTo(other.value());
+    }
+
+    /**
+     * Add value * 10^-valueScale to the fixed point total.
+     * @return false if the value cannot be added exactly, the total is then left untouched
+     */
+    private boolean addScaled(long value, int valueScale) {
+        if (decimal != null || valueScale < 0 || valueScale > scale) {
+            return false;
+        }
+        long scaled = multiply(value, POWERS_OF_TEN[scale - valueScale]);
+        if (scaled == OVERFLOW) {
+            return false;
+        }
+        long sum = unscaled + scaled;
+        if (((unscaled ^ sum) & (scaled ^ sum)) < 0) {
+            return false;
+        }
+        unscaled = sum;
+        return true;
+    }
+
+    private void toDecimal() {
+        if (decimal == null) {
+            decimal = BigDecimal.valueOf(unscaled, scale);
+        }
+    }
+
+    private static long multiply(long a, long b) {
+        long product = a * b;
+        long absA = Math.abs(a);
+        long absB = Math.abs(b);
+        if (((absA | absB) >>> 31) != 0) {
+            if ((b != 0 && product / b != a) || (a == Long.MIN_VALUE && b == -1)) {
+                return OVERFLOW;
+            }
+        }
+        return product;
+    }
+}
@@ -0,0 +1,89 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.BufferInstructionParser;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionFileReader;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
+
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Fork/join task aggregating a range of chunks of a settlement file.<br/>
+ * Ranges are halved until a single chunk is left, each chunk is aggregated into its own com.woobadeau.jpmorgan.settlement.ReportAccumulator
+ * and partial accumulators are merged in file order, so that the result is the same as a sequential read.
+ */
+class ChunkReportTask extends RecursiveTask<ReportAccumulator> {
+
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int firstChunk;
+    private final int lastChunk;
+    private final String separator;
+    private final String dateFormat;
+    private final Supplier<ReportAccumulator> accumulators;
+    private final InstructionRejects rejects;
+    private final String source;
+
+    /**
+     * @param channel the channel of the settlement file
+     * @param offsets the chunk offsets, as returned by com.woobadeau.jpmorgan.transaction.InstructionFileReader#splitAtLines(java.nio.channels.FileChannel, int)
+     * @param firstChunk the first chunk to aggregate (inclusive)
+     * @param lastChunk the last chunk to aggregate (exclusive)
+     * @param separator the field separator
+     * @param dateFormat the date format
+     * @param accumulators creates the accumulator of each chunk
+     * @param rejects the rejected lines, null to fail on the first malformed line
+     * @param source the name of the settlement file, written with its rejected lines
+     */
+    ChunkReportTask(FileChannel channel, long[] offsets, int firstChunk, int lastChunk, String separator, String dateFormat, Supplier<ReportAccumulator> accumulators,
+                    InstructionRejects rejects, String source) {
+        this.channel = channel;
+        this.offsets = offsets;
+        this.firstChunk = firstChunk;
+        this.lastChunk = lastChunk;
+        this.separator = separator;
+        this.dateFormat = dateFormat;
+        this.accumulators = accumulators;
+        this.rejects = rejects;
+        this.source = source;
+    }
+
+    @Override
+    protected ReportAccumulator compute() {
+        if (lastChunk - firstChunk == 1) {
+            return aggregateChunk();
+        }
+        int middle = (firstChunk + lastChunk) >>> 1;
+        ChunkReportTask left = new ChunkReportTask(channel, offsets, firstChunk, middle, separator, dateFormat, accumulators, rejects, source);
+        ChunkReportTask right = new ChunkReportTask(channel, offsets, middle, lastChunk, separator, dateFormat, accumulators, rejects, source);
+        right.fork();
+        ReportAccumulator accumulator = left.compute();
+        accumulator.merge(right.join());
+        return accumulator;
+    }
+
+    private ReportAccumulator aggregateChunk() {
+        ReportAccumulator accumulator = accumulators.get();
+        BufferInstructionParser parser = new BufferInstructionParser(separator, dateFormat);
+        try (InstructionFileReader reader = new InstructionFileReader(channel, offsets[firstChunk], offsets[lastChunk], parser, rejects, source)) {
+            Instruction instruction;
+            while ((instruction = reader.next()) != null) {
+                accumulator.accept(instruction);
+            }
+        } catch (Exception e) {
+            throw new ChunkFailure(e);
+        }
+        return accumulator;
+    }
+
+    /**
+     * Carries the checked exception that stopped a chunk back to the thread that invoked the task.
+     */
+    static class ChunkFailure extends RuntimeException {
+        ChunkFailure(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.transaction.EpochDays;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionDeduplicator;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Aggregation of instructions fed by several threads at once.<br/>
+ * Instructions are folded into stripes, each being a com.woobadeau.jpmorgan.settlement.ReportAccumulator behind its own lock.
+ * A thread starts with the stripe its id maps to and moves on to the next free one when it is busy,
+ * so feeds only contend when there are more of them than stripes.<br/>
+ * Snapshots are consistent cuts: they take all the stripe locks, in index order, only to swap each stripe for an empty one.
+ * Feeds then go on with the empty stripes while the snapshot merges the swapped ones into the instructions of the previous snapshots,
+ * outside of the stripe locks. A snapshot therefore holds exactly the instructions accepted before its swap,
+ * and of each feed the instructions up to one of them, never a later one without an earlier one.
+ */
+public class ConcurrentReportAccumulator {
+
+    private final ReportAccumulator[] stripes;
+    private final ReentrantLock[] locks;
+    private final int fixedPointScale;
+    private final InstructionDeduplicator deduplicator;
+    /**
+     * Instructions swapped out of the stripes by the previous snapshots, guarded by its own monitor
+     */
+    private final ReportAccumulator merged;
+
+    /**
+     * Accumulator adding amounts as java.math.BigDecimal, with two stripes per available processor.
+     */
+    public ConcurrentReportAccumulator() {
+        this(Runtime.getRuntime().availableProcessors() * 2, AmountAccumulator.DECIMAL_MODE);
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two
+     * @param fixedPointScale the number of decimals of fixed point amounts (0 to 18), negative to always add java.math.BigDecimal,
+     *                        see com.woobadeau.jpmorgan.settlement.ReportAccumulator#ReportAccumulator(int)
+     */
+    public ConcurrentReportAccumulator(int stripes, int fixedPointScale) {
+        this(stripes, fixedPointScale, null);
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two
+     * @param fixedPointScale the number of decimals of fixed point amounts (0 to 18), negative to always add java.math.BigDecimal
+     * @param deduplicator the instructions seen so far, shared by all the stripes, null to aggregate every instruction
+     */
+    public ConcurrentReportAccumulator(int stripes, int fixedPointScale, InstructionDeduplicator deduplicator) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("At least one stripe is needed, got " + stripes);
+        }
+        int count = Integer.highestOneBit(stripes);
+        if (count < stripes) {
+            count <<= 1;
+        }
+        this.stripes = new ReportAccumulator[count];
+        this.locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new ReportAccumulator(fixedPointScale, deduplicator);
+            this.locks[i] = new ReentrantLock();
+        }
+        this.fixedPointScale = fixedPointScale;
+        this.deduplicator = deduplicator;
+        this.merged = new ReportAccumulator(fixedPointScale);
+    }
+
+    /**
+     * Fold an instruction into the report of the day it settles on, see com.woobadeau.jpmorgan.settlement.ReportAccumulator#accept(com.woobadeau.jpmorgan.transaction.Instruction)
+     * @param instruction the instruction to be aggregated
+     */
+    public void accept(Instruction instruction) throws SettlementConfigurationException, SettlementException {
+        int stripe = lockStripe();
+        try {
+            stripes[stripe].accept(instruction);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * Fold several instructions, taking a stripe lock once for all of them.
+     * If an instruction cannot be aggregated, the instructions before it are kept and the ones after it are not aggregated.
+     * @param instructions the instructions to be aggregated
+     */
+    public void acceptAll(Iterable<Instruction> instructions) throws SettlementConfigurationException, SettlementException {
+        int stripe = lockStripe();
+        try {
+            for (Instruction instruction : instructions) {
+                stripes[stripe].accept(instruction);
+            }
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * Fold several instructions whose settlement days are already calculated, taking a stripe lock once for all of them.
+     * @param instructions the instructions to be aggregated
+     * @param settlementDays the epoch days the instructions settle on, in the order of the instructions
+     */
+    public void acceptAll(List<Instruction> instructions, long[] settlementDays) throws SettlementException {
+        int stripe = lockStripe();
+        try {
+            for (int i = 0; i < instructions.size(); i++) {
+                stripes[stripe].accept(instructions.get(i), settlementDays[i]);
+            }
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * @return a com.woobadeau.jpmorgan.settlement.SettlementReport of all the instructions accepted so far.
+     * Unlike com.woobadeau.jpmorgan.settlement.ReportAccumulator#toReport() the report is a copy: later instructions are not reflected in it.
+     */
+    public SettlementReport snapshot() {
+        ReportAccumulator snapshot = new ReportAccumulator(fixedPointScale);
+        synchronized (merged) {
+            mergeStripes();
+            snapshot.merge(merged);
+        }
+        return snapshot.toReport();
+    }
+
+    /**
+     * Copy only the report of one day, without copying the other days.
+     * @param settlementDate the settlement date
+     * @return a com.woobadeau.jpmorgan.settlement.SettlementReport of the instructions settling on that date accepted so far, see com.woobadeau.jpmorgan.settlement.ConcurrentReportAccumulator#snapshot()
+     */
+    public SettlementReport snapshot(Date settlementDate) {
+        long epochDay = EpochDays.of(settlementDate);
+        ReportAccumulator snapshot = new ReportAccumulator(fixedPointScale);
+        synchronized (merged) {
+            mergeStripes();
+            snapshot.merge(merged, epochDay);
+        }
+        return snapshot.toReport();
+    }
+
+    /**
+     * Swap all the stripes for empty ones at once, then merge them after the instructions of the previous snapshots.
+     * Only called with the monitor of com.woobadeau.jpmorgan.settlement.ConcurrentReportAccumulator#merged held.
+     */
+    private void mergeStripes() {
+        ReportAccumulator[] swapped = new ReportAccumulator[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            swapped[i] = new ReportAccumulator(fixedPointScale, deduplicator);
+        }
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            for (int i = 0; i < stripes.length; i++) {
+                ReportAccumulator stripe = stripes[i];
+                stripes[i] = swapped[i];
+                swapped[i] = stripe;
+            }
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+        for (ReportAccumulator stripe : swapped) {
+            merged.merge(stripe);
+        }
+    }
+
+    /**
+     * Lock a stripe for the current thread, preferring the one its id maps to.
+     * @return the index of the locked stripe
+     */
+    private int lockStripe() {
+        int mask = stripes.length - 1;
+        int preferred = hash(Thread.currentThread().getId()) & mask;
+        for (int i = 0; i <= mask; i++) {
+            int stripe = (preferred + i) & mask;
+            if (locks[stripe].tryLock()) {
+                return stripe;
+            }
+        }
+        locks[preferred].lock();
+        return preferred;
+    }
+
+    private static int hash(long threadId) {
+        int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,99 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Report with one line per day and entity, in incoming rank order: date (yyyy-MM-dd), entity, incoming and outgoing amounts,
+ * incoming and outgoing ranks (starting at 1).<br/>
+ * Amounts are exact plain decimals in USD, with two decimals unless they need more. Fields holding a separator, a quote or a line break are quoted, as in RFC 4180.
+ */
+class CsvReportWriter extends ReportWriter {
+    static final String HEADER = "date,entity,incoming,outgoing,incomingRank,outgoingRank\n";
+
+    private boolean headerWritten;
+
+    CsvReportWriter(Writer out) {
+        super(out);
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            out.write(HEADER);
+            headerWritten = true;
+        }
+    }
+
+    @Override
+    void writeReportStart() throws IOException {
+        writeHeader();
+    }
+
+    @Override
+    void writeDay(long epochDay, DailyReport dailyReport) throws IOException {
+        writeHeader();
+        String date = ReportFormatting.isoDate(epochDay);
+        Map<String, EntityReport> entityReports = new HashMap<>();
+        for (EntityReport entityReport : dailyReport.entityReports()) {
+            entityReports.put(entityReport.getEntity(), entityReport);
+        }
+        Map<String, Integer> outgoingRanks = ranks(dailyReport.getOutgoingRanks());
+        List<String> incomingRanks = dailyReport.getIncomingRanks();
+        for (int i = 0; i < incomingRanks.size(); i++) {
+            String entity = incomingRanks.get(i);
+            EntityReport entityReport = entityReports.get(entity);
+            out.write(date);
+            out.write(',');
+            writeField(entity);
+            out.write(',');
+            out.write(ReportFormatting.amount(entityReport.getIncomingValue()));
+            out.write(',');
+            out.write(ReportFormatting.amount(entityReport.getOutgoingValue()));
+            out.write(',');
+            out.write(Integer.toString(i + 1));
+            out.write(',');
+            out.write(Integer.toString(outgoingRanks.get(entity)));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @return the rank of each entity of the list, starting at 1
+     */
+    static Map<String, Integer> ranks(List<String> entities) {
+        Map<String, Integer> ranks = new HashMap<>();
+        for (int i = 0; i < entities.size(); i++) {
+            ranks.put(entities.get(i), i + 1);
+        }
+        return ranks;
+    }
+
+    private void writeField(String field) throws IOException {
+        boolean quoted = false;
+        for (int i = 0; i < field.length() && !quoted; i++) {
+            char c = field.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        out.write(field.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    @Override
+    void writeNoSettlement(long epochDay) throws IOException {
+        //A day without settlement has no line
+        writeHeader();
+    }
+
+    @Override
+    void writeReportEnd() {
+        //The last line ends the report
+    }
+}
@@ -2,61 +2,225 @@ package com.woobadeau.jpmorgan.settlement;
 
 import com.woobadeau.jpmorgan.transaction.Instruction;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
-import java.text.NumberFormat;
 import java.util.*;
 
 /**
  * Class to report daily settlements for several entities
  */
 class DailyReport {
-    private static final NumberFormat CURRENCY_FORMAT;
+    private static final int INITIAL_CAPACITY = 8;
 
-    static {
-        CURRENCY_FORMAT = NumberFormat.getCurrencyInstance();
-        CURRENCY_FORMAT.setCurrency(Currency.getInstance("USD"));
+    /**
+     * Entity reports, in the order entities were first seen on the day
+     */
+    private EntityReport[] entityReports = new EntityReport[INITIAL_CAPACITY];
+    private int size;
+    /**
+     * Open addressing table from entity id to position in entityReports, positions are stored plus one so that 0 marks a free slot
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * Entity ids, ignoring case for entity names
+     */
+    private final EntityDictionary dictionary;
+
+    /**
+     * Scale of fixed point amounts, com.woobadeau.jpmorgan.settlement.AmountAccumulator#DECIMAL_MODE for java.math.BigDecimal amounts
+     */
+    private final int amountScale;
+
+    /**
+     * Totals and rankings computed on demand, cleared whenever an entity report is created or modified
+     */
+    private BigDecimal[] totals;
+    private List<String> incomingRanks;
+    private List<String> outgoingRanks;
+    private List<String> topIncoming;
+    private List<String> topOutgoing;
+
+    DailyReport() {
+        this(new EntityDictionary(), AmountAccumulator.DECIMAL_MODE);
+    }
+
+    /**
+     * @param dictionary the entity dictionary, shared by all the days of a report
+     * @param amountScale the scale of fixed point amounts, com.woobadeau.jpmorgan.settlement.AmountAccumulator#DECIMAL_MODE for java.math.BigDecimal amounts
+     */
+    DailyReport(EntityDictionary dictionary, int amountScale) {
+        this.dictionary = dictionary;
+        this.amountScale = amountScale;
     }
-    //Ignoring case for entity names
-    final Map<String, EntityReport> entityReports = new TreeMap<>(Comparator.comparing(String::toUpperCase));
 
     void addInstruction(Instruction instruction) {
-        String entity = instruction.getEntity();
-        EntityReport entityReport = entityReports.get(entity);
-        if (entityReport == null) {
-            entityReport = new EntityReport(entity);
-            entityReports.put(entity, entityReport);
-        }
-        BigDecimal instructionValue = instruction.getPricePerUnit().multiply(instruction.getForex()).multiply(new BigDecimal(instruction.getUnits()));
+        EntityReport entityReport = getOrCreateEntityReport(dictionary.idOf(instruction.getEntity()), instruction.getEntity());
         switch (instruction.getTransactionDirection()) {
             case S:
-                entityReport.addIncomingValue(instructionValue);
+                entityReport.getIncoming().addProduct(instruction.getPricePerUnit(), instruction.getForex(), instruction.getUnits());
                 break;
             case B:
-                entityReport.addOutgoingValue(instructionValue);
+                entityReport.getOutgoing().addProduct(instruction.getPricePerUnit(), instruction.getForex(), instruction.getUnits());
                 break;
         }
     }
 
+    /**
+     * @param entityId the id of the entity in the dictionary
+     * @param entity the spelling of the entity, kept if the entity has no report yet on this day
+     * @return the report of the entity on this day
+     */
+    EntityReport getOrCreateEntityReport(int entityId, String entity) {
+        clearRankings();
+        int mask = slots.length - 1;
+        int slot = hash(entityId) & mask;
+        while (slots[slot] != 0) {
+            EntityReport entityReport = entityReports[slots[slot] - 1];
+            if (entityReport.getEntityId() == entityId) {
+                return entityReport;
+            }
+            slot = (slot + 1) & mask;
+        }
+        EntityReport entityReport = new EntityReport(entity, entityId, amountScale);
+        if (size == entityReports.length) {
+            entityReports = Arrays.copyOf(entityReports, size * 2);
+        }
+        entityReports[size++] = entityReport;
+        slots[slot] = size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return entityReport;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(entityReports[i].getEntityId()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static int hash(int entityId) {
+        int hash = entityId * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Merge the entity reports of another daily report, for the same day, into this one.
+     * The other report should hold instructions that came after the ones of this report:
+     * the entity names already known here keep their spelling.
+     * @param other the report to be merged into this one
+     */
+    void merge(DailyReport other) {
+        for (int i = 0; i < other.size; i++) {
+            EntityReport otherEntityReport = other.entityReports[i];
+            int entityId = other.dictionary == dictionary ? otherEntityReport.getEntityId() : dictionary.idOf(otherEntityReport.getEntity());
+            getOrCreateEntityReport(entityId, otherEntityReport.getEntity()).merge(otherEntityReport);
+        }
+    }
+
+    /**
+     * @return the incoming and outgoing totals of the day, see com.woobadeau.jpmorgan.settlement.SettlementReportManager#aggregateIncomingOutgoing(com.woobadeau.jpmorgan.settlement.DailyReport)
+     */
+    BigDecimal[] getTotals() {
+        if (totals == null) {
+            totals = SettlementReportManager.aggregateIncomingOutgoing(this);
+        }
+        return totals.clone();
+    }
+
+    /**
+     * @return the entities sorted by incoming value, see com.woobadeau.jpmorgan.settlement.SettlementReportManager#sortIncoming(com.woobadeau.jpmorgan.settlement.DailyReport)
+     */
+    List<String> getIncomingRanks() {
+        if (incomingRanks == null) {
+            incomingRanks = Collections.unmodifiableList(SettlementReportManager.sortIncoming(this));
+        }
+        return incomingRanks;
+    }
+
+    /**
+     * @return the entities sorted by outgoing value, see com.woobadeau.jpmorgan.settlement.SettlementReportManager#sortOutgoing(com.woobadeau.jpmorgan.settlement.DailyReport)
+     */
+    List<String> getOutgoingRanks() {
+        if (outgoingRanks == null) {
+            outgoingRanks = Collections.unmodifiableList(SettlementReportManager.sortOutgoing(this));
+        }
+        return outgoingRanks;
+    }
+
+    /**
+     * @param n the maximum number of entities
+     * @return the n entities with the highest incoming value, see com.woobadeau.jpmorgan.settlement.SettlementReportManager#topIncoming(com.woobadeau.jpmorgan.settlement.DailyReport, int)
+     */
+    List<String> topIncoming(int n) {
+        if (!coversTop(topIncoming, n)) {
+            topIncoming = Collections.unmodifiableList(SettlementReportManager.topIncoming(this, n));
+        }
+        return topIncoming.subList(0, Math.min(n, topIncoming.size()));
+    }
+
+    /**
+     * @param n the maximum number of entities
+     * @return the n entities with the highest outgoing value, see com.woobadeau.jpmorgan.settlement.SettlementReportManager#topOutgoing(com.woobadeau.jpmorgan.settlement.DailyReport, int)
+     */
+    List<String> topOutgoing(int n) {
+        if (!coversTop(topOutgoing, n)) {
+            topOutgoing = Collections.unmodifiableList(SettlementReportManager.topOutgoing(this, n));
+        }
+        return topOutgoing.subList(0, Math.min(n, topOutgoing.size()));
+    }
+
+    /**
+     * @return true if the cached top list holds the n first entities
+     */
+    private boolean coversTop(List<String> top, int n) {
+        return top != null && (top.size() >= n || top.size() == size);
+    }
+
+    private void clearRankings() {
+        totals = null;
+        incomingRanks = null;
+        outgoingRanks = null;
+        topIncoming = null;
+        topOutgoing = null;
+    }
+
+    /**
+     * @return the entity reports of the day, in the order entities were first seen
+     */
+    List<EntityReport> entityReports() {
+        return Collections.unmodifiableList(Arrays.asList(entityReports).subList(0, size));
+    }
+
+    /**
+     * @return the entity reports of the day by entity name, ignoring case
+     */
     Map<String, EntityReport> getEntityReports() {
-        return entityReports;
+        Map<String, EntityReport> reports = new TreeMap<>(Comparator.comparing(String::toUpperCase));
+        for (int i = 0; i < size; i++) {
+            reports.put(entityReports[i].getEntity(), entityReports[i]);
+        }
+        return reports;
     }
 
     @Override
     public String toString() {
-        StringBuffer result = new StringBuffer();
-        BigDecimal[] totals = SettlementReportManager.aggregateIncomingOutgoing(this);
-        result.append("Incoming: ");
-        result.append(CURRENCY_FORMAT.format(totals[0]));
-        result.append("\nIncoming entity ranks: ");
-        List<String> sortedByIncoming = SettlementReportManager.sortIncoming(this);
-        result.append(String.join(", ", sortedByIncoming));
-        result.append("\nOutgoing: ");
-        result.append(CURRENCY_FORMAT.format(totals[1]));
-        result.append("\nOutgoing entity ranks: ");
-        List<String> sortedByOutgoing = SettlementReportManager.sortOutgoing(this);
-        result.append(String.join(", ", sortedByOutgoing));
-        result.append("\n");
-        return result.toString();
+        StringWriter stringWriter = new StringWriter();
+        try {
+            new TextReportWriter(stringWriter).writeDailyReport(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return stringWriter.toString();
     }
 
 }
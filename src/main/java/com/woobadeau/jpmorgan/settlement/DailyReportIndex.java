@@ -0,0 +1,199 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.util.TreeMap;
+
+/**
+ * Daily reports indexed by settlement epoch day.<br/>
+ * Reports are held in a dense array covering the range between the first and the last settlement day,
+ * growing at either end as needed: lookups are a subtraction and iterating over the days gives them in order.
+ * The dense range is bounded, so that a few outlying dates such as a year 1 or 9999 typo do not allocate an array of millions of days:
+ * the days that would stretch it further are kept apart in a sorted map.
+ */
+class DailyReportIndex {
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Most days the dense array covers, about 90 years
+     */
+    private static final int MAX_DENSE_DAYS = 1 << 15;
+
+    private DailyReport[] reports = new DailyReport[0];
+    /**
+     * Epoch day of reports[0]
+     */
+    private long baseDay;
+    /**
+     * First and last days with a report in the dense array
+     */
+    private long denseFirstDay = Long.MAX_VALUE;
+    private long denseLastDay = Long.MIN_VALUE;
+    /**
+     * Reports of the days outside of the range the dense array can cover
+     */
+    private final TreeMap<Long, DailyReport> outliers = new TreeMap<>();
+    private long firstDay = Long.MAX_VALUE;
+    private long lastDay = Long.MIN_VALUE;
+    private int size;
+    /**
+     * Scale of fixed point amounts in the reports, com.woobadeau.jpmorgan.settlement.AmountAccumulator#DECIMAL_MODE for java.math.BigDecimal amounts
+     */
+    private final int amountScale;
+    /**
+     * Entity ids shared by all the days
+     */
+    private final EntityDictionary dictionary;
+
+    DailyReportIndex() {
+        this(new EntityDictionary(), AmountAccumulator.DECIMAL_MODE);
+    }
+
+    /**
+     * @param dictionary the entity dictionary shared by all the days
+     * @param amountScale the scale of fixed point amounts in the reports, com.woobadeau.jpmorgan.settlement.AmountAccumulator#DECIMAL_MODE for java.math.BigDecimal amounts
+     */
+    DailyReportIndex(EntityDictionary dictionary, int amountScale) {
+        this.dictionary = dictionary;
+        this.amountScale = amountScale;
+    }
+
+    /**
+     * @param epochDay the settlement epoch day
+     * @return the report of the day, created if it does not exist yet
+     */
+    DailyReport getOrCreate(long epochDay) {
+        long index = epochDay - baseDay;
+        if (index >= 0 && index < reports.length && reports[(int) index] != null) {
+            return reports[(int) index];
+        }
+        DailyReport dailyReport = outliers.isEmpty() ? null : outliers.get(epochDay);
+        if (dailyReport != null) {
+            return dailyReport;
+        }
+        dailyReport = new DailyReport(dictionary, amountScale);
+        if (includeDense(epochDay)) {
+            reports[(int) (epochDay - baseDay)] = dailyReport;
+            denseFirstDay = Math.min(denseFirstDay, epochDay);
+            denseLastDay = Math.max(denseLastDay, epochDay);
+        } else {
+            outliers.put(epochDay, dailyReport);
+        }
+        firstDay = Math.min(firstDay, epochDay);
+        lastDay = Math.max(lastDay, epochDay);
+        size++;
+        return dailyReport;
+    }
+
+    /**
+     * @param epochDay the settlement epoch day
+     * @return the report of the day, null if no instruction settles on that day
+     */
+    DailyReport get(long epochDay) {
+        long index = epochDay - baseDay;
+        DailyReport dailyReport = index >= 0 && index < reports.length ? reports[(int) index] : null;
+        if (dailyReport == null && !outliers.isEmpty()) {
+            dailyReport = outliers.get(epochDay);
+        }
+        return dailyReport;
+    }
+
+    /**
+     * Iterate over the days with a report: for (long day = firstDay(); day <= lastDay(); day = dayFrom(day + 1))
+     * @param epochDay the settlement epoch day to search from
+     * @return the first day with a report from the given one included, Long.MAX_VALUE if there is none
+     */
+    long dayFrom(long epochDay) {
+        long day = Long.MAX_VALUE;
+        if (!outliers.isEmpty()) {
+            Long outlier = outliers.ceilingKey(epochDay);
+            if (outlier != null) {
+                day = outlier;
+            }
+        }
+        for (long dense = Math.max(epochDay, denseFirstDay), end = Math.min(day - 1, denseLastDay); dense <= end; dense++) {
+            if (reports[(int) (dense - baseDay)] != null) {
+                return dense;
+            }
+        }
+        return day;
+    }
+
+    /**
+     * @return the entity dictionary shared by all the days
+     */
+    EntityDictionary dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the first day with a report, Long.MAX_VALUE if there is none
+     */
+    long firstDay() {
+        return firstDay;
+    }
+
+    /**
+     * @return the last day with a report, Long.MIN_VALUE if there is none
+     */
+    long lastDay() {
+        return lastDay;
+    }
+
+    /**
+     * @return the number of days with a report
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Merge the reports of another index into this one, see com.woobadeau.jpmorgan.settlement.DailyReport#merge(com.woobadeau.jpmorgan.settlement.DailyReport)
+     * @param other the index to be merged into this one
+     */
+    void merge(DailyReportIndex other) {
+        for (long day = other.firstDay; day <= other.lastDay; day = other.dayFrom(day + 1)) {
+            getOrCreate(day).merge(other.get(day));
+        }
+    }
+
+    /**
+     * Merge the report of one day of another index into this one
+     * @param other the index whose day is merged into this one
+     * @param epochDay the settlement epoch day
+     */
+    void merge(DailyReportIndex other, long epochDay) {
+        DailyReport otherReport = other.get(epochDay);
+        if (otherReport != null) {
+            getOrCreate(epochDay).merge(otherReport);
+        }
+    }
+
+    /**
+     * Extend the dense array to cover the given day, growing it with some headroom in the direction of growth.
+     * @return false if the dense array would then cover more than com.woobadeau.jpmorgan.settlement.DailyReportIndex#MAX_DENSE_DAYS days
+     */
+    private boolean includeDense(long epochDay) {
+        if (reports.length == 0) {
+            reports = new DailyReport[INITIAL_CAPACITY];
+            baseDay = epochDay - INITIAL_CAPACITY / 2;
+            return true;
+        }
+        long first = Math.min(denseFirstDay, epochDay);
+        long last = Math.max(denseLastDay, epochDay);
+        if (first >= baseDay && last - baseDay < reports.length) {
+            return true;
+        }
+        long span = last - first + 1;
+        if (span > MAX_DENSE_DAYS) {
+            return false;
+        }
+        int capacity = (int) Math.min(MAX_DENSE_DAYS, span + Math.max(INITIAL_CAPACITY, reports.length));
+        //Growing towards earlier days leaves headroom at both ends, towards later days only after the last one
+        long newBase = epochDay < baseDay ? first - (capacity - span) / 2 : Math.max(baseDay, last - capacity + 1);
+        DailyReport[] grown = new DailyReport[capacity];
+        if (denseFirstDay <= denseLastDay) {
+            System.arraycopy(reports, (int) (denseFirstDay - baseDay), grown, (int) (denseFirstDay - newBase), (int) (denseLastDay - denseFirstDay + 1));
+        }
+        reports = grown;
+        baseDay = newBase;
+        return true;
+    }
+}
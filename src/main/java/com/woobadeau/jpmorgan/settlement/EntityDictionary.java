@@ -0,0 +1,64 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns a small integer id to each entity, ignoring case, once per run.<br/>
+ * Names are folded with String#toUpperCase only the first time a spelling is seen,
+ * later lookups of the same spelling are a single hash lookup.
+ */
+class EntityDictionary {
+
+    /**
+     * Ids of every spelling seen so far
+     */
+    private final Map<String, Integer> idsBySpelling = new HashMap<>();
+    /**
+     * Ids of the upper case entity names
+     */
+    private final Map<String, Integer> idsByFoldedName = new HashMap<>();
+    /**
+     * First spelling seen for each id
+     */
+    private String[] names = new String[16];
+    private int size;
+
+    /**
+     * @param entity the entity name, in any case
+     * @return the id of the entity, assigned if the entity was never seen before
+     */
+    int idOf(String entity) {
+        Integer id = idsBySpelling.get(entity);
+        if (id == null) {
+            String foldedName = entity.toUpperCase();
+            id = idsByFoldedName.get(foldedName);
+            if (id == null) {
+                id = size;
+                if (size == names.length) {
+                    names = Arrays.copyOf(names, size * 2);
+                }
+                names[size++] = entity;
+                idsByFoldedName.put(foldedName, id);
+            }
+            idsBySpelling.put(entity, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param id an entity id
+     * @return the first spelling seen for the entity
+     */
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the number of distinct entities
+     */
+    int size() {
+        return size;
+    }
+}
@@ -6,31 +6,65 @@ import java.math.BigDecimal;
  * Class to report daily incoming and outgoing settlements for an entity
  */
 class EntityReport {
-    private BigDecimal incomingValue = new BigDecimal(0);
-    private BigDecimal outgoingValue = new BigDecimal(0);
+    private final AmountAccumulator incoming;
+    private final AmountAccumulator outgoing;
     private final String entity;
+    private final int entityId;
 
     public EntityReport(String entity) {
+        this(entity, -1, AmountAccumulator.DECIMAL_MODE);
+    }
+
+    /**
+     * @param entity the entity name
+     * @param entityId the id of the entity in the com.woobadeau.jpmorgan.settlement.EntityDictionary of the report
+     * @param amountScale the scale of fixed point amounts, com.woobadeau.jpmorgan.settlement.AmountAccumulator#DECIMAL_MODE for java.math.BigDecimal amounts
+     */
+    EntityReport(String entity, int entityId, int amountScale) {
         this.entity = entity;
+        this.entityId = entityId;
+        this.incoming = new AmountAccumulator(amountScale);
+        this.outgoing = new AmountAccumulator(amountScale);
     }
 
     BigDecimal getIncomingValue() {
-        return incomingValue;
+        return incoming.value();
     }
 
     BigDecimal getOutgoingValue() {
-        return outgoingValue;
+        return outgoing.value();
+    }
+
+    AmountAccumulator getIncoming() {
+        return incoming;
+    }
+
+    AmountAccumulator getOutgoing() {
+        return outgoing;
     }
 
     void addIncomingValue(BigDecimal instructionValue) {
-        incomingValue = incomingValue.add(instructionValue);
+        incoming.add(instructionValue);
     }
 
     void addOutgoingValue(BigDecimal instructionValue) {
-        outgoingValue = outgoingValue.add(instructionValue);
+        outgoing.add(instructionValue);
+    }
+
+    /**
+     * Add the values of another report of the same entity to this one.
+     * @param other the report to be merged into this one
+     */
+    void merge(EntityReport other) {
+        incoming.add(other.incoming);
+        outgoing.add(other.outgoing);
     }
 
     public String getEntity() {
         return entity;
     }
+
+    int getEntityId() {
+        return entityId;
+    }
 }
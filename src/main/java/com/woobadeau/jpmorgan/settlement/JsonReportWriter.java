@@ -0,0 +1,136 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Report as a JSON object holding an array of days, one line per day:<br/>
+ * {"days":[<br/>
+ * {"date":"2016-01-04","incoming":100.25,"outgoing":0.00,"entities":[{"entity":"foo","incoming":100.25,"outgoing":0.00,"incomingRank":1,"outgoingRank":1}]}<br/>
+ * ]}<br/>
+ * Entities are in incoming rank order, amounts are exact decimal numbers in USD, with two decimals unless they need more.
+ * A single day is written as the object of the day alone.
+ */
+class JsonReportWriter extends ReportWriter {
+
+    private boolean inReport;
+    private int days;
+
+    JsonReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void writeReportStart() throws IOException {
+        out.write("{\"days\":[");
+        inReport = true;
+        days = 0;
+    }
+
+    @Override
+    void writeDay(long epochDay, DailyReport dailyReport) throws IOException {
+        startDay();
+        BigDecimal[] totals = dailyReport.getTotals();
+        writeDayTotals(epochDay, totals[0], totals[1]);
+        Map<String, EntityReport> entityReports = new HashMap<>();
+        for (EntityReport entityReport : dailyReport.entityReports()) {
+            entityReports.put(entityReport.getEntity(), entityReport);
+        }
+        Map<String, Integer> outgoingRanks = CsvReportWriter.ranks(dailyReport.getOutgoingRanks());
+        List<String> incomingRanks = dailyReport.getIncomingRanks();
+        for (int i = 0; i < incomingRanks.size(); i++) {
+            String entity = incomingRanks.get(i);
+            EntityReport entityReport = entityReports.get(entity);
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("{\"entity\":");
+            writeString(entity);
+            out.write(",\"incoming\":");
+            out.write(ReportFormatting.amount(entityReport.getIncomingValue()));
+            out.write(",\"outgoing\":");
+            out.write(ReportFormatting.amount(entityReport.getOutgoingValue()));
+            out.write(",\"incomingRank\":");
+            out.write(Integer.toString(i + 1));
+            out.write(",\"outgoingRank\":");
+            out.write(Integer.toString(outgoingRanks.get(entity)));
+            out.write('}');
+        }
+        out.write("]}");
+        endDay();
+    }
+
+    @Override
+    void writeNoSettlement(long epochDay) throws IOException {
+        startDay();
+        writeDayTotals(epochDay, BigDecimal.ZERO, BigDecimal.ZERO);
+        out.write("]}");
+        endDay();
+    }
+
+    private void startDay() throws IOException {
+        if (inReport) {
+            out.write(days++ == 0 ? "\n" : ",\n");
+        }
+    }
+
+    private void endDay() throws IOException {
+        if (!inReport) {
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Write the start of the object of a day, up to its opened array of entities
+     */
+    private void writeDayTotals(long epochDay, BigDecimal incoming, BigDecimal outgoing) throws IOException {
+        out.write("{\"date\":\"");
+        out.write(ReportFormatting.isoDate(epochDay));
+        out.write("\",\"incoming\":");
+        out.write(ReportFormatting.amount(incoming));
+        out.write(",\"outgoing\":");
+        out.write(ReportFormatting.amount(outgoing));
+        out.write(",\"entities\":[");
+    }
+
+    private void writeString(String string) throws IOException {
+        out.write('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    @Override
+    void writeReportEnd() throws IOException {
+        out.write(days == 0 ? "]}\n" : "\n]}\n");
+        inReport = false;
+    }
+}
@@ -0,0 +1,185 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.metrics.Stage;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionColumns;
+import com.woobadeau.jpmorgan.transaction.InstructionColumnsReader;
+import com.woobadeau.jpmorgan.transaction.InstructionDeduplicator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Incremental aggregation of instructions into daily reports.<br/>
+ * Each instruction is folded into its com.woobadeau.jpmorgan.settlement.DailyReport as soon as it is accepted,
+ * so memory depends on the number of distinct (settlement day, entity) pairs rather than on the number of instructions.
+ */
+public class ReportAccumulator {
+
+    /**
+     * Daily reports, by settlement epoch day.
+     */
+    private final DailyReportIndex dailyReports;
+    /**
+     * Instructions seen so far, null to aggregate every instruction
+     */
+    private final InstructionDeduplicator deduplicator;
+
+    /**
+     * Accumulator adding amounts as java.math.BigDecimal.
+     */
+    public ReportAccumulator() {
+        this(AmountAccumulator.DECIMAL_MODE);
+    }
+
+    /**
+     * Accumulator adding amounts as fixed point longs with the given number of decimals.
+     * Totals fall back to java.math.BigDecimal when an amount has more decimals or overflows, so they are always exact.
+     * @param fixedPointScale the number of decimals of fixed point amounts (0 to 18), negative to always add java.math.BigDecimal
+     */
+    public ReportAccumulator(int fixedPointScale) {
+        this(fixedPointScale, null);
+    }
+
+    /**
+     * Accumulator skipping the instructions already seen by the deduplicator.
+     * The deduplicator can be shared by several accumulators, for instance the ones of the chunks of a file.
+     * @param fixedPointScale the number of decimals of fixed point amounts (0 to 18), negative to always add java.math.BigDecimal
+     * @param deduplicator the instructions seen so far, null to aggregate every instruction
+     */
+    public ReportAccumulator(int fixedPointScale, InstructionDeduplicator deduplicator) {
+        this.dailyReports = new DailyReportIndex(new EntityDictionary(), fixedPointScale < 0 ? AmountAccumulator.DECIMAL_MODE : fixedPointScale);
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Fold an instruction into the report of the day it settles on.
+     * @param instruction the instruction to be aggregated
+     */
+    public void accept(Instruction instruction) throws SettlementConfigurationException, SettlementException {
+        //Duplicates are skipped before they are settled
+        if (deduplicator != null && !deduplicator.add(instruction)) {
+            return;
+        }
+        SettlementDateManager settlementDateManager = SettlementDateManager.getInstance();
+        long settle = StageMetrics.start();
+        long settlementDay = settlementDateManager.settledEpochDay(instruction.getSettlementEpochDay(),
+                settlementDateManager.currencyId(instruction.getCurrency()));
+        StageMetrics.stop(Stage.SETTLE, settle);
+        aggregate(instruction, settlementDay);
+    }
+
+    /**
+     * Fold an instruction into the report of a settlement day already calculated by the caller.
+     * @param instruction the instruction to be aggregated
+     * @param settlementDay the epoch day the instruction settles on, from com.woobadeau.jpmorgan.settlement.SettlementDateManager#settledEpochDay(long, int)
+     */
+    public void accept(Instruction instruction, long settlementDay) throws SettlementException {
+        if (deduplicator != null && !deduplicator.add(instruction)) {
+            return;
+        }
+        aggregate(instruction, settlementDay);
+    }
+
+    private void aggregate(Instruction instruction, long settlementDay) {
+        long aggregate = StageMetrics.start();
+        dailyReports.getOrCreate(settlementDay).addInstruction(instruction);
+        StageMetrics.stop(Stage.AGGREGATE, aggregate);
+    }
+
+    /**
+     * Fold all the instructions of a columnar settlement file, reading them from their columns without creating
+     * com.woobadeau.jpmorgan.transaction.Instruction objects.
+     * Entities and currencies of the file are looked up once each, when first seen.
+     * @param reader the reader of the columnar file
+     */
+    public void accept(InstructionColumnsReader reader) throws IOException, SettlementConfigurationException, SettlementException {
+        SettlementDateManager settlementDateManager = SettlementDateManager.getInstance();
+        int[] currencyIds = new int[reader.currencyCount()];
+        Arrays.fill(currencyIds, -1);
+        int[] entityIds = new int[reader.entityCount()];
+        Arrays.fill(entityIds, -1);
+        EntityDictionary dictionary = dailyReports.dictionary();
+        for (int group = 0; group < reader.groupCount(); group++) {
+            InstructionColumns columns = reader.group(group);
+            for (int row = 0; row < columns.size(); row++) {
+                if (deduplicator != null && !deduplicator.add(columns, row)) {
+                    continue;
+                }
+                int fileCurrencyId = columns.currencyId(row);
+                int currencyId = currencyIds[fileCurrencyId];
+                if (currencyId < 0) {
+                    currencyId = settlementDateManager.currencyId(columns.currency(fileCurrencyId));
+                    currencyIds[fileCurrencyId] = currencyId;
+                }
+                int fileEntityId = columns.entityId(row);
+                int entityId = entityIds[fileEntityId];
+                if (entityId < 0) {
+                    entityId = dictionary.idOf(columns.entity(fileEntityId));
+                    entityIds[fileEntityId] = entityId;
+                }
+                long settle = StageMetrics.start();
+                long settlementDay = settlementDateManager.settledEpochDay(columns.settlementEpochDay(row), currencyId);
+                StageMetrics.stop(Stage.SETTLE, settle);
+                long aggregate = StageMetrics.start();
+                EntityReport entityReport = dailyReports.getOrCreate(settlementDay).getOrCreateEntityReport(entityId, columns.entity(fileEntityId));
+                AmountAccumulator amount = columns.incoming(row) ? entityReport.getIncoming() : entityReport.getOutgoing();
+                int priceScale = columns.priceScale(row);
+                int forexScale = columns.forexScale(row);
+                if (priceScale == InstructionColumns.DECIMAL_SCALE || forexScale == InstructionColumns.DECIMAL_SCALE) {
+                    amount.addProduct(columns.price(row), columns.forex(row), columns.units(row));
+                } else {
+                    amount.addProduct(columns.priceUnscaled(row), priceScale, columns.forexUnscaled(row), forexScale, columns.units(row));
+                }
+                StageMetrics.stop(Stage.AGGREGATE, aggregate);
+            }
+        }
+    }
+
+    /**
+     * Save the daily reports accumulated so far to a checkpoint file, see com.woobadeau.jpmorgan.settlement.ReportCheckpoint
+     * @param file the checkpoint file, replaced if it exists
+     */
+    public void writeCheckpoint(File file) throws IOException {
+        ReportCheckpoint.write(dailyReports, file);
+    }
+
+    /**
+     * Fold the daily reports of a checkpoint file into this accumulator.
+     * Read checkpoints before accepting instructions, so that the spelling of entities from earlier runs is kept.
+     * @param file a checkpoint file written by com.woobadeau.jpmorgan.settlement.ReportAccumulator#writeCheckpoint(java.io.File)
+     */
+    public void readCheckpoint(File file) throws IOException {
+        ReportCheckpoint.read(file, dailyReports);
+    }
+
+    /**
+     * Merge the daily reports of another accumulator into this one.
+     * The other accumulator should hold instructions that came after the ones of this accumulator.
+     * @param other the accumulator to be merged into this one
+     */
+    public void merge(ReportAccumulator other) {
+        dailyReports.merge(other.dailyReports);
+    }
+
+    /**
+     * Merge the report of one day of another accumulator into this one, see com.woobadeau.jpmorgan.settlement.ReportAccumulator#merge(com.woobadeau.jpmorgan.settlement.ReportAccumulator)
+     * @param other the accumulator whose day is merged into this one
+     * @param epochDay the settlement epoch day
+     */
+    void merge(ReportAccumulator other, long epochDay) {
+        dailyReports.merge(other.dailyReports, epochDay);
+    }
+
+    /**
+     * @return a com.woobadeau.jpmorgan.settlement.SettlementReport of all the instructions accepted so far.
+     * The report is a view of this accumulator: instructions accepted afterwards are reflected in it.
+     */
+    public SettlementReport toReport() {
+        return new SettlementReport(dailyReports);
+    }
+}
@@ -0,0 +1,193 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Snapshot of the daily reports of a com.woobadeau.jpmorgan.settlement.ReportAccumulator, so that a later run only aggregates new instructions.<br/>
+ * The file holds the entity dictionary, then for each settlement day the incoming and outgoing totals of its entities,
+ * in the order they were first seen. Totals are exact decimals, whatever the amount scale of the accumulator,
+ * so a checkpoint can be read into an accumulator with another scale.
+ * Counts, ids and scales are variable length integers and days are stored as the difference with the previous day, keeping the file small.
+ * Settlement days are stored as computed when the instructions were aggregated: currency configuration changes do not apply to them.
+ */
+final class ReportCheckpoint {
+    private static final byte[] MAGIC = {'S', 'E', 'T', 'L', 'C', 'K', 'P', '1'};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ReportCheckpoint() {
+    }
+
+    /**
+     * Write the reports to a file, replaced atomically when the file system allows it
+     * so that the previous checkpoint stays intact if the run is interrupted.
+     */
+    static void write(DailyReportIndex dailyReports, File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE))) {
+            out.write(MAGIC);
+            EntityDictionary dictionary = dailyReports.dictionary();
+            writeVarInt(out, dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++) {
+                writeString(out, dictionary.name(id));
+            }
+            writeVarInt(out, dailyReports.size());
+            long previousDay = 0;
+            for (long day = dailyReports.firstDay(); day <= dailyReports.lastDay(); day = dailyReports.dayFrom(day + 1)) {
+                writeVarLong(out, day - previousDay);
+                writeDay(out, dailyReports.get(day), dictionary);
+                previousDay = day;
+            }
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeDay(DataOutputStream out, DailyReport dailyReport, EntityDictionary dictionary) throws IOException {
+        List<EntityReport> entityReports = dailyReport.entityReports();
+        writeVarInt(out, entityReports.size());
+        for (EntityReport entityReport : entityReports) {
+            writeVarInt(out, entityReport.getEntityId());
+            //Spellings are only written when they differ from the one of the dictionary
+            String spelling = entityReport.getEntity();
+            boolean dictionarySpelling = spelling.equals(dictionary.name(entityReport.getEntityId()));
+            out.writeBoolean(dictionarySpelling);
+            if (!dictionarySpelling) {
+                writeString(out, spelling);
+            }
+            writeAmount(out, entityReport.getIncomingValue());
+            writeAmount(out, entityReport.getOutgoingValue());
+        }
+    }
+
+    /**
+     * Fold the reports of a checkpoint file into the given reports, as if they were aggregated before them.
+     */
+    static void read(File file, DailyReportIndex dailyReports) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a settlement checkpoint file: " + file);
+            }
+            EntityDictionary dictionary = dailyReports.dictionary();
+            String[] names = new String[readVarInt(in)];
+            int[] ids = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString(in);
+                ids[i] = dictionary.idOf(names[i]);
+            }
+            int days = readVarInt(in);
+            long day = 0;
+            for (int i = 0; i < days; i++) {
+                day += readVarLong(in);
+                DailyReport dailyReport = dailyReports.getOrCreate(day);
+                int entities = readVarInt(in);
+                for (int j = 0; j < entities; j++) {
+                    int checkpointId = readVarInt(in);
+                    if (checkpointId >= names.length) {
+                        throw new IOException("Corrupted settlement checkpoint file " + file + ": unknown entity id " + checkpointId);
+                    }
+                    String spelling = in.readBoolean() ? names[checkpointId] : readString(in);
+                    EntityReport entityReport = dailyReport.getOrCreateEntityReport(ids[checkpointId], spelling);
+                    entityReport.getIncoming().add(readAmount(in));
+                    entityReport.getOutgoing().add(readAmount(in));
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated settlement checkpoint file: " + file, e);
+        }
+    }
+
+    private static void writeAmount(DataOutputStream out, BigDecimal amount) throws IOException {
+        byte[] unscaled = amount.unscaledValue().toByteArray();
+        //Zig zag encoding, so that small negative scales are small as well
+        writeVarInt(out, (amount.scale() << 1) ^ (amount.scale() >> 31));
+        writeVarInt(out, unscaled.length);
+        out.write(unscaled);
+    }
+
+    private static BigDecimal readAmount(DataInputStream in) throws IOException {
+        long zigZagScale = readVarLong(in);
+        if (zigZagScale < 0 || zigZagScale > 0xFFFFFFFFL) {
+            throw new IOException("Corrupted settlement checkpoint file: scale out of range");
+        }
+        byte[] unscaled = new byte[readVarInt(in)];
+        in.readFully(unscaled);
+        if (unscaled.length == 0) {
+            throw new IOException("Corrupted settlement checkpoint file: empty amount");
+        }
+        return new BigDecimal(new BigInteger(unscaled), (int) (zigZagScale >>> 1) ^ -(int) (zigZagScale & 1));
+    }
+
+    /**
+     * Write a positive int in 7 bit groups, low bits first
+     */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Write a long in 7 bit groups, low bits first, the high bit of each byte telling whether more bytes follow
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * @return a positive int written with com.woobadeau.jpmorgan.settlement.ReportCheckpoint#writeVarInt(java.io.DataOutputStream, int)
+     */
+    private static int readVarInt(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Corrupted settlement checkpoint file: count " + value + " out of range");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted settlement checkpoint file: variable length integer too long");
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
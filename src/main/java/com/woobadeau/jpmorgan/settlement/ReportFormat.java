@@ -0,0 +1,63 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Output formats of settlement reports.
+ */
+public enum ReportFormat {
+    /**
+     * The human readable format of com.woobadeau.jpmorgan.settlement.SettlementReport#toString()
+     */
+    TEXT,
+    /**
+     * One line per entity and day with the totals and ranks of the entity, after a header line
+     */
+    CSV,
+    /**
+     * One object per day with its totals and the totals and ranks of its entities
+     */
+    JSON;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param out the writer the report is written to, best buffered
+     * @return a report writer in this format
+     */
+    public ReportWriter writer(Writer out) {
+        switch (this) {
+            case CSV:
+                return new CsvReportWriter(out);
+            case JSON:
+                return new JsonReportWriter(out);
+            default:
+                return new TextReportWriter(out);
+        }
+    }
+
+    /**
+     * @param out the stream the report is written to, through a buffer, in the default charset
+     * @return a report writer in this format
+     */
+    public ReportWriter writer(OutputStream out) {
+        return writer(new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), BUFFER_SIZE));
+    }
+
+    /**
+     * @param name a format name, ignoring case
+     * @return the format, null if there is no such format
+     */
+    public static ReportFormat of(String name) {
+        for (ReportFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,75 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.EpochDays;
+
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Formatting of amounts and dates in reports, safe to use from any thread.<br/>
+ * java.text.NumberFormat and java.text.SimpleDateFormat are not thread safe, so each thread gets its own instances.
+ * Formatted settlement dates are cached, reports being rendered over and over for the same days.
+ */
+final class ReportFormatting {
+    static final String DATE_FORMAT = "dd MMM yyyy";
+    /**
+     * Number of formatted dates kept, more than 27 years of days
+     */
+    private static final int MAX_CACHED_DATES = 10000;
+    /**
+     * Number of decimals of the amounts of CSV and JSON reports that need no more, the ones of USD in the text report
+     */
+    static final int AMOUNT_SCALE = 2;
+
+    private static final ThreadLocal<NumberFormat> CURRENCY_FORMAT = ThreadLocal.withInitial(() -> {
+        NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+        currencyFormat.setCurrency(Currency.getInstance("USD"));
+        return currencyFormat;
+    });
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMATTER = ThreadLocal.withInitial(() -> new SimpleDateFormat(DATE_FORMAT));
+    private static final ConcurrentMap<Long, String> DATES = new ConcurrentHashMap<>();
+
+    private ReportFormatting() {
+    }
+
+    /**
+     * @return the amount in USD, in the currency format of the default locale
+     */
+    static String currency(BigDecimal amount) {
+        return CURRENCY_FORMAT.get().format(amount);
+    }
+
+    /**
+     * @return the exact amount as a plain decimal, with com.woobadeau.jpmorgan.settlement.ReportFormatting#AMOUNT_SCALE decimals unless it needs more
+     */
+    static String amount(BigDecimal amount) {
+        BigDecimal exact = amount.stripTrailingZeros();
+        return exact.scale() <= AMOUNT_SCALE ? exact.setScale(AMOUNT_SCALE).toPlainString() : exact.toPlainString();
+    }
+
+    /**
+     * @return the epoch day in the dd MMM yyyy format
+     */
+    static String date(long epochDay) {
+        String date = DATES.get(epochDay);
+        if (date == null) {
+            date = DATE_FORMATTER.get().format(EpochDays.toDate(epochDay));
+            if (DATES.size() < MAX_CACHED_DATES) {
+                DATES.put(epochDay, date);
+            }
+        }
+        return date;
+    }
+
+    /**
+     * @return the epoch day in the ISO yyyy-MM-dd format
+     */
+    static String isoDate(long epochDay) {
+        return LocalDate.ofEpochDay(epochDay).toString();
+    }
+}
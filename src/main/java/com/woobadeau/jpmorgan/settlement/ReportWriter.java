@@ -0,0 +1,124 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.metrics.Stage;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+import com.woobadeau.jpmorgan.transaction.EpochDays;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * Streams a com.woobadeau.jpmorgan.settlement.SettlementReport to a java.io.Writer, one day after the other.<br/>
+ * Only the lines of the day being written are held in memory, whatever the number of days and entities of the report.
+ * Writers are created for a com.woobadeau.jpmorgan.settlement.ReportFormat and are not thread safe.
+ */
+public abstract class ReportWriter implements Closeable, Flushable {
+
+    /**
+     * Start of the days of a report, see com.woobadeau.jpmorgan.settlement.ReportWriter#writeDays(com.woobadeau.jpmorgan.settlement.SettlementReport, long, int)
+     */
+    public static final long FIRST_DAY = Long.MIN_VALUE;
+    /**
+     * End of the days of a report, see com.woobadeau.jpmorgan.settlement.ReportWriter#writeDays(com.woobadeau.jpmorgan.settlement.SettlementReport, long, int)
+     */
+    public static final long LAST_DAY = Long.MAX_VALUE;
+
+    final Writer out;
+
+    ReportWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Write all the days of a report, in settlement date order, then flush.
+     * @param report the report to be written
+     */
+    public void write(SettlementReport report) throws IOException {
+        writeStart();
+        writeDays(report, FIRST_DAY, Integer.MAX_VALUE);
+        writeEnd();
+    }
+
+    /**
+     * Write the start of a report, before its days are written a few at a time
+     * with com.woobadeau.jpmorgan.settlement.ReportWriter#writeDays(com.woobadeau.jpmorgan.settlement.SettlementReport, long, int),
+     * for callers interleaving a report with other work.
+     */
+    public void writeStart() throws IOException {
+        writeReportStart();
+    }
+
+    /**
+     * Write some days of a report, in settlement date order.
+     * @param report the report to be written
+     * @param fromDay the first settlement epoch day to write, com.woobadeau.jpmorgan.settlement.ReportWriter#FIRST_DAY for the first day of the report
+     * @param maxDays the maximum number of days with settlements to write
+     * @return the day to write from on the next call, com.woobadeau.jpmorgan.settlement.ReportWriter#LAST_DAY once all the days are written
+     */
+    public long writeDays(SettlementReport report, long fromDay, int maxDays) throws IOException {
+        int written = 0;
+        for (long day = report.dayFrom(Math.max(fromDay, report.firstDay())); day <= report.lastDay(); day = report.dayFrom(day + 1)) {
+            if (written == maxDays) {
+                return day;
+            }
+            long render = StageMetrics.start();
+            writeDay(day, report.getDailyReport(day));
+            StageMetrics.stop(Stage.RENDER, render);
+            written++;
+        }
+        return LAST_DAY;
+    }
+
+    /**
+     * Write the end of a report after its days, then flush.
+     */
+    public void writeEnd() throws IOException {
+        writeReportEnd();
+        out.flush();
+    }
+
+    /**
+     * Write the report of one day, then flush.
+     * @param report the report holding the day
+     * @param settlementDate the settlement date
+     */
+    public void write(SettlementReport report, Date settlementDate) throws IOException {
+        long day = EpochDays.of(settlementDate);
+        DailyReport dailyReport = report.getDailyReport(day);
+        if (dailyReport == null) {
+            writeNoSettlement(day);
+        } else {
+            long render = StageMetrics.start();
+            writeDay(day, dailyReport);
+            StageMetrics.stop(Stage.RENDER, render);
+        }
+        out.flush();
+    }
+
+    abstract void writeReportStart() throws IOException;
+
+    abstract void writeDay(long epochDay, DailyReport dailyReport) throws IOException;
+
+    /**
+     * Write a day on which nothing settles, only used for single day reports
+     */
+    abstract void writeNoSettlement(long epochDay) throws IOException;
+
+    abstract void writeReportEnd() throws IOException;
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Close the underlying writer.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
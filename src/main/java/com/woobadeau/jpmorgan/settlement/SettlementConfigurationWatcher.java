@@ -0,0 +1,84 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Reloads a currency configuration file into com.woobadeau.jpmorgan.settlement.SettlementDateManager whenever it changes on disk.<br/>
+ * Changes are detected by a java.nio.file.WatchService on the directory of the file, from a daemon thread.
+ * A configuration that cannot be loaded, for instance because it is being written, is reported on the standard error
+ * and the previous one stays in place until the next change.
+ * Replace the file atomically, by writing a new file and moving it over the old one, so that no partial configuration is ever loaded.
+ */
+public class SettlementConfigurationWatcher implements Closeable {
+
+    private final Path file;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Start watching the file. It is not loaded until it changes: load it with com.woobadeau.jpmorgan.settlement.SettlementDateManager#setup(java.io.InputStream) first.
+     * @param file the currency configuration file
+     */
+    public SettlementConfigurationWatcher(Path file) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.watchService = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "settlement-configuration-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    reload();
+                }
+                if (!key.reset()) {
+                    System.err.println("Stopped watching " + file + ": its directory is no longer accessible");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //The watcher was closed
+        }
+    }
+
+    private void reload() {
+        try {
+            SettlementDateManager.setup(new FileInputStream(file.toFile()));
+        } catch (IOException | SettlementConfigurationException e) {
+            System.err.println("Could not reload " + file + ", keeping the previous configuration: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop watching the file.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,42 +2,135 @@ package com.woobadeau.jpmorgan.settlement;
 
 import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
 import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.transaction.EpochDays;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manage settlement date calculations based on business rules.<br/>
  * By Default loads /currency_setup.properties to load currency configuration.<br/>
- * Can be setup with a different configuration file through call of com.woobadeau.jpmorgan.settlement.SettlementDateManager#setup(java.lang.String).
+ * Settlement days of week are compiled into a shift table per currency, and currencies with holidays
+ * get a bitmap of their business days over the calendar years of the configuration, searched for the next set bit.<br/>
+ * Can be setup with a different configuration file through call of com.woobadeau.jpmorgan.settlement.SettlementDateManager#setup(java.io.InputStream).<br/>
+ * Instances are immutable once loaded: a new configuration is compiled into a new instance and published atomically,
+ * so readers never lock and a configuration can be replaced while instructions are being aggregated.
+ * Readers should get the instance once for related calls, as currency ids are only valid for the instance that gave them.
  */
 public class SettlementDateManager {
 
     private static final String CURRENCY_SETUP_PROPERTIES = "/currency_setup.properties";
-    private static SettlementDateManager instance;
+    private static final AtomicReference<SettlementDateManager> INSTANCE = new AtomicReference<>();
+
+    /**
+     * Marks the days of week from which no settlement day can be reached in com.woobadeau.jpmorgan.settlement.SettlementDateManager#settlementShifts
+     */
+    private static final int NO_SETTLEMENT_DAY = -1;
+    private static final int DAYS_PER_WEEK = 7;
+    private static final String HOLIDAYS_PREFIX = "currency.holidays.";
+    private static final String DEFAULT_HOLIDAYS = "currency.default.holidays";
+    private static final String CALENDAR_YEARS = "currency.calendarYears";
+    private static final int DEFAULT_FIRST_CALENDAR_YEAR = 2000;
+    private static final int DEFAULT_LAST_CALENDAR_YEAR = 2099;
 
     /**
      * Mapping currencies to days of week when settlement is possible
      */
-    Map<String, Set<Integer>> currencyDaySettlement = new HashMap<>();
+    final Map<String, Set<Integer>> currencyDaySettlement;
 
     /**
      * Default days for settlement
      */
-    Set<Integer> defaultDaySettlement = null;
+    final Set<Integer> defaultDaySettlement;
+
+    /**
+     * Compiled configuration: small integer id of every configured currency.
+     * The default settlement days, when configured, have the id following the last currency.
+     */
+    private final Map<String, Integer> currencyIds;
+    private final String[] currencyNames;
+    private final int defaultCurrencyId;
+
+    /**
+     * Compiled configuration: number of days to add to a date to reach its settlement day,
+     * at index currencyId * 8 + dayOfWeek (java.util.Calendar#DAY_OF_WEEK, 1 for Sunday).
+     */
+    private final int[] settlementShifts;
+
+    /**
+     * Compiled configuration: business days of the currencies with holidays, by currency id, null for the other currencies.
+     * Currencies without holidays of their own have the default holidays, if configured.
+     * Bit i is set if calendarFirstDay + i is a settlement day of the currency and not one of its holidays.
+     */
+    private final BitSet[] businessDays;
+    /**
+     * First and last epoch days covered by the business days, settlement days outside of them ignore holidays.
+     */
+    private final long calendarFirstDay;
+    private final long calendarLastDay;
 
     private SettlementDateManager(InputStream currencyResourceStream) throws SettlementConfigurationException {
         Properties prop = new Properties();
 
         try (InputStream in = currencyResourceStream) {
             prop.load(in);
-            loadCurrencyDaySettlement(prop);
         } catch (IOException e) {
             throw new SettlementConfigurationException("Error loading property file "+ currencyResourceStream, e);
         }
+        Map<String, Set<Integer>> currencyDaySettlement = new HashMap<>();
+        this.defaultDaySettlement = loadCurrencyDaySettlement(prop, currencyDaySettlement);
+        Map<String, Set<Long>> currencyHolidays = new HashMap<>();
+        Set<Long> defaultHolidays = loadHolidays(prop, currencyHolidays);
+        for (String currency : currencyHolidays.keySet()) {
+            //Currencies with holidays of their own need their own id, even if they settle on the default days
+            if (!currencyDaySettlement.containsKey(currency)) {
+                if (defaultDaySettlement == null) {
+                    throw new SettlementConfigurationException("Holidays configured for currency " + currency + " without settlement days or default settlement days");
+                }
+                currencyDaySettlement.put(currency, defaultDaySettlement);
+            }
+        }
+        this.currencyDaySettlement = Collections.unmodifiableMap(currencyDaySettlement);
+
+        int currencyCount = currencyDaySettlement.size() + (defaultDaySettlement == null ? 0 : 1);
+        Map<String, Integer> currencyIds = new HashMap<>();
+        this.currencyNames = new String[currencyCount];
+        this.settlementShifts = new int[currencyCount * (DAYS_PER_WEEK + 1)];
+        int id = 0;
+        for (Map.Entry<String, Set<Integer>> entry : currencyDaySettlement.entrySet()) {
+            currencyIds.put(entry.getKey(), id);
+            compileSettlementShifts(id++, entry.getKey(), entry.getValue());
+        }
+        if (defaultDaySettlement != null) {
+            compileSettlementShifts(id, "default", defaultDaySettlement);
+        }
+        this.currencyIds = Collections.unmodifiableMap(currencyIds);
+        this.defaultCurrencyId = defaultDaySettlement == null ? -1 : id;
+
+        int[] calendarYears = parseCalendarYears(prop.getProperty(CALENDAR_YEARS));
+        this.calendarFirstDay = LocalDate.of(calendarYears[0], 1, 1).toEpochDay();
+        this.calendarLastDay = LocalDate.of(calendarYears[1], 12, 31).toEpochDay();
+        this.businessDays = new BitSet[currencyCount];
+        for (Map.Entry<String, Set<Long>> entry : currencyHolidays.entrySet()) {
+            int currencyId = currencyIds.get(entry.getKey());
+            businessDays[currencyId] = compileBusinessDays(currencyDaySettlement.get(entry.getKey()), entry.getValue());
+        }
+        if (defaultHolidays != null) {
+            //Currencies without holidays of their own, the default settlement days included, skip the default holidays.
+            //Currencies settling on the same days share their business days
+            Map<Set<Integer>, BitSet> defaultBusinessDays = new HashMap<>();
+            for (int currencyId = 0; currencyId < currencyCount; currencyId++) {
+                if (businessDays[currencyId] == null) {
+                    Set<Integer> settlementDays = currencyId == defaultCurrencyId ? defaultDaySettlement : currencyDaySettlement.get(currencyNames[currencyId]);
+                    businessDays[currencyId] = defaultBusinessDays.computeIfAbsent(settlementDays, days -> compileBusinessDays(days, defaultHolidays));
+                }
+            }
+        }
     }
 
     /**
@@ -49,8 +142,11 @@ public class SettlementDateManager {
      * #All currencies not specified: settles Monday to Friday
      * currency.default=1,2,3,4,5
      * @param properties the properties object
+     * @param currencyDaySettlement receives the settlement days of each currency
+     * @return the default settlement days, null if not configured
      */
-    private void loadCurrencyDaySettlement(Properties properties) throws SettlementConfigurationException {
+    private static Set<Integer> loadCurrencyDaySettlement(Properties properties, Map<String, Set<Integer>> currencyDaySettlement) throws SettlementConfigurationException {
+        Set<Integer> defaultDaySettlement = null;
         Set<String> propertyNames = properties.stringPropertyNames();
         for (String key : propertyNames) {
             if (key.startsWith("currency.settlementDays")) {
@@ -62,6 +158,104 @@ public class SettlementDateManager {
                 defaultDaySettlement = parseSettlementDays("default", properties.getProperty(key));
             }
         }
+        return defaultDaySettlement;
+    }
+
+    /**
+     * Load holidays from property file with format:
+     * #AED: no settlement on 6 and 7 July 2016
+     * currency.holidays.AED=20160706,20160707
+     * #All currencies without holidays of their own
+     * currency.default.holidays=20161225
+     * @param properties the properties object
+     * @param currencyHolidays receives the holidays of each currency, as epoch days
+     * @return the default holidays, null if not configured
+     */
+    private static Set<Long> loadHolidays(Properties properties, Map<String, Set<Long>> currencyHolidays) throws SettlementConfigurationException {
+        Set<Long> defaultHolidays = null;
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(HOLIDAYS_PREFIX)) {
+                String currency = key.substring(HOLIDAYS_PREFIX.length());
+                currencyHolidays.put(currency, parseHolidays(currency, properties.getProperty(key)));
+            } else if (DEFAULT_HOLIDAYS.equals(key)) {
+                defaultHolidays = parseHolidays("default", properties.getProperty(key));
+            }
+        }
+        return defaultHolidays;
+    }
+
+    /**
+     * @param currency the currency of the holidays
+     * @param holidaysString comma separated dates, formatted as yyyyMMdd
+     * @return the holidays as epoch days
+     */
+    private static Set<Long> parseHolidays(String currency, String holidaysString) throws SettlementConfigurationException {
+        Set<Long> holidays = new HashSet<>();
+        for (String holiday : holidaysString.split(",")) {
+            if (holiday.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                holidays.add(LocalDate.parse(holiday.trim(), DateTimeFormatter.BASIC_ISO_DATE).toEpochDay());
+            } catch (DateTimeException e) {
+                throw new SettlementConfigurationException("Cannot parse holiday " + holiday + " of currency " + currency + ", expecting yyyyMMdd", e);
+            }
+        }
+        return holidays;
+    }
+
+    /**
+     * @param yearsString the first and last years of the holiday calendars, formatted as yyyy-yyyy, null for the default years
+     * @return the first and last years
+     */
+    private static int[] parseCalendarYears(String yearsString) throws SettlementConfigurationException {
+        if (yearsString == null) {
+            return new int[]{DEFAULT_FIRST_CALENDAR_YEAR, DEFAULT_LAST_CALENDAR_YEAR};
+        }
+        String[] years = yearsString.split("-");
+        try {
+            if (years.length == 2) {
+                int firstYear = Integer.parseInt(years[0].trim());
+                int lastYear = Integer.parseInt(years[1].trim());
+                if (firstYear <= lastYear && lastYear - firstYear < 1000) {
+                    return new int[]{firstYear, lastYear};
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new SettlementConfigurationException("Cannot parse calendar years " + yearsString + ", expecting yyyy-yyyy", e);
+        }
+        throw new SettlementConfigurationException("Invalid calendar years " + yearsString + ", expecting yyyy-yyyy with at most 1000 years");
+    }
+
+    /**
+     * @return the days of the calendar that are settlement days and not holidays
+     */
+    private BitSet compileBusinessDays(Set<Integer> settlementDays, Set<Long> holidays) {
+        BitSet days = new BitSet((int) (calendarLastDay - calendarFirstDay + 1));
+        for (long day = calendarFirstDay; day <= calendarLastDay; day++) {
+            if (settlementDays.contains(EpochDays.dayOfWeek(day)) && !holidays.contains(day)) {
+                days.set((int) (day - calendarFirstDay));
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Compile the settlement days of a currency into its day of week to days to add table.
+     */
+    private void compileSettlementShifts(int currencyId, String currency, Set<Integer> settlementDays) {
+        currencyNames[currencyId] = currency;
+        int base = currencyId * (DAYS_PER_WEEK + 1);
+        for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; dayOfWeek++) {
+            int shift = NO_SETTLEMENT_DAY;
+            for (int i = 0; i < DAYS_PER_WEEK; i++) {
+                if (settlementDays.contains((dayOfWeek - 1 + i) % DAYS_PER_WEEK + 1)) {
+                    shift = i;
+                    break;
+                }
+            }
+            settlementShifts[base + dayOfWeek] = shift;
+        }
     }
 
     /**
@@ -69,7 +263,7 @@ public class SettlementDateManager {
      * @param currency to be added
      * @param daysString String formatted as comma separated daysOfWeek values.
      */
-    private Set<Integer> parseSettlementDays(String currency, String daysString) throws SettlementConfigurationException {
+    private static Set<Integer> parseSettlementDays(String currency, String daysString) throws SettlementConfigurationException {
         String[] days = daysString.split(",");
         Set<Integer> settlementDays = new HashSet<>();
         for (String day : days) {
@@ -79,28 +273,36 @@ public class SettlementDateManager {
                 throw new SettlementConfigurationException("Cannot parse value for day " + day + " of currency " + currency, e);
             }
         }
-        return settlementDays;
+        return Collections.unmodifiableSet(settlementDays);
     }
 
     /**
+     * Never locks: the first callers may each load the default configuration, only one of them is kept.
      * @return the singleton instance
      */
     public static SettlementDateManager getInstance() throws SettlementConfigurationException {
-        if (instance == null) {
+        SettlementDateManager settlementDateManager = INSTANCE.get();
+        if (settlementDateManager == null) {
             InputStream currencyResourceFile = SettlementReportManager.class.getResourceAsStream(CURRENCY_SETUP_PROPERTIES);
-            instance = new SettlementDateManager(currencyResourceFile);
+            settlementDateManager = new SettlementDateManager(currencyResourceFile);
+            if (!INSTANCE.compareAndSet(null, settlementDateManager)) {
+                settlementDateManager = INSTANCE.get();
+            }
         }
-        return instance;
+        return settlementDateManager;
     }
 
     /**
-     * Modify the singleton instance to use the new resource file as configuration for currency setup
-     * @param currencyResourceFile
-     * @return
+     * Modify the singleton instance to use the new resource file as configuration for currency setup.
+     * The new configuration is fully loaded before it replaces the current one: callers already holding the current instance keep using it,
+     * and if the new configuration cannot be loaded the current one stays in place.
+     * @param currencyResourceFile the currency configuration, closed once read
+     * @return the new instance
      */
     public static SettlementDateManager setup(InputStream currencyResourceFile) throws SettlementConfigurationException {
-        instance = new SettlementDateManager(currencyResourceFile);
-        return instance;
+        SettlementDateManager settlementDateManager = new SettlementDateManager(currencyResourceFile);
+        INSTANCE.set(settlementDateManager);
+        return settlementDateManager;
     }
 
     /**
@@ -110,29 +312,61 @@ public class SettlementDateManager {
      * @return the final date on which transaction will be settled.
      */
     public Date dateSettled(Date date, String currency) throws SettlementException, SettlementConfigurationException {
-        Set<Integer> settlementDays = currencyDaySettlement.get(currency);
-        if (settlementDays == null) {
-            if (defaultDaySettlement == null) {
-                throw new SettlementConfigurationException("Currency "+currency+" unknown and no default settlement dates configured");
-            }
-            settlementDays = defaultDaySettlement;
-        }
-
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(date);
-        //Set the time to 00:00:00.000
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
-        for (int i = 0; i < 7; i ++) {
-            int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
-            if (settlementDays.contains(dayOfWeek)) {
-                return calendar.getTime();
+        return EpochDays.toDate(settledEpochDay(EpochDays.of(date), currencyId(currency)));
+    }
+
+    /**
+     * @param currency the transaction's currency
+     * @return the id of the currency for com.woobadeau.jpmorgan.settlement.SettlementDateManager#settledEpochDay(long, int),
+     * the id of the default settlement days if the currency is not configured.
+     * @throws SettlementConfigurationException if the currency is unknown and no default settlement days are configured
+     */
+    public int currencyId(String currency) throws SettlementConfigurationException {
+        Integer id = currencyIds.get(currency);
+        if (id != null) {
+            return id;
+        }
+        if (defaultCurrencyId < 0) {
+            throw new SettlementConfigurationException("Currency "+currency+" unknown and no default settlement dates configured");
+        }
+        return defaultCurrencyId;
+    }
+
+    /**
+     * Calculates the day of settlement depending on day attempted and currency, without any allocation.<br/>
+     * Holidays are skipped within the calendar years of the configuration, outside of them only settlement days of week are considered.
+     * @param epochDay the epoch day the customer wishes to settle their operation
+     * @param currencyId the transaction's currency id, from com.woobadeau.jpmorgan.settlement.SettlementDateManager#currencyId(java.lang.String)
+     * @return the epoch day on which transaction will be settled.
+     */
+    public long settledEpochDay(long epochDay, int currencyId) throws SettlementException {
+        BitSet days = businessDays[currencyId];
+        if (days != null && epochDay >= calendarFirstDay && epochDay <= calendarLastDay) {
+            int next = days.nextSetBit((int) (epochDay - calendarFirstDay));
+            if (next >= 0) {
+                return calendarFirstDay + next;
             }
-            calendar.add(Calendar.DAY_OF_WEEK, 1);
+            //No business day left in the calendar, holidays are not known after it
+            epochDay = calendarLastDay + 1;
+        }
+        int shift = settlementShifts[currencyId * (DAYS_PER_WEEK + 1) + EpochDays.dayOfWeek(epochDay)];
+        if (shift == NO_SETTLEMENT_DAY) {
+            throw new SettlementException("No valid settlement day found for currency "+currencyNames[currencyId]);
+        }
+        return epochDay + shift;
+    }
+
+    /**
+     * Calculates the days of settlement of several transactions at once.
+     * @param epochDays the epoch days the customers wish to settle their operations
+     * @param currencyIds the transactions' currency ids, from com.woobadeau.jpmorgan.settlement.SettlementDateManager#currencyId(java.lang.String)
+     * @param settledEpochDays receives the epoch days on which transactions will be settled, can be epochDays itself
+     * @param length the number of transactions
+     */
+    public void settledEpochDays(long[] epochDays, int[] currencyIds, long[] settledEpochDays, int length) throws SettlementException {
+        for (int i = 0; i < length; i++) {
+            settledEpochDays[i] = settledEpochDay(epochDays[i], currencyIds[i]);
         }
-        throw new SettlementException("No valid settlement day found for currency "+currency);
     }
 
 }
@@ -0,0 +1,283 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.DeduplicationException;
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.transaction.InstructionColumnsReader;
+import com.woobadeau.jpmorgan.transaction.InstructionDeduplicator;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Aggregation of several settlement files in one report.<br/>
+ * Files are read concurrently, each into its own com.woobadeau.jpmorgan.settlement.ReportAccumulator, and merged in the order they are given:
+ * the report is the same as the one of reading the files one after the other.
+ * A file that cannot be read is left out of the report and its failure is returned with the results of the other files.<br/>
+ * With a deduplicator, each file adds its instructions to a pending deduplicator, committed when the file is merged:
+ * the instructions of a failed file are not taken for duplicates of the ones of other files.
+ * A file holding instructions committed by an earlier file it was read at the same time as is read again when it is merged,
+ * so that each instruction is aggregated once.
+ */
+public class SettlementFileBatch {
+    private static final String GLOB_CHARACTERS = "*?[{";
+    /**
+     * Files read again already had their malformed lines rejected, they are not written twice
+     */
+    private static final OutputStream DISCARDED = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    };
+
+    private final String separator;
+    private final String dateFormat;
+    private final int fixedPointScale;
+    private final InstructionDeduplicator deduplicator;
+    private final InstructionRejects rejects;
+
+    /**
+     * @param separator the field separator of text files, null for the default one
+     * @param dateFormat the date format of text files, null for the default one
+     * @param fixedPointScale the scale of the accumulators of the files, see com.woobadeau.jpmorgan.settlement.ReportAccumulator#ReportAccumulator(int)
+     */
+    public SettlementFileBatch(String separator, String dateFormat, int fixedPointScale) {
+        this(separator, dateFormat, fixedPointScale, null);
+    }
+
+    /**
+     * @param separator the field separator of text files, null for the default one
+     * @param dateFormat the date format of text files, null for the default one
+     * @param fixedPointScale the scale of the accumulators of the files, see com.woobadeau.jpmorgan.settlement.ReportAccumulator#ReportAccumulator(int)
+     * @param deduplicator the instructions seen so far, shared by all the files, null to aggregate every instruction
+     */
+    public SettlementFileBatch(String separator, String dateFormat, int fixedPointScale, InstructionDeduplicator deduplicator) {
+        this(separator, dateFormat, fixedPointScale, deduplicator, null);
+    }
+
+    /**
+     * @param separator the field separator of text files, null for the default one
+     * @param dateFormat the date format of text files, null for the default one
+     * @param fixedPointScale the scale of the accumulators of the files, see com.woobadeau.jpmorgan.settlement.ReportAccumulator#ReportAccumulator(int)
+     * @param deduplicator the instructions seen so far, shared by all the files, null to aggregate every instruction
+     * @param rejects the malformed lines of text files, shared by all the files, null to fail a file on its first malformed line
+     */
+    public SettlementFileBatch(String separator, String dateFormat, int fixedPointScale, InstructionDeduplicator deduplicator, InstructionRejects rejects) {
+        this.separator = separator;
+        this.dateFormat = dateFormat;
+        this.fixedPointScale = fixedPointScale;
+        this.deduplicator = deduplicator;
+        this.rejects = rejects;
+    }
+
+    /**
+     * @param path a settlement file, a directory or a glob pattern such as /data/settlements/*.txt
+     * @return the file itself, the files of the directory or the files matching the pattern, in path order.
+     * Hidden files of directories are ignored.
+     * @throws IOException if the path matches no file
+     */
+    public static List<File> resolve(String path) throws IOException {
+        List<File> files;
+        int glob = firstGlobCharacter(path);
+        if (glob >= 0) {
+            int directoryEnd = Math.max(path.lastIndexOf('/', glob), path.lastIndexOf(File.separatorChar, glob));
+            Path directory = Paths.get(directoryEnd < 0 ? "." : path.substring(0, directoryEnd + 1));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.substring(directoryEnd + 1));
+            try (Stream<Path> paths = Files.walk(directory)) {
+                files = paths.filter(Files::isRegularFile)
+                        .filter(file -> matcher.matches(directory.relativize(file)))
+                        .sorted()
+                        .map(Path::toFile)
+                        .collect(Collectors.toList());
+            }
+        } else if (Files.isDirectory(Paths.get(path))) {
+            files = new ArrayList<>();
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(Paths.get(path))) {
+                for (Path file : paths) {
+                    if (Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")) {
+                        files.add(file.toFile());
+                    }
+                }
+            }
+            Collections.sort(files);
+        } else {
+            files = Collections.singletonList(new File(path));
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No settlement file matches " + path);
+        }
+        return files;
+    }
+
+    private static int firstGlobCharacter(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(path.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Aggregate the files on the executor, then merge them in order into the accumulator.
+     * @param files the settlement files, text or columnar
+     * @param accumulator the accumulator the files are merged into, after the instructions it already holds
+     * @param executor the executor reading the files, its number of threads bounds the number of files read at once
+     * @return the result of each file, in the order of the files
+     */
+    public List<FileResult> accumulate(List<File> files, ReportAccumulator accumulator, ExecutorService executor) throws InterruptedException {
+        List<Future<FileResult>> futures = new ArrayList<>();
+        for (File file : files) {
+            futures.add(executor.submit(accumulateFile(file)));
+        }
+        List<FileResult> results = new ArrayList<>();
+        for (Future<FileResult> future : futures) {
+            FileResult result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                //Failures are caught by the task, only errors get here
+                throw new IllegalStateException(e.getCause());
+            }
+            try {
+                if (result.pending != null && !result.pending.commit()) {
+                    result = readAgain(result);
+                }
+            } catch (DeduplicationException e) {
+                //The file is left out of the report, the instructions of the following files can no longer be deduplicated either
+                result = new FileResult(result.file, 0, result.nanos, null, null, e);
+            }
+            if (result.accumulator != null) {
+                accumulator.merge(result.accumulator);
+                result.accumulator = null;
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private Callable<FileResult> accumulateFile(File file) {
+        return () -> accumulateFile(file, rejects, 0);
+    }
+
+    /**
+     * @param nanos the time already spent on the file
+     */
+    private FileResult accumulateFile(File file, InstructionRejects fileRejects, long nanos) {
+        long start = System.nanoTime() - nanos;
+        InstructionDeduplicator pending = deduplicator == null ? null : deduplicator.pending();
+        ReportAccumulator accumulator = new ReportAccumulator(fixedPointScale, pending);
+        try {
+            long instructions = accumulate(file, accumulator, fileRejects);
+            return new FileResult(file, instructions, System.nanoTime() - start, accumulator, pending, null);
+        } catch (IOException | InstructionParsingException | SettlementConfigurationException | SettlementException | RuntimeException e) {
+            return new FileResult(file, 0, System.nanoTime() - start, null, null, e);
+        }
+    }
+
+    /**
+     * Read a file again once the files before it are committed, while no other file is committed
+     * @return the result of the file, committed unless it failed
+     */
+    private FileResult readAgain(FileResult result) throws DeduplicationException {
+        InstructionRejects discarded = rejects == null ? null : new InstructionRejects(DISCARDED, Charset.defaultCharset());
+        FileResult again = accumulateFile(result.file, discarded, result.nanos);
+        if (again.pending != null && !again.pending.commit()) {
+            //Only files being merged are committed, and this one is the only one
+            throw new IllegalStateException("Instructions of " + result.file + " committed while it was read again");
+        }
+        return again;
+    }
+
+    /**
+     * @return the number of instructions of the file, rejected lines excluded
+     */
+    private long accumulate(File file, ReportAccumulator accumulator, InstructionRejects rejects) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        if (InstructionColumnsReader.isColumnar(file)) {
+            try (InstructionColumnsReader reader = InstructionColumnsReader.open(file)) {
+                accumulator.accept(reader);
+                return reader.rowCount();
+            }
+        }
+        return new SettlementFileReader(separator, dateFormat, 1, false, rejects).read(file, accumulator::accept);
+    }
+
+    /**
+     * Outcome of the aggregation of one file.
+     */
+    public static class FileResult {
+        private final File file;
+        private final long instructions;
+        private final long nanos;
+        private final Exception failure;
+        /**
+         * Instructions of the file, until they are merged
+         */
+        private ReportAccumulator accumulator;
+        /**
+         * Instructions of the file not seen in earlier files, committed when the file is merged, null without deduplicator
+         */
+        private final InstructionDeduplicator pending;
+
+        FileResult(File file, long instructions, long nanos, ReportAccumulator accumulator, InstructionDeduplicator pending, Exception failure) {
+            this.file = file;
+            this.instructions = instructions;
+            this.nanos = nanos;
+            this.accumulator = accumulator;
+            this.pending = pending;
+            this.failure = failure;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the number of instructions aggregated, 0 if the file failed
+         */
+        public long getInstructions() {
+            return instructions;
+        }
+
+        /**
+         * @return the time spent reading and aggregating the file, in milliseconds
+         */
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        /**
+         * @return the reason the file was left out of the report, null if it was aggregated
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            if (failure != null) {
+                return file + ": FAILED after " + getMillis() + " ms: " + String.valueOf(failure.getMessage()).replace('\n', ' ');
+            }
+            return file + ": " + instructions + " instructions in " + getMillis() + " ms";
+        }
+    }
+}
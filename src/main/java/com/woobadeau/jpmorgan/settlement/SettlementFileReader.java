@@ -0,0 +1,86 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.transaction.BufferInstructionParser;
+import com.woobadeau.jpmorgan.transaction.Compression;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionFileReader;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sequential read of a text settlement file, picking the fastest way the separator and the compression of the file allow.<br/>
+ * Compressed files cannot be mapped: they go through a com.woobadeau.jpmorgan.settlement.SettlementPipeline, decompressed on a thread of their own while they are parsed.
+ * Plain files are mapped and parsed by a com.woobadeau.jpmorgan.transaction.BufferInstructionParser, unless the pipeline is requested for them too.
+ * Separators that are regular expressions are only supported by com.woobadeau.jpmorgan.transaction.InstructionParser, lines are then read one by one.<br/>
+ * Instructions are handed in the order of the file whichever way it is read.
+ */
+public class SettlementFileReader {
+    private final String separator;
+    private final String dateFormat;
+    private final int parsers;
+    private final boolean pipelined;
+    private final InstructionRejects rejects;
+
+    /**
+     * @param separator the field separator, null for the default one
+     * @param dateFormat the date format, null for the default one
+     * @param parsers the number of parser threads of the files read through a pipeline
+     * @param pipelined true to read plain files through a pipeline too, instead of mapping them
+     * @param rejects the rejected lines, null to fail on the first malformed line
+     */
+    public SettlementFileReader(String separator, String dateFormat, int parsers, boolean pipelined, InstructionRejects rejects) {
+        this.separator = separator;
+        this.dateFormat = dateFormat;
+        this.parsers = parsers;
+        this.pipelined = pipelined;
+        this.rejects = rejects;
+    }
+
+    /**
+     * Hand the instructions of the file to the consumer, in the order of the file.
+     * @param file the text settlement file, compressed or not
+     * @param consumer the consumer, only called by the calling thread
+     * @return the number of instructions read, rejected lines excluded
+     */
+    public long read(File file, SettlementPipeline.InstructionConsumer consumer) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        Compression compression = Compression.detect(file);
+        long instructions = 0;
+        if (BufferInstructionParser.supportsSeparator(separator) && (pipelined || compression != Compression.NONE)) {
+            ExecutorService executor = Executors.newFixedThreadPool(parsers + 1);
+            try {
+                instructions = new SettlementPipeline(separator, dateFormat, parsers, rejects).read(file, consumer, executor);
+            } finally {
+                executor.shutdownNow();
+            }
+        } else if (BufferInstructionParser.supportsSeparator(separator)) {
+            try (InstructionFileReader reader = InstructionFileReader.open(file, new BufferInstructionParser(separator, dateFormat), rejects)) {
+                Instruction instruction;
+                while ((instruction = reader.next()) != null) {
+                    consumer.accept(instruction);
+                    instructions++;
+                }
+            }
+        } else {
+            try (Scanner scanner = new Scanner(compression.open(file))) {
+                while (scanner.hasNextLine()) {
+                    Instruction instruction = rejects == null ? InstructionParser.parseLine(scanner.nextLine(), separator, dateFormat)
+                            : InstructionParser.parseLine(scanner.nextLine(), separator, dateFormat, rejects, file.getPath());
+                    if (instruction != null) {
+                        consumer.accept(instruction);
+                        instructions++;
+                    }
+                }
+            }
+        }
+        return instructions;
+    }
+}
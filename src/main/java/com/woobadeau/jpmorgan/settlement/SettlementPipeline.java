@@ -0,0 +1,316 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
+import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+import com.woobadeau.jpmorgan.transaction.BufferInstructionParser;
+import com.woobadeau.jpmorgan.transaction.Compression;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Pipelined aggregation of a text settlement file: a reader thread, several parser threads and the calling thread aggregating.<br/>
+ * The reader reads the file in blocks ending on line boundaries and deals them in turn to the parsers, so that disk reads overlap with parsing.
+ * Compressed files (see com.woobadeau.jpmorgan.transaction.Compression) are decompressed by the reader straight into the blocks,
+ * so decompression overlaps with parsing too.
+ * Each parser has its own lane: a com.woobadeau.jpmorgan.settlement.SpscRingBuffer of blocks from the reader and one of parsed batches to the aggregator,
+ * which takes the batches from the lanes in the same turn. Instructions are therefore aggregated in file order
+ * and the report is the same as the one of a sequential read, failures included.<br/>
+ * Blocks are recycled by the aggregator through a third queue per lane, so the number of blocks in flight is bounded:
+ * a slow aggregator holds back the parsers, and slow parsers hold back the reader.
+ * The depth of the queues is recorded in com.woobadeau.jpmorgan.metrics.StageMetrics.
+ */
+public class SettlementPipeline {
+    static final int DEFAULT_BLOCK_SIZE = 512 * 1024;
+    static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private final String separator;
+    private final String dateFormat;
+    private final int parsers;
+    private final InstructionRejects rejects;
+    private final int blockSize;
+    private final int queueCapacity;
+
+    /**
+     * @param separator the field separator, must be supported by com.woobadeau.jpmorgan.transaction.BufferInstructionParser
+     * @param dateFormat the date format, null for the default one
+     * @param parsers the number of parser threads
+     * @param rejects the rejected lines, null to fail on the first malformed line
+     */
+    public SettlementPipeline(String separator, String dateFormat, int parsers, InstructionRejects rejects) {
+        this(separator, dateFormat, parsers, rejects, DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    SettlementPipeline(String separator, String dateFormat, int parsers, InstructionRejects rejects, int blockSize, int queueCapacity) {
+        if (!BufferInstructionParser.supportsSeparator(separator)) {
+            throw new IllegalArgumentException("Separator {" + separator + "} cannot be matched literally");
+        }
+        if (parsers < 1) {
+            throw new IllegalArgumentException("At least one parser is needed, got " + parsers);
+        }
+        this.separator = separator;
+        this.dateFormat = dateFormat;
+        this.parsers = parsers;
+        this.rejects = rejects;
+        this.blockSize = blockSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Aggregate the instructions of the file after the ones already accumulated.
+     * @param file the text settlement file, compressed or not
+     * @param accumulator the accumulator, only used by the calling thread
+     * @param executor runs the reader and the parsers, it needs a thread for each of them
+     * @return the number of instructions aggregated
+     */
+    public long accumulate(File file, ReportAccumulator accumulator, ExecutorService executor) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        return read(file, accumulator::accept, executor);
+    }
+
+    /**
+     * Hand the instructions of the file to the consumer, in the order of the file.
+     * @param file the text settlement file, compressed or not
+     * @param consumer the consumer, only called by the calling thread
+     * @param executor runs the reader and the parsers, it needs a thread for each of them
+     * @return the number of instructions read
+     */
+    public long read(File file, InstructionConsumer consumer, ExecutorService executor) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        Lane[] lanes = new Lane[parsers];
+        for (int i = 0; i < parsers; i++) {
+            lanes[i] = new Lane(i);
+        }
+        //Load the configuration before the parsers run
+        SettlementDateManager.getInstance();
+        List<Future<?>> tasks = new ArrayList<>();
+        boolean completed = false;
+        try {
+            tasks.add(executor.submit(() -> read(file, lanes)));
+            for (Lane lane : lanes) {
+                tasks.add(executor.submit(() -> parse(file, lane)));
+            }
+            long instructions = consume(lanes, consumer);
+            completed = true;
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            return instructions;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + file);
+        } catch (ExecutionException e) {
+            //Failures are handed over to the aggregator, only errors get here
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (!completed) {
+                for (Future<?> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Consume the parsed batches of the lanes in turn, recycling their blocks, until the end of the file or the first failure.
+     */
+    private long consume(Lane[] lanes, InstructionConsumer consumer) throws InterruptedException, IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        long instructions = 0;
+        for (int turn = 0; ; turn = (turn + 1) % lanes.length) {
+            Lane lane = lanes[turn];
+            Block block = lane.parsed.take();
+            if (block.failure != null) {
+                rethrow(block.failure);
+            }
+            if (block.end) {
+                return instructions;
+            }
+            for (int i = 0; i < block.size; i++) {
+                consumer.accept(block.instructions[i]);
+            }
+            instructions += block.size;
+            Arrays.fill(block.instructions, 0, block.size, null);
+            block.size = 0;
+            lane.free.offer(block);
+        }
+    }
+
+    private static void rethrow(Exception failure) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof InstructionParsingException) {
+            throw (InstructionParsingException) failure;
+        } else if (failure instanceof SettlementConfigurationException) {
+            throw (SettlementConfigurationException) failure;
+        } else if (failure instanceof SettlementException) {
+            throw (SettlementException) failure;
+        }
+        throw new IllegalStateException(failure);
+    }
+
+    /**
+     * Read the file in blocks cut after their last line end, the bytes after it starting the next block.
+     * A block is enlarged when a single line does not fit in it.
+     */
+    private Void read(File file, Lane[] lanes) throws InterruptedException {
+        int turn = 0;
+        try (InputStream input = Compression.detect(file).open(file)) {
+            Block block = lanes[turn].freeBlock();
+            int length = 0;
+            while (true) {
+                if (length == block.bytes.length) {
+                    block.bytes = Arrays.copyOf(block.bytes, length * 2);
+                }
+                int read = input.read(block.bytes, length, block.bytes.length - length);
+                if (read < 0) {
+                    if (length > 0) {
+                        block.length = length;
+                        lanes[turn].blocks.put(block);
+                        turn = (turn + 1) % lanes.length;
+                    }
+                    break;
+                }
+                StageMetrics.bytesRead(read);
+                length += read;
+                if (length < block.bytes.length) {
+                    continue;
+                }
+                int lineEnd = length - 1;
+                while (lineEnd >= 0 && block.bytes[lineEnd] != '\n') {
+                    lineEnd--;
+                }
+                if (lineEnd < 0) {
+                    continue;
+                }
+                block.length = lineEnd + 1;
+                byte[] bytes = block.bytes;
+                lanes[turn].blocks.put(block);
+                turn = (turn + 1) % lanes.length;
+                //The bytes after the line end are never read by the parser, and the block is only recycled to this thread
+                int remaining = length - (lineEnd + 1);
+                block = lanes[turn].freeBlock();
+                if (block.bytes.length <= remaining) {
+                    block.bytes = new byte[Math.max(remaining * 2, blockSize)];
+                }
+                System.arraycopy(bytes, lineEnd + 1, block.bytes, 0, remaining);
+                length = remaining;
+            }
+        } catch (IOException e) {
+            Block failure = new Block();
+            failure.failure = e;
+            lanes[turn].blocks.put(failure);
+            return null;
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            Block end = new Block();
+            end.end = true;
+            lanes[(turn + i) % lanes.length].blocks.put(end);
+        }
+        return null;
+    }
+
+    /**
+     * Parse the blocks of a lane until its end or its first failure, which are handed over to the aggregator.
+     */
+    private Void parse(File file, Lane lane) throws InterruptedException {
+        BufferInstructionParser parser = new BufferInstructionParser(separator, dateFormat);
+        String source = file.getPath();
+        while (true) {
+            Block block = lane.blocks.take();
+            if (block.end || block.failure != null) {
+                lane.parsed.put(block);
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(block.bytes, 0, block.length);
+            try {
+                Instruction instruction;
+                while ((instruction = rejects == null ? parser.next(buffer) : parser.next(buffer, rejects, source)) != null) {
+                    block.add(instruction);
+                }
+            } catch (InstructionParsingException | IOException e) {
+                block.failure = e;
+                lane.parsed.put(block);
+                return null;
+            }
+            lane.parsed.put(block);
+        }
+    }
+
+    /**
+     * Receives the instructions read by a pipeline
+     */
+    public interface InstructionConsumer {
+        void accept(Instruction instruction) throws IOException, SettlementConfigurationException, SettlementException;
+    }
+
+    /**
+     * Queues of one parser.
+     */
+    private class Lane {
+        private final SpscRingBuffer<Block> blocks;
+        private final SpscRingBuffer<Block> parsed;
+        private final SpscRingBuffer<Block> free;
+        /**
+         * Blocks allocated for the lane, at most enough to fill both queues with one block being read and one being parsed
+         */
+        private int allocated;
+
+        Lane(int index) {
+            StageMetrics metrics = StageMetrics.getInstance();
+            this.blocks = new SpscRingBuffer<>(queueCapacity, metrics.queueDepth("parser-" + index + " blocks", queueCapacity));
+            this.parsed = new SpscRingBuffer<>(queueCapacity, metrics.queueDepth("parser-" + index + " parsed", queueCapacity));
+            this.free = new SpscRingBuffer<>(blocks.capacity() + parsed.capacity() + 2, null);
+        }
+
+        /**
+         * Take a recycled block from the reader thread, or allocate a new one
+         */
+        Block freeBlock() throws InterruptedException {
+            Block block = free.poll();
+            if (block != null) {
+                return block;
+            }
+            if (allocated < free.capacity()) {
+                allocated++;
+                Block allocatedBlock = new Block();
+                allocatedBlock.bytes = new byte[blockSize];
+                return allocatedBlock;
+            }
+            return free.take();
+        }
+    }
+
+    /**
+     * Lines read by the reader, then the instructions parsed from them.
+     * End and failure blocks mark the end of a lane.
+     */
+    private static class Block {
+        private byte[] bytes;
+        /**
+         * Number of bytes of complete lines
+         */
+        private int length;
+        private Instruction[] instructions = new Instruction[256];
+        private int size;
+        private Exception failure;
+        private boolean end;
+
+        void add(Instruction instruction) {
+            if (size == instructions.length) {
+                instructions = Arrays.copyOf(instructions, size * 2);
+            }
+            instructions[size++] = instruction;
+        }
+    }
+}
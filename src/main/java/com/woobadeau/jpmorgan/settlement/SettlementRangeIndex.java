@@ -0,0 +1,259 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.EpochDays;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Incoming and outgoing amounts of a com.woobadeau.jpmorgan.settlement.SettlementReport over ranges of settlement days, built once from the report.<br/>
+ * Totals of all the entities are prefix sums over the settlement days of the report, and each entity has the prefix sums of the days it settles on only:
+ * a range is found by binary search in the days, then its amount is a subtraction.
+ * Top entities over a range sum the range of every entity, then select the best ones without sorting all of them.<br/>
+ * Ranges include both of their days and may extend beyond the days of the report. Amounts are exact and equal, in value,
+ * to the sum of the daily amounts of the range, their scale possibly being larger. An index is immutable and thread safe.
+ */
+public class SettlementRangeIndex {
+    private static final long[] NO_DAYS = new long[0];
+    private static final BigDecimal[] NO_AMOUNTS = {BigDecimal.ZERO};
+
+    /**
+     * Settlement days of the report, in order
+     */
+    private final long[] days;
+    /**
+     * Totals of all the entities settling before days[i], for every i up to the number of days of the report
+     */
+    private final BigDecimal[] incomingPrefix;
+    private final BigDecimal[] outgoingPrefix;
+
+    /**
+     * Names of the entities, by id in the dictionary of the report, and the ids of the upper case names
+     */
+    private final String[] entities;
+    private final Map<String, Integer> idsByFoldedName = new HashMap<>();
+    /**
+     * Settlement days of each entity, in order, and the prefix sums of its amounts over those days
+     */
+    private final long[][] entityDays;
+    private final BigDecimal[][] entityIncomingPrefix;
+    private final BigDecimal[][] entityOutgoingPrefix;
+
+    /**
+     * @param dailyReports the daily reports of the report, not modified while the index is built
+     */
+    SettlementRangeIndex(DailyReportIndex dailyReports) {
+        EntityDictionary dictionary = dailyReports.dictionary();
+        int entityCount = dictionary.size();
+        this.entities = new String[entityCount];
+        for (int id = 0; id < entityCount; id++) {
+            entities[id] = dictionary.name(id);
+            idsByFoldedName.put(entities[id].toUpperCase(), id);
+        }
+        this.entityDays = new long[entityCount][];
+        this.entityIncomingPrefix = new BigDecimal[entityCount][];
+        this.entityOutgoingPrefix = new BigDecimal[entityCount][];
+        if (dailyReports.size() == 0) {
+            this.days = NO_DAYS;
+            this.incomingPrefix = NO_AMOUNTS;
+            this.outgoingPrefix = NO_AMOUNTS;
+            Arrays.fill(entityDays, NO_DAYS);
+            Arrays.fill(entityIncomingPrefix, NO_AMOUNTS);
+            Arrays.fill(entityOutgoingPrefix, NO_AMOUNTS);
+            return;
+        }
+        this.days = new long[dailyReports.size()];
+        this.incomingPrefix = new BigDecimal[days.length + 1];
+        this.outgoingPrefix = new BigDecimal[days.length + 1];
+        incomingPrefix[0] = BigDecimal.ZERO;
+        outgoingPrefix[0] = BigDecimal.ZERO;
+
+        //Size the arrays of each entity first, then fill them day after day
+        int[] counts = new int[entityCount];
+        int dayCount = 0;
+        for (long day = dailyReports.firstDay(); day <= dailyReports.lastDay(); day = dailyReports.dayFrom(day + 1)) {
+            days[dayCount++] = day;
+            for (EntityReport entityReport : dailyReports.get(day).entityReports()) {
+                counts[entityReport.getEntityId()]++;
+            }
+        }
+        for (int id = 0; id < entityCount; id++) {
+            entityDays[id] = new long[counts[id]];
+            entityIncomingPrefix[id] = new BigDecimal[counts[id] + 1];
+            entityIncomingPrefix[id][0] = BigDecimal.ZERO;
+            entityOutgoingPrefix[id] = new BigDecimal[counts[id] + 1];
+            entityOutgoingPrefix[id][0] = BigDecimal.ZERO;
+        }
+        Arrays.fill(counts, 0);
+        for (int day = 0; day < days.length; day++) {
+            DailyReport dailyReport = dailyReports.get(days[day]);
+            BigDecimal[] totals = dailyReport.getTotals();
+            incomingPrefix[day + 1] = incomingPrefix[day].add(totals[0]);
+            outgoingPrefix[day + 1] = outgoingPrefix[day].add(totals[1]);
+            for (EntityReport entityReport : dailyReport.entityReports()) {
+                int id = entityReport.getEntityId();
+                int count = counts[id]++;
+                entityDays[id][count] = days[day];
+                entityIncomingPrefix[id][count + 1] = entityIncomingPrefix[id][count].add(entityReport.getIncomingValue());
+                entityOutgoingPrefix[id][count + 1] = entityOutgoingPrefix[id][count].add(entityReport.getOutgoingValue());
+            }
+        }
+    }
+
+    /**
+     * @param firstEpochDay the first settlement epoch day of the range
+     * @param lastEpochDay the last settlement epoch day of the range
+     * @return the incoming amount of all the entities over the range
+     */
+    public BigDecimal totalIncoming(long firstEpochDay, long lastEpochDay) {
+        return range(incomingPrefix, days, firstEpochDay, lastEpochDay);
+    }
+
+    public BigDecimal totalIncoming(Date firstDate, Date lastDate) {
+        return totalIncoming(EpochDays.of(firstDate), EpochDays.of(lastDate));
+    }
+
+    /**
+     * @param firstEpochDay the first settlement epoch day of the range
+     * @param lastEpochDay the last settlement epoch day of the range
+     * @return the outgoing amount of all the entities over the range
+     */
+    public BigDecimal totalOutgoing(long firstEpochDay, long lastEpochDay) {
+        return range(outgoingPrefix, days, firstEpochDay, lastEpochDay);
+    }
+
+    public BigDecimal totalOutgoing(Date firstDate, Date lastDate) {
+        return totalOutgoing(EpochDays.of(firstDate), EpochDays.of(lastDate));
+    }
+
+    /**
+     * @param entity the entity name, in any case
+     * @param firstEpochDay the first settlement epoch day of the range
+     * @param lastEpochDay the last settlement epoch day of the range
+     * @return the incoming amount of the entity over the range, zero for an unknown entity
+     */
+    public BigDecimal incoming(String entity, long firstEpochDay, long lastEpochDay) {
+        Integer id = idsByFoldedName.get(entity.toUpperCase());
+        return id == null ? BigDecimal.ZERO : range(entityIncomingPrefix[id], entityDays[id], firstEpochDay, lastEpochDay);
+    }
+
+    public BigDecimal incoming(String entity, Date firstDate, Date lastDate) {
+        return incoming(entity, EpochDays.of(firstDate), EpochDays.of(lastDate));
+    }
+
+    /**
+     * @param entity the entity name, in any case
+     * @param firstEpochDay the first settlement epoch day of the range
+     * @param lastEpochDay the last settlement epoch day of the range
+     * @return the outgoing amount of the entity over the range, zero for an unknown entity
+     */
+    public BigDecimal outgoing(String entity, long firstEpochDay, long lastEpochDay) {
+        Integer id = idsByFoldedName.get(entity.toUpperCase());
+        return id == null ? BigDecimal.ZERO : range(entityOutgoingPrefix[id], entityDays[id], firstEpochDay, lastEpochDay);
+    }
+
+    public BigDecimal outgoing(String entity, Date firstDate, Date lastDate) {
+        return outgoing(entity, EpochDays.of(firstDate), EpochDays.of(lastDate));
+    }
+
+    /**
+     * @param firstEpochDay the first settlement epoch day of the range
+     * @param lastEpochDay the last settlement epoch day of the range
+     * @param n the maximum number of entities
+     * @return the n entities with the highest incoming amount over the range, highest first.
+     * Entities with the same amount are sorted by alphabetical order, entities settling nothing incoming over the range are left out.
+     */
+    public List<String> topIncoming(long firstEpochDay, long lastEpochDay, int n) {
+        return topEntities(entityIncomingPrefix, firstEpochDay, lastEpochDay, n);
+    }
+
+    public List<String> topIncoming(Date firstDate, Date lastDate, int n) {
+        return topIncoming(EpochDays.of(firstDate), EpochDays.of(lastDate), n);
+    }
+
+    /**
+     * @param firstEpochDay the first settlement epoch day of the range
+     * @param lastEpochDay the last settlement epoch day of the range
+     * @param n the maximum number of entities
+     * @return the n entities with the highest outgoing amount over the range, highest first.
+     * Entities with the same amount are sorted by alphabetical order, entities settling nothing outgoing over the range are left out.
+     */
+    public List<String> topOutgoing(long firstEpochDay, long lastEpochDay, int n) {
+        return topEntities(entityOutgoingPrefix, firstEpochDay, lastEpochDay, n);
+    }
+
+    public List<String> topOutgoing(Date firstDate, Date lastDate, int n) {
+        return topOutgoing(EpochDays.of(firstDate), EpochDays.of(lastDate), n);
+    }
+
+    private static BigDecimal range(BigDecimal[] prefix, long[] days, long firstEpochDay, long lastEpochDay) {
+        int from = firstIndex(days, firstEpochDay, false);
+        int to = firstIndex(days, lastEpochDay, true);
+        return from >= to ? BigDecimal.ZERO : prefix[to].subtract(prefix[from]);
+    }
+
+    /**
+     * @param after true for the first day after the given one, false for the first day from the given one
+     * @return the index of the first day found, the number of days if there is none
+     */
+    private static int firstIndex(long[] days, long day, boolean after) {
+        int low = 0;
+        int high = days.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[middle] < day || (after && days[middle] == day)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private List<String> topEntities(BigDecimal[][] entityPrefix, long firstEpochDay, long lastEpochDay, int n) {
+        if (n <= 0 || firstEpochDay > lastEpochDay) {
+            return Collections.emptyList();
+        }
+        Comparator<EntityAmount> bestFirst = Comparator.comparing((EntityAmount entityAmount) -> entityAmount.amount).reversed()
+                .thenComparing(entityAmount -> entityAmount.entity);
+        PriorityQueue<EntityAmount> top = new PriorityQueue<>(Math.min(n, 1024) + 1, bestFirst.reversed());
+        for (int id = 0; id < entities.length; id++) {
+            BigDecimal amount = range(entityPrefix[id], entityDays[id], firstEpochDay, lastEpochDay);
+            if (amount.signum() == 0) {
+                continue;
+            }
+            EntityAmount entityAmount = new EntityAmount(entities[id], amount);
+            if (top.size() < n) {
+                top.add(entityAmount);
+            } else if (bestFirst.compare(entityAmount, top.peek()) < 0) {
+                top.poll();
+                top.add(entityAmount);
+            }
+        }
+        List<EntityAmount> best = new ArrayList<>(top);
+        best.sort(bestFirst);
+        List<String> names = new ArrayList<>(best.size());
+        for (EntityAmount entityAmount : best) {
+            names.add(entityAmount.entity);
+        }
+        return names;
+    }
+
+    private static class EntityAmount {
+        private final String entity;
+        private final BigDecimal amount;
+
+        EntityAmount(String entity, BigDecimal amount) {
+            this.entity = entity;
+            this.amount = amount;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package com.woobadeau.jpmorgan.settlement;
 
-import java.text.SimpleDateFormat;
+import com.woobadeau.jpmorgan.transaction.EpochDays;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -12,28 +18,141 @@ import java.util.TreeMap;
 public class SettlementReport {
 
     /**
-     * Daily reports, keyset ordered by date.
+     * Daily reports, indexed and ordered by settlement epoch day.
      */
-    private final Map<Date, DailyReport> dailyReports = new TreeMap<>(Comparator.comparingLong(Date::getTime));
-    private SimpleDateFormat formatter = new SimpleDateFormat("dd MMM yyyy");
+    private final DailyReportIndex dailyReports;
 
-    SettlementReport(Map<Date, DailyReport> dailyReports) {
-        this.dailyReports.putAll(dailyReports);
+    SettlementReport(DailyReportIndex dailyReports) {
+        this.dailyReports = dailyReports;
     }
 
+    /**
+     * @return the daily reports by settlement date, keyset ordered by date.
+     */
     Map<Date, DailyReport> getDailyReports() {
-        return dailyReports;
+        Map<Date, DailyReport> reports = new TreeMap<>(Comparator.comparingLong(Date::getTime));
+        for (long day = dailyReports.firstDay(); day <= dailyReports.lastDay(); day = dailyReports.dayFrom(day + 1)) {
+            reports.put(EpochDays.toDate(day), dailyReports.get(day));
+        }
+        return reports;
+    }
+
+    /**
+     * @return the first settlement day with a report, Long.MAX_VALUE if there is none
+     */
+    long firstDay() {
+        return dailyReports.firstDay();
+    }
+
+    /**
+     * @return the last settlement day with a report, Long.MIN_VALUE if there is none
+     */
+    long lastDay() {
+        return dailyReports.lastDay();
+    }
+
+    /**
+     * @return the first settlement day with a report from the given one included, Long.MAX_VALUE if there is none
+     */
+    long dayFrom(long epochDay) {
+        return dailyReports.dayFrom(epochDay);
+    }
+
+    /**
+     * @param epochDay the settlement epoch day
+     * @return the report of the day, null if no instruction settles on that day
+     */
+    DailyReport getDailyReport(long epochDay) {
+        return dailyReports.get(epochDay);
+    }
+
+    /**
+     * @param settlementDate the settlement date
+     * @param n the maximum number of entities
+     * @return the n entities with the highest incoming value on the date, highest first
+     */
+    public List<String> topIncoming(Date settlementDate, int n) {
+        return topIncoming(EpochDays.of(settlementDate), n);
+    }
+
+    /**
+     * @param settlementEpochDay the settlement epoch day
+     * @param n the maximum number of entities
+     * @return the n entities with the highest incoming value on the day, highest first.
+     * Rankings are cached until the day receives new instructions.
+     */
+    public List<String> topIncoming(long settlementEpochDay, int n) {
+        DailyReport dailyReport = dailyReports.get(settlementEpochDay);
+        return dailyReport == null ? Collections.emptyList() : dailyReport.topIncoming(n);
     }
 
+    /**
+     * @param settlementDate the settlement date
+     * @param n the maximum number of entities
+     * @return the n entities with the highest outgoing value on the date, highest first
+     */
+    public List<String> topOutgoing(Date settlementDate, int n) {
+        return topOutgoing(EpochDays.of(settlementDate), n);
+    }
+
+    /**
+     * @param settlementEpochDay the settlement epoch day
+     * @param n the maximum number of entities
+     * @return the n entities with the highest outgoing value on the day, highest first.
+     * Rankings are cached until the day receives new instructions.
+     */
+    public List<String> topOutgoing(long settlementEpochDay, int n) {
+        DailyReport dailyReport = dailyReports.get(settlementEpochDay);
+        return dailyReport == null ? Collections.emptyList() : dailyReport.topOutgoing(n);
+    }
+
+    /**
+     * @return an index answering totals and top entities over ranges of settlement days,
+     * built from the instructions of the report at the time of the call
+     */
+    public SettlementRangeIndex rangeIndex() {
+        return new SettlementRangeIndex(dailyReports);
+    }
+
+    /**
+     * @return the number of settlement days with a report
+     */
+    public int getDayCount() {
+        return dailyReports.size();
+    }
+
+    /**
+     * @return the number of distinct entities, over all the days
+     */
+    public int getEntityCount() {
+        return dailyReports.dictionary().size();
+    }
+
+    /**
+     * @param settlementDate the settlement date
+     * @return the report of the date, in the same format as in the whole report
+     */
+    public String toString(Date settlementDate) {
+        StringWriter stringWriter = new StringWriter();
+        try {
+            ReportFormat.TEXT.writer(stringWriter).write(this, settlementDate);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * @return the whole report in text, see com.woobadeau.jpmorgan.settlement.ReportWriter to stream large reports instead
+     */
     @Override
     public String toString() {
-        StringBuffer stringBuffer = new StringBuffer("Settlement Report :\n");
-        for (Map.Entry<Date, DailyReport> entry: dailyReports.entrySet()) {
-            stringBuffer.append("On ");
-            stringBuffer.append(formatter.format(entry.getKey()));
-            stringBuffer.append(":\n");
-            stringBuffer.append(entry.getValue().toString());
+        StringWriter stringWriter = new StringWriter();
+        try {
+            ReportFormat.TEXT.writer(stringWriter).write(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return stringBuffer.toString();
+        return stringWriter.toString();
     }
 }
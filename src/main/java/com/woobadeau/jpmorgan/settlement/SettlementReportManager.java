@@ -1,12 +1,22 @@
 package com.woobadeau.jpmorgan.settlement;
 
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
 import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
 import com.woobadeau.jpmorgan.exception.SettlementException;
 import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionColumnsReader;
+import com.woobadeau.jpmorgan.transaction.InstructionFileReader;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
@@ -15,23 +25,134 @@ import java.util.stream.Collectors;
  */
 public class SettlementReportManager {
 
+    /**
+     * More chunks than threads, so that a thread finishing early can steal work
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
     /**
      * Convert a list of com.woobadeau.jpmorgan.transaction.Instruction into a com.woobadeau.jpmorgan.settlement.SettlementReport
      * @param instructions
      * @return a com.woobadeau.jpmorgan.settlement.SettlementReport
      */
     public static SettlementReport createReport(Set<Instruction> instructions) throws SettlementConfigurationException, SettlementException {
-        Map<Date, DailyReport> dailyReports = new HashMap<>();
-        for (Instruction instruction : instructions) {
-            Date settlementDate = SettlementDateManager.getInstance().dateSettled(instruction.getSettlementDate(), instruction.getCurrency());
-            DailyReport dailyReport = dailyReports.get(settlementDate);
-            if (dailyReport == null) {
-                dailyReport = new DailyReport();
-                dailyReports.put(settlementDate, dailyReport);
+        return createReport(instructions.iterator());
+    }
+
+    /**
+     * Convert a sequence of com.woobadeau.jpmorgan.transaction.Instruction into a com.woobadeau.jpmorgan.settlement.SettlementReport.
+     * Instructions are aggregated one at a time, they do not need to be held in memory all together.
+     * @param instructions
+     * @return a com.woobadeau.jpmorgan.settlement.SettlementReport
+     */
+    public static SettlementReport createReport(Iterator<Instruction> instructions) throws SettlementConfigurationException, SettlementException {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        while (instructions.hasNext()) {
+            accumulator.accept(instructions.next());
+        }
+        return accumulator.toReport();
+    }
+
+    /**
+     * Convert a columnar settlement file into a com.woobadeau.jpmorgan.settlement.SettlementReport,
+     * aggregating its columns directly, see com.woobadeau.jpmorgan.settlement.ReportAccumulator#accept(com.woobadeau.jpmorgan.transaction.InstructionColumnsReader)
+     * @param reader the reader of the columnar file
+     * @return a com.woobadeau.jpmorgan.settlement.SettlementReport
+     */
+    public static SettlementReport createReport(InstructionColumnsReader reader) throws IOException, SettlementConfigurationException, SettlementException {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        accumulator.accept(reader);
+        return accumulator.toReport();
+    }
+
+    /**
+     * Convert a settlement file into a com.woobadeau.jpmorgan.settlement.SettlementReport using several threads.
+     * The file is split in chunks at line boundaries, each chunk is aggregated on the pool
+     * and the partial reports are merged in file order: the report is the same as the one of a sequential read.
+     * @param settlementFile the settlement file
+     * @param separator the field separator, must be supported by com.woobadeau.jpmorgan.transaction.BufferInstructionParser
+     * @param dateFormat the date format
+     * @param pool the pool the chunks are aggregated on
+     * @return a com.woobadeau.jpmorgan.settlement.SettlementReport
+     */
+    public static SettlementReport createReport(File settlementFile, String separator, String dateFormat, ForkJoinPool pool) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        return createReport(settlementFile, separator, dateFormat, ReportAccumulator::new, pool);
+    }
+
+    /**
+     * Convert a settlement file into a com.woobadeau.jpmorgan.settlement.SettlementReport using several threads,
+     * see com.woobadeau.jpmorgan.settlement.SettlementReportManager#createReport(java.io.File, java.lang.String, java.lang.String, java.util.concurrent.ForkJoinPool)
+     * @param settlementFile the settlement file
+     * @param separator the field separator, must be supported by com.woobadeau.jpmorgan.transaction.BufferInstructionParser
+     * @param dateFormat the date format
+     * @param accumulators creates the accumulator of each chunk
+     * @param pool the pool the chunks are aggregated on
+     * @return a com.woobadeau.jpmorgan.settlement.SettlementReport
+     */
+    public static SettlementReport createReport(File settlementFile, String separator, String dateFormat, Supplier<ReportAccumulator> accumulators, ForkJoinPool pool) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        return accumulate(settlementFile, separator, dateFormat, accumulators, pool).toReport();
+    }
+
+    /**
+     * Aggregate a settlement file using several threads,
+     * see com.woobadeau.jpmorgan.settlement.SettlementReportManager#createReport(java.io.File, java.lang.String, java.lang.String, java.util.concurrent.ForkJoinPool)
+     * @param settlementFile the settlement file
+     * @param separator the field separator, must be supported by com.woobadeau.jpmorgan.transaction.BufferInstructionParser
+     * @param dateFormat the date format
+     * @param accumulators creates the accumulator of each chunk
+     * @param pool the pool the chunks are aggregated on
+     * @return the accumulator holding all the instructions of the file, one of the accumulators created
+     */
+    public static ReportAccumulator accumulate(File settlementFile, String separator, String dateFormat, Supplier<ReportAccumulator> accumulators, ForkJoinPool pool) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        return accumulate(settlementFile, separator, dateFormat, accumulators, null, pool);
+    }
+
+    /**
+     * Aggregate a settlement file using several threads, skipping malformed lines if rejects are given,
+     * see com.woobadeau.jpmorgan.settlement.SettlementReportManager#createReport(java.io.File, java.lang.String, java.lang.String, java.util.concurrent.ForkJoinPool)
+     * @param settlementFile the settlement file
+     * @param separator the field separator, must be supported by com.woobadeau.jpmorgan.transaction.BufferInstructionParser
+     * @param dateFormat the date format
+     * @param accumulators creates the accumulator of each chunk
+     * @param rejects the rejected lines, shared by the chunks, null to fail on the first malformed line
+     * @param pool the pool the chunks are aggregated on
+     * @return the accumulator holding all the instructions of the file, one of the accumulators created
+     */
+    public static ReportAccumulator accumulate(File settlementFile, String separator, String dateFormat, Supplier<ReportAccumulator> accumulators, InstructionRejects rejects, ForkJoinPool pool) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        //Load the configuration before the chunks share it
+        SettlementDateManager.getInstance();
+        try (FileChannel channel = FileChannel.open(settlementFile.toPath(), StandardOpenOption.READ)) {
+            int chunks = (int) Math.max(1, Math.min((long) pool.getParallelism() * CHUNKS_PER_THREAD, channel.size() / MIN_CHUNK_SIZE));
+            long[] offsets = InstructionFileReader.splitAtLines(channel, chunks);
+            try {
+                return pool.invoke(new ChunkReportTask(channel, offsets, 0, offsets.length - 1, separator, dateFormat, accumulators,
+                        rejects, settlementFile.getPath()));
+            } catch (RuntimeException e) {
+                rethrowChunkFailure(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Rethrow the checked exception that made a chunk fail, if any in the causes of the exception.
+     */
+    private static void rethrowChunkFailure(RuntimeException e) throws IOException, InstructionParsingException, SettlementConfigurationException, SettlementException {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ChunkReportTask.ChunkFailure) {
+                Throwable failure = cause.getCause();
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                } else if (failure instanceof InstructionParsingException) {
+                    throw (InstructionParsingException) failure;
+                } else if (failure instanceof SettlementConfigurationException) {
+                    throw (SettlementConfigurationException) failure;
+                } else if (failure instanceof SettlementException) {
+                    throw (SettlementException) failure;
+                }
             }
-            dailyReport.addInstruction(instruction);
         }
-        return new SettlementReport(dailyReports);
     }
 
     /**
@@ -40,12 +161,13 @@ public class SettlementReportManager {
      * @return an array containing two BigDecimals. Index 0 is Incoming, Index 1 is Outgoing
      */
     public static BigDecimal[] aggregateIncomingOutgoing(DailyReport report) {
-        BigDecimal[] result = new BigDecimal[]{new BigDecimal(0), new BigDecimal(0)};
-        for (EntityReport entityReport : report.entityReports.values()) {
-            result[0] = result[0].add(entityReport.getIncomingValue());
-            result[1] = result[1].add(entityReport.getOutgoingValue());
+        AmountAccumulator incoming = new AmountAccumulator(AmountAccumulator.DECIMAL_MODE);
+        AmountAccumulator outgoing = new AmountAccumulator(AmountAccumulator.DECIMAL_MODE);
+        for (EntityReport entityReport : report.entityReports()) {
+            incoming.add(entityReport.getIncoming());
+            outgoing.add(entityReport.getOutgoing());
         }
-        return result;
+        return new BigDecimal[]{incoming.value(), outgoing.value()};
     }
 
     /**
@@ -54,15 +176,59 @@ public class SettlementReportManager {
      * @return a sorted list of Entity name. Entities with similar income will be sorted by alphabetical order.
      */
     public static List<String> sortIncoming(DailyReport dailyReport) {
-        return sortEntities(dailyReport, EntityReport::getIncomingValue);
+        return sortEntities(dailyReport, EntityReport::getIncoming);
     }
 
     public static List<String> sortOutgoing(DailyReport dailyReport) {
-        return sortEntities(dailyReport, EntityReport::getOutgoingValue);
+        return sortEntities(dailyReport, EntityReport::getOutgoing);
+    }
+
+    /**
+     * Selects the entities with the highest incoming value in the Daily Report, without sorting all of them.
+     * @param dailyReport
+     * @param n the maximum number of entities
+     * @return the n entities with the highest incoming value, highest first. Entities with similar income will be sorted by alphabetical order.
+     */
+    public static List<String> topIncoming(DailyReport dailyReport, int n) {
+        return topEntities(dailyReport, EntityReport::getIncoming, n);
+    }
+
+    /**
+     * Selects the entities with the highest outgoing value in the Daily Report, without sorting all of them.
+     * @param dailyReport
+     * @param n the maximum number of entities
+     * @return the n entities with the highest outgoing value, highest first. Entities with similar outcome will be sorted by alphabetical order.
+     */
+    public static List<String> topOutgoing(DailyReport dailyReport, int n) {
+        return topEntities(dailyReport, EntityReport::getOutgoing, n);
+    }
+
+    /**
+     * Keeps the n best entities in a heap whose head is the worst of them, then sorts only those.
+     */
+    private static List<String> topEntities(DailyReport dailyReport, Function<EntityReport, AmountAccumulator> elementToCompare, int n) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        Comparator<EntityReport> bestFirst = Comparator.comparing(elementToCompare).reversed()
+                .thenComparing(EntityReport::getEntity);
+        PriorityQueue<EntityReport> top = new PriorityQueue<>(Math.min(n, 1024) + 1, bestFirst.reversed());
+        for (EntityReport entityReport : dailyReport.entityReports()) {
+            if (top.size() < n) {
+                top.add(entityReport);
+            } else if (bestFirst.compare(entityReport, top.peek()) < 0) {
+                top.poll();
+                top.add(entityReport);
+            }
+        }
+        return top.stream()
+                .sorted(bestFirst)
+                .map(EntityReport::getEntity)
+                .collect(Collectors.toList());
     }
 
-    private static List<String> sortEntities(DailyReport dailyReport, Function<EntityReport, BigDecimal> elementToCompare) {
-        return dailyReport.entityReports.values()
+    private static List<String> sortEntities(DailyReport dailyReport, Function<EntityReport, AmountAccumulator> elementToCompare) {
+        return dailyReport.entityReports()
                 .stream()
                 .sorted(Comparator.comparing(elementToCompare)
                         .thenComparing(EntityReport::getEntity))
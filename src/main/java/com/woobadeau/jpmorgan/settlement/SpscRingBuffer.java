@@ -0,0 +1,127 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.metrics.QueueDepth;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue between exactly one producer thread and one consumer thread.<br/>
+ * Elements are exchanged through an array with ordered writes of the head and tail indexes, no lock is taken.
+ * Each side caches the index of the other one and only reads it again when the queue looks full or empty.
+ * Blocking operations spin, then yield, then park for short periods, and give up when the waiting thread is interrupted.
+ */
+class SpscRingBuffer<E> {
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 50000;
+
+    private final Object[] elements;
+    private final int mask;
+    /**
+     * Index of the next element to be taken, only written by the consumer
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * Index of the next element to be added, only written by the producer
+     */
+    private final AtomicLong tail = new AtomicLong();
+    private final QueueDepth depth;
+    private long producerHead;
+    private long consumerTail;
+
+    /**
+     * @param capacity the maximum number of elements, rounded up to a power of two
+     * @param depth records the depth of the queue after each addition, null not to record it
+     */
+    SpscRingBuffer(int capacity, QueueDepth depth) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.elements = new Object[size];
+        this.mask = size - 1;
+        this.depth = depth;
+    }
+
+    int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * Add an element from the producer thread
+     * @return false if the queue is full
+     */
+    boolean offer(E element) {
+        long index = tail.get();
+        if (index - producerHead >= elements.length) {
+            producerHead = head.get();
+            if (index - producerHead >= elements.length) {
+                return false;
+            }
+        }
+        elements[(int) index & mask] = element;
+        tail.lazySet(index + 1);
+        if (depth != null) {
+            depth.record((int) (index + 1 - head.get()));
+        }
+        return true;
+    }
+
+    /**
+     * Add an element from the producer thread, waiting for room if the queue is full
+     */
+    void put(E element) throws InterruptedException {
+        for (int idle = 0; !offer(element); idle++) {
+            idle(idle);
+        }
+    }
+
+    /**
+     * Take an element from the consumer thread
+     * @return the oldest element, null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long index = head.get();
+        if (index >= consumerTail) {
+            consumerTail = tail.get();
+            if (index >= consumerTail) {
+                return null;
+            }
+        }
+        int slot = (int) index & mask;
+        E element = (E) elements[slot];
+        elements[slot] = null;
+        head.lazySet(index + 1);
+        return element;
+    }
+
+    /**
+     * Take an element from the consumer thread, waiting for one if the queue is empty
+     */
+    E take() throws InterruptedException {
+        E element;
+        for (int idle = 0; (element = poll()) == null; idle++) {
+            idle(idle);
+        }
+        return element;
+    }
+
+    private static void idle(int idle) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (idle < SPINS) {
+            return;
+        }
+        if (idle < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Human readable report, with the totals in USD and the entity ranks of each day.
+ */
+class TextReportWriter extends ReportWriter {
+
+    TextReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void writeReportStart() throws IOException {
+        out.write("Settlement Report :\n");
+    }
+
+    @Override
+    void writeDay(long epochDay, DailyReport dailyReport) throws IOException {
+        out.write("On ");
+        out.write(ReportFormatting.date(epochDay));
+        out.write(":\n");
+        writeDailyReport(dailyReport);
+    }
+
+    /**
+     * Write the totals and ranks of a day, as in com.woobadeau.jpmorgan.settlement.DailyReport#toString()
+     */
+    void writeDailyReport(DailyReport dailyReport) throws IOException {
+        BigDecimal[] totals = dailyReport.getTotals();
+        out.write("Incoming: ");
+        out.write(ReportFormatting.currency(totals[0]));
+        out.write("\nIncoming entity ranks: ");
+        writeEntities(dailyReport.getIncomingRanks());
+        out.write("\nOutgoing: ");
+        out.write(ReportFormatting.currency(totals[1]));
+        out.write("\nOutgoing entity ranks: ");
+        writeEntities(dailyReport.getOutgoingRanks());
+        out.write("\n");
+    }
+
+    private void writeEntities(List<String> entities) throws IOException {
+        for (int i = 0; i < entities.size(); i++) {
+            if (i > 0) {
+                out.write(", ");
+            }
+            out.write(entities.get(i));
+        }
+    }
+
+    @Override
+    void writeNoSettlement(long epochDay) throws IOException {
+        out.write("No settlement on ");
+        out.write(ReportFormatting.date(epochDay));
+        out.write("\n");
+    }
+
+    @Override
+    void writeReportEnd() {
+        //The last day ends the report
+    }
+}
@@ -0,0 +1,531 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.metrics.Stage;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Byte level parser for instructions, scanning lines directly in a java.nio.ByteBuffer (typically a java.nio.MappedByteBuffer).<br/>
+ * Separators and line ends are found byte by byte and numeric fields are decoded in place, no intermediate String[] is built.<br/>
+ * Results are the same as com.woobadeau.jpmorgan.transaction.InstructionParser#parseLine(java.lang.String, java.lang.String, java.lang.String),
+ * which remains the reference, for every separator accepted by com.woobadeau.jpmorgan.transaction.BufferInstructionParser#supportsSeparator(java.lang.String).<br/>
+ * Lines only end with '\n', a '\r' before it being dropped, so that chunks and blocks of a file can be split on a single byte.
+ * Unlike java.util.Scanner#nextLine(), used for the separators this parser does not support, a lone '\r', U+0085, U+2028 or U+2029 does not end a line:
+ * the lines it joins are parsed as one, and rejected for their number of fields rather than read apart.<br/>
+ * Lines can also be validated without exceptions, see com.woobadeau.jpmorgan.transaction.BufferInstructionParser#tryParse(java.nio.ByteBuffer, int, int):
+ * fields are checked with the grammar of the reference parser before being decoded, so malformed lines cost no more than valid ones.<br/>
+ * A parser keeps scratch state between lines and is not thread safe: use one parser per thread.
+ */
+public class BufferInstructionParser {
+    private static final String REGEX_META_CHARACTERS = "\\[](){}.*+?^$|";
+    private static final int FIELD_COUNT = 8;
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final int MAX_INT_DIGITS = 9;
+    private static final int SYMBOL_CACHE_SIZE = 1024;
+
+    private final String separator;
+    private final byte[] separatorBytes;
+    private final String dateFormat;
+    private final DateDecoder dateDecoder;
+    private final Charset charset;
+    /**
+     * Number of tokens (separated by the separator) a date consists of
+     */
+    private final int dateLength;
+    private final int expectedTokens;
+
+    /**
+     * Token boundaries in the current line, as absolute indexes in the buffer
+     */
+    private int[] tokenStarts = new int[16];
+    private int[] tokenEnds = new int[16];
+    private byte[] scratch = new byte[64];
+    /**
+     * Reason the last line given to tryParse was rejected
+     */
+    private RejectReason rejectReason;
+
+    /**
+     * Direct mapped cache of entity and currency names, avoiding a String allocation for names already seen
+     */
+    private final byte[][] symbolBytes = new byte[SYMBOL_CACHE_SIZE][];
+    private final String[] symbolStrings = new String[SYMBOL_CACHE_SIZE];
+
+    /**
+     * @param separator the field separator, defaults to a single space if null
+     * @param dateFormat the date format, defaults to dd MMM yyyy if null
+     */
+    public BufferInstructionParser(String separator, String dateFormat) {
+        this(separator, dateFormat, Charset.defaultCharset());
+    }
+
+    /**
+     * @param separator the field separator, defaults to a single space if null
+     * @param dateFormat the date format, defaults to dd MMM yyyy if null
+     * @param charset the charset the lines are encoded with
+     */
+    public BufferInstructionParser(String separator, String dateFormat, Charset charset) {
+        this.separator = separator == null ? InstructionParser.DEFAULT_SEPARATOR : separator;
+        this.dateFormat = dateFormat == null ? InstructionParser.DEFAULT_DATE_FORMAT : dateFormat;
+        if (!supportsSeparator(this.separator)) {
+            throw new IllegalArgumentException("Separator {" + this.separator + "} cannot be matched literally");
+        }
+        this.charset = charset;
+        this.separatorBytes = this.separator.getBytes(charset);
+        this.dateDecoder = new DateDecoder(this.dateFormat, charset);
+        this.dateLength = this.dateFormat.split(Pattern.quote(this.separator)).length;
+        this.expectedTokens = FIELD_COUNT + (dateLength - 1) * 2;
+    }
+
+    /**
+     * The reference parser splits lines with a regular expression: only separators without meta characters
+     * are guaranteed to give the same results when matched literally byte by byte.
+     * @param separator the field separator, null for the default one
+     * @return true if lines using this separator can be parsed by this class
+     */
+    public static boolean supportsSeparator(String separator) {
+        if (separator == null) {
+            return true;
+        }
+        if (separator.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < separator.length(); i++) {
+            if (REGEX_META_CHARACTERS.indexOf(separator.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the line starting at the position of the buffer and move the position after its line end.
+     * The limit of the buffer is considered as the end of the last line.
+     * @param buffer the buffer holding the lines
+     * @return The com.woobadeau.jpmorgan.transaction.Instruction object represented by the line, null if there is no more line in the buffer
+     * @throws InstructionParsingException if the line cannot be parsed (Wrong number of fields, incorrect data...).
+     */
+    public Instruction next(ByteBuffer buffer) throws InstructionParsingException {
+        int start = buffer.position();
+        if (start >= buffer.limit()) {
+            return null;
+        }
+        long read = StageMetrics.start();
+        int end = nextLine(buffer);
+        StageMetrics.stop(Stage.READ, read);
+        return parse(buffer, start, end);
+    }
+
+    /**
+     * Parse the lines starting at the position of the buffer until a valid one is found, handing the other ones to the rejects.
+     * The position is moved after the line end of the valid line, or to the limit of the buffer.
+     * @param buffer the buffer holding the lines
+     * @param rejects the rejected lines
+     * @param source the file the lines come from
+     * @return The com.woobadeau.jpmorgan.transaction.Instruction object represented by the first valid line, null if there is no more valid line in the buffer
+     */
+    public Instruction next(ByteBuffer buffer, InstructionRejects rejects, String source) throws IOException {
+        while (buffer.position() < buffer.limit()) {
+            int start = buffer.position();
+            long read = StageMetrics.start();
+            int end = nextLine(buffer);
+            StageMetrics.stop(Stage.READ, read);
+            Instruction instruction = tryParse(buffer, start, end);
+            if (instruction != null) {
+                return instruction;
+            }
+            rejects.reject(rejectReason, source, buffer, start, end);
+        }
+        return null;
+    }
+
+    /**
+     * Move the position of the buffer after the end of the line starting at it, that is after the next '\n'
+     * @return the index after the last byte of the line, excluding the '\n' and a '\r' before it
+     */
+    private static int nextLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int end = start;
+        while (end < limit && buffer.get(end) != '\n') {
+            end++;
+        }
+        buffer.position(end < limit ? end + 1 : end);
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Parse the line between start (inclusive) and end (exclusive) in the buffer.
+     * @param buffer the buffer holding the line
+     * @param start index of the first byte of the line
+     * @param end index after the last byte of the line, excluding line terminators
+     * @return The com.woobadeau.jpmorgan.transaction.Instruction object represented by the line
+     * @throws InstructionParsingException if the line cannot be parsed (Wrong number of fields, incorrect data...).
+     */
+    public Instruction parse(ByteBuffer buffer, int start, int end) throws InstructionParsingException {
+        long parse = StageMetrics.start();
+        try {
+            return decodeOrThrow(buffer, start, end);
+        } finally {
+            StageMetrics.stop(Stage.PARSE, parse);
+        }
+    }
+
+    private Instruction decodeOrThrow(ByteBuffer buffer, int start, int end) throws InstructionParsingException {
+        int tokens = tokenize(buffer, start, end);
+        if (tokens != expectedTokens) {
+            int countedFields = tokens - ((dateLength - 1) * 2);
+            throw new InstructionParsingException("Line {" + string(buffer, start, end) + "} does not contain the correct number of fields.\n found " + countedFields + " and expecting 8",
+                    RejectReason.FIELD_COUNT);
+        }
+        Instruction instruction = new Instruction();
+        int offset = 0;
+        RejectReason reason = null;
+        try {
+            instruction.setEntity(symbol(buffer, tokenStarts[offset], tokenEnds[offset++]));
+            reason = RejectReason.DIRECTION;
+            instruction.setTransactionDirection(direction(buffer, tokenStarts[offset], tokenEnds[offset++]));
+            reason = RejectReason.FOREX;
+            instruction.setForex(decimal(buffer, tokenStarts[offset], tokenEnds[offset++]));
+            instruction.setCurrency(symbol(buffer, tokenStarts[offset], tokenEnds[offset++]));
+            reason = RejectReason.INSTRUCTION_DATE;
+            instruction.setInstructionEpochDay(date(buffer, offset));
+            offset += dateLength;
+            reason = RejectReason.SETTLEMENT_DATE;
+            instruction.setSettlementEpochDay(date(buffer, offset));
+            offset += dateLength;
+            reason = RejectReason.UNITS;
+            instruction.setUnits(integer(buffer, tokenStarts[offset], tokenEnds[offset++]));
+            reason = RejectReason.PRICE;
+            instruction.setPricePerUnit(decimal(buffer, tokenStarts[offset], tokenEnds[offset++]));
+        } catch (Exception e) {
+            throw new InstructionParsingException("Error parsing line {" + string(buffer, start, end) + "} for field " + offset, e, reason);
+        }
+        return instruction;
+    }
+
+    /**
+     * Parse the line between start (inclusive) and end (exclusive) in the buffer, without throwing exceptions.
+     * A line is rejected when com.woobadeau.jpmorgan.transaction.BufferInstructionParser#parse(java.nio.ByteBuffer, int, int) would throw,
+     * and the instruction is the same otherwise.
+     * @param buffer the buffer holding the line
+     * @param start index of the first byte of the line
+     * @param end index after the last byte of the line, excluding line terminators
+     * @return The com.woobadeau.jpmorgan.transaction.Instruction object represented by the line, null if it is rejected,
+     * its reason being then given by com.woobadeau.jpmorgan.transaction.BufferInstructionParser#rejectReason()
+     */
+    public Instruction tryParse(ByteBuffer buffer, int start, int end) {
+        long parse = StageMetrics.start();
+        Instruction instruction = decode(buffer, start, end);
+        StageMetrics.stop(Stage.PARSE, parse);
+        return instruction;
+    }
+
+    private Instruction decode(ByteBuffer buffer, int start, int end) {
+        if (tokenize(buffer, start, end) != expectedTokens) {
+            return reject(RejectReason.FIELD_COUNT);
+        }
+        int offset = 0;
+        String entity = symbol(buffer, tokenStarts[offset], tokenEnds[offset++]);
+        TransactionDirection direction = checkedDirection(buffer, tokenStarts[offset], tokenEnds[offset++]);
+        if (direction == null) {
+            return reject(RejectReason.DIRECTION);
+        }
+        BigDecimal forex = checkedDecimal(buffer, tokenStarts[offset], tokenEnds[offset++]);
+        if (forex == null) {
+            return reject(RejectReason.FOREX);
+        }
+        String currency = symbol(buffer, tokenStarts[offset], tokenEnds[offset++]);
+        long instructionDay = checkedDate(buffer, offset);
+        if (instructionDay == DateDecoder.NOT_DECODED) {
+            return reject(RejectReason.INSTRUCTION_DATE);
+        }
+        offset += dateLength;
+        long settlementDay = checkedDate(buffer, offset);
+        if (settlementDay == DateDecoder.NOT_DECODED) {
+            return reject(RejectReason.SETTLEMENT_DATE);
+        }
+        offset += dateLength;
+        long units = checkedInteger(buffer, tokenStarts[offset], tokenEnds[offset++]);
+        if (units == NumberGrammar.NOT_DECODED) {
+            return reject(RejectReason.UNITS);
+        }
+        BigDecimal price = checkedDecimal(buffer, tokenStarts[offset], tokenEnds[offset++]);
+        if (price == null) {
+            return reject(RejectReason.PRICE);
+        }
+        Instruction instruction = new Instruction();
+        instruction.setEntity(entity);
+        instruction.setTransactionDirection(direction);
+        instruction.setForex(forex);
+        instruction.setCurrency(currency);
+        instruction.setInstructionEpochDay(instructionDay);
+        instruction.setSettlementEpochDay(settlementDay);
+        instruction.setUnits((int) units);
+        instruction.setPricePerUnit(price);
+        return instruction;
+    }
+
+    private Instruction reject(RejectReason reason) {
+        rejectReason = reason;
+        return null;
+    }
+
+    /**
+     * @return the reason the last line given to com.woobadeau.jpmorgan.transaction.BufferInstructionParser#tryParse(java.nio.ByteBuffer, int, int) was rejected
+     */
+    public RejectReason rejectReason() {
+        return rejectReason;
+    }
+
+    /**
+     * Find the tokens of a line, following the semantics of String#split: trailing empty tokens are dropped.
+     * @return the number of tokens found
+     */
+    private int tokenize(ByteBuffer buffer, int start, int end) {
+        byte first = separatorBytes[0];
+        int separatorLength = separatorBytes.length;
+        int count = 0;
+        int tokenStart = start;
+        int i = start;
+        while (i <= end - separatorLength) {
+            if (buffer.get(i) == first && matchesSeparator(buffer, i)) {
+                addToken(count++, tokenStart, i);
+                i += separatorLength;
+                tokenStart = i;
+            } else {
+                i++;
+            }
+        }
+        addToken(count++, tokenStart, end);
+        while (count > 1 && tokenStarts[count - 1] == tokenEnds[count - 1]) {
+            count--;
+        }
+        return count;
+    }
+
+    private boolean matchesSeparator(ByteBuffer buffer, int index) {
+        for (int i = 1; i < separatorBytes.length; i++) {
+            if (buffer.get(index + i) != separatorBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToken(int index, int start, int end) {
+        if (index == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, index * 2);
+            tokenEnds = Arrays.copyOf(tokenEnds, index * 2);
+        }
+        tokenStarts[index] = start;
+        tokenEnds[index] = end;
+    }
+
+    private TransactionDirection direction(ByteBuffer buffer, int start, int end) {
+        if (end - start == 1) {
+            byte flag = buffer.get(start);
+            if (flag == 'B') {
+                return TransactionDirection.B;
+            }
+            if (flag == 'S') {
+                return TransactionDirection.S;
+            }
+        }
+        return TransactionDirection.valueOf(string(buffer, start, end));
+    }
+
+    /**
+     * @return the direction, null if java.lang.Enum#valueOf(java.lang.Class, java.lang.String) would reject it
+     */
+    private static TransactionDirection checkedDirection(ByteBuffer buffer, int start, int end) {
+        if (end - start == 1) {
+            byte flag = buffer.get(start);
+            if (flag == 'B') {
+                return TransactionDirection.B;
+            }
+            if (flag == 'S') {
+                return TransactionDirection.S;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode a decimal in place when it fits in a long, otherwise fall back on java.math.BigDecimal#BigDecimal(java.lang.String).
+     */
+    private BigDecimal decimal(ByteBuffer buffer, int start, int end) {
+        BigDecimal decimal = fastDecimal(buffer, start, end);
+        return decimal != null ? decimal : new BigDecimal(string(buffer, start, end));
+    }
+
+    /**
+     * @return the decimal, null if java.math.BigDecimal#BigDecimal(java.lang.String) would reject it
+     */
+    private BigDecimal checkedDecimal(ByteBuffer buffer, int start, int end) {
+        BigDecimal decimal = fastDecimal(buffer, start, end);
+        if (decimal != null) {
+            return decimal;
+        }
+        CharSequence field = field(buffer, start, end);
+        return NumberGrammar.isDecimal(field) ? new BigDecimal(field.toString()) : null;
+    }
+
+    /**
+     * @return the field as characters checked by com.woobadeau.jpmorgan.transaction.NumberGrammar, decoded only if it is not ASCII,
+     * digits of other scripts being accepted by the reference parsers
+     */
+    private CharSequence field(ByteBuffer buffer, int start, int end) {
+        return NumberGrammar.isAscii(buffer, start, end) ? new NumberGrammar.AsciiField(buffer, start, end) : string(buffer, start, end);
+    }
+
+    /**
+     * @return the decimal if it fits in a long, null otherwise
+     */
+    private static BigDecimal fastDecimal(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_LONG_DIGITS) {
+                    return null;
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return null;
+            }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale < 0 ? 0 : scale);
+    }
+
+    /**
+     * Decode an int in place, otherwise fall back on java.lang.Integer#parseInt(java.lang.String).
+     */
+    private int integer(ByteBuffer buffer, int start, int end) {
+        long value = fastInteger(buffer, start, end);
+        return value != NumberGrammar.NOT_DECODED ? (int) value : Integer.parseInt(string(buffer, start, end));
+    }
+
+    /**
+     * @return the int, com.woobadeau.jpmorgan.transaction.NumberGrammar#NOT_DECODED if java.lang.Integer#parseInt(java.lang.String) would reject it
+     */
+    private long checkedInteger(ByteBuffer buffer, int start, int end) {
+        long value = fastInteger(buffer, start, end);
+        return value != NumberGrammar.NOT_DECODED ? value : NumberGrammar.checkedInteger(field(buffer, start, end));
+    }
+
+    /**
+     * @return the int if it has at most 9 ASCII digits, com.woobadeau.jpmorgan.transaction.NumberGrammar#NOT_DECODED otherwise
+     */
+    private static long fastInteger(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > MAX_INT_DIGITS) {
+            return NumberGrammar.NOT_DECODED;
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c < '0' || c > '9') {
+                return NumberGrammar.NOT_DECODED;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the date made of dateLength tokens starting at the given token.
+     * The text between the first and last token is the same as the tokens joined with the separator.
+     * @return the epoch day of the date
+     */
+    private long date(ByteBuffer buffer, int token) throws ParseException {
+        long epochDay = checkedDate(buffer, token);
+        if (epochDay == DateDecoder.NOT_DECODED) {
+            throw new ParseException("Unparseable date: \"" + string(buffer, tokenStarts[token], tokenEnds[token + dateLength - 1]) + "\"", 0);
+        }
+        return epochDay;
+    }
+
+    /**
+     * @return the epoch day of the date, com.woobadeau.jpmorgan.transaction.DateDecoder#NOT_DECODED if java.text.DateFormat#parse(java.lang.String) would reject it
+     */
+    private long checkedDate(ByteBuffer buffer, int token) {
+        return dateDecoder.decode(buffer, tokenStarts[token], tokenEnds[token + dateLength - 1]);
+    }
+
+    private String symbol(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        int hash = length;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SYMBOL_CACHE_SIZE - 1);
+        byte[] cached = symbolBytes[slot];
+        if (cached != null && cached.length == length && matches(buffer, start, cached)) {
+            return symbolStrings[slot];
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        String symbol = new String(bytes, charset);
+        symbolBytes[slot] = bytes;
+        symbolStrings[slot] = symbol;
+        return symbol;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, charset);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(start + i);
+        }
+        return new String(scratch, 0, length, charset);
+    }
+}
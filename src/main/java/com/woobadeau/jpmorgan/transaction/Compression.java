@@ -0,0 +1,96 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression of a text settlement file, detected from its first bytes.<br/>
+ * Gzip is decompressed by the JDK. Zstandard needs com.github.luben:zstd-jni on the class path,
+ * its classes are only loaded when a Zstandard file is opened.
+ */
+public enum Compression {
+    NONE(new byte[0]),
+    GZIP(new byte[]{0x1f, (byte) 0x8b}),
+    ZSTD(new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd});
+
+    private static final int MAGIC_LENGTH = 4;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final byte[] magic;
+
+    Compression(byte[] magic) {
+        this.magic = magic;
+    }
+
+    /**
+     * @param file a settlement file
+     * @return the compression of the file, com.woobadeau.jpmorgan.transaction.Compression#NONE if it does not start with known magic bytes
+     */
+    public static Compression detect(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(MAGIC_LENGTH);
+            while (start.hasRemaining() && channel.read(start) >= 0) {
+                //Read until the magic bytes are complete or the file ends
+            }
+            start.flip();
+            for (Compression compression : values()) {
+                if (compression != NONE && compression.matches(start)) {
+                    return compression;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private boolean matches(ByteBuffer start) {
+        if (start.remaining() < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (start.get(i) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param file a settlement file compressed with this compression
+     * @return the decompressed content of the file, to be read in large blocks as it is not buffered after decompression
+     */
+    public InputStream open(File file) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+            case ZSTD:
+                FileInputStream input = new FileInputStream(file);
+                try {
+                    return Zstd.open(input);
+                } catch (IOException e) {
+                    input.close();
+                    throw e;
+                } catch (LinkageError e) {
+                    input.close();
+                    throw new IOException("Reading the Zstandard file " + file + " needs com.github.luben:zstd-jni on the class path", e);
+                }
+            default:
+                return Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        }
+    }
+
+    /**
+     * Keeps the optional zstd-jni classes from being loaded with the enum
+     */
+    private static class Zstd {
+        static InputStream open(InputStream input) throws IOException {
+            return new com.github.luben.zstd.ZstdInputStream(input);
+        }
+    }
+}
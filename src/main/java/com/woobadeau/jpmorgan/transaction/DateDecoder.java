@@ -0,0 +1,249 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+
+/**
+ * Decoder of the dates of settlement files into epoch days (see com.woobadeau.jpmorgan.transaction.EpochDays), compiled once for a date format.<br/>
+ * The formats dd MMM yyyy (with any punctuation between the fields) and yyyyMMdd are decoded byte by byte when dates are written in full.
+ * Other formats, and dates the fast paths do not recognise, are parsed with java.text.SimpleDateFormat,
+ * so the epoch day is always the one of the date java.text.DateFormat#parse(java.lang.String) returns, leniency included.<br/>
+ * Settlement files hold a handful of distinct dates repeated on millions of lines:
+ * a direct mapped cache maps the text of recently decoded dates to their epoch day, so that most dates are only compared.<br/>
+ * A decoder keeps its cache between dates and is not thread safe: use one decoder per thread.
+ */
+class DateDecoder {
+    /**
+     * Marks a date that cannot be parsed with the date format
+     */
+    static final long NOT_DECODED = Long.MIN_VALUE;
+    private static final int CACHE_SIZE = 64;
+    private static final int MONTHS = 12;
+    /**
+     * java.text.SimpleDateFormat uses the Julian calendar before the Gregorian cutover, earlier years are left to it
+     */
+    private static final int FIRST_FAST_YEAR = 1600;
+
+    private enum Layout {
+        DAY_MONTH_YEAR, YEAR_MONTH_DAY, GENERAL
+    }
+
+    private final String dateFormat;
+    private final Charset charset;
+    private final SimpleDateFormat dateParser;
+    private final ParsePosition position = new ParsePosition(0);
+    private final Layout layout;
+    /**
+     * Character between the fields of dd MMM yyyy
+     */
+    private final byte fieldSeparator;
+    /**
+     * Short month names of the default locale, for dd MMM yyyy
+     */
+    private final byte[][] monthNames = new byte[MONTHS][];
+
+    private final byte[][] cachedBytes = new byte[CACHE_SIZE][];
+    private final long[] cachedByteDays = new long[CACHE_SIZE];
+    private final String[] cachedStrings = new String[CACHE_SIZE];
+    private final long[] cachedStringDays = new long[CACHE_SIZE];
+
+    /**
+     * @param dateFormat the date format, see java.text.SimpleDateFormat
+     * @param charset the charset of the bytes given to com.woobadeau.jpmorgan.transaction.DateDecoder#decode(java.nio.ByteBuffer, int, int)
+     */
+    DateDecoder(String dateFormat, Charset charset) {
+        this.dateFormat = dateFormat;
+        this.charset = charset;
+        this.dateParser = new SimpleDateFormat(dateFormat);
+        if (dateFormat.equals("yyyyMMdd")) {
+            this.layout = Layout.YEAR_MONTH_DAY;
+            this.fieldSeparator = 0;
+        } else if (isDayMonthYear(dateFormat) && loadMonthNames()) {
+            this.layout = Layout.DAY_MONTH_YEAR;
+            this.fieldSeparator = (byte) dateFormat.charAt(2);
+        } else {
+            this.layout = Layout.GENERAL;
+            this.fieldSeparator = 0;
+        }
+    }
+
+    private static boolean isDayMonthYear(String dateFormat) {
+        if (dateFormat.length() != 11 || !dateFormat.startsWith("dd") || !dateFormat.startsWith("MMM", 3) || !dateFormat.endsWith("yyyy")) {
+            return false;
+        }
+        char separator = dateFormat.charAt(2);
+        return separator == dateFormat.charAt(6) && separator < 0x80 && !Character.isLetterOrDigit(separator) && separator != '\'';
+    }
+
+    /**
+     * @return false if a short month name is not made of three ASCII letters, the fast path is not used then
+     */
+    private boolean loadMonthNames() {
+        String[] shortMonths = dateParser.getDateFormatSymbols().getShortMonths();
+        for (int month = 0; month < MONTHS; month++) {
+            String name = shortMonths[month];
+            if (name.length() != 3) {
+                return false;
+            }
+            monthNames[month] = new byte[3];
+            for (int i = 0; i < 3; i++) {
+                char c = name.charAt(i);
+                if (c >= 0x80 || !Character.isLetter(c)) {
+                    return false;
+                }
+                monthNames[month][i] = (byte) c;
+            }
+        }
+        return true;
+    }
+
+    String getDateFormat() {
+        return dateFormat;
+    }
+
+    /**
+     * Decode the date between start (inclusive) and end (exclusive) in the buffer
+     * @return the epoch day of the date, com.woobadeau.jpmorgan.transaction.DateDecoder#NOT_DECODED if it cannot be parsed
+     */
+    long decode(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        int hash = length;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int slot = slot(hash);
+        byte[] cached = cachedBytes[slot];
+        if (cached != null && cached.length == length && matches(buffer, start, cached)) {
+            return cachedByteDays[slot];
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        long epochDay = fastDecode(bytes);
+        if (epochDay == NOT_DECODED) {
+            epochDay = parse(new String(bytes, charset));
+        }
+        if (epochDay != NOT_DECODED) {
+            cachedBytes[slot] = bytes;
+            cachedByteDays[slot] = epochDay;
+        }
+        return epochDay;
+    }
+
+    /**
+     * @return the epoch day of the date, com.woobadeau.jpmorgan.transaction.DateDecoder#NOT_DECODED if it cannot be parsed
+     */
+    long decode(String date) {
+        int slot = slot(date.hashCode());
+        if (date.equals(cachedStrings[slot])) {
+            return cachedStringDays[slot];
+        }
+        byte[] ascii = ascii(date);
+        long epochDay = ascii == null ? NOT_DECODED : fastDecode(ascii);
+        if (epochDay == NOT_DECODED) {
+            epochDay = parse(date);
+        }
+        if (epochDay != NOT_DECODED) {
+            cachedStrings[slot] = date;
+            cachedStringDays[slot] = epochDay;
+        }
+        return epochDay;
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the chars of the date as bytes, null if it is not ASCII
+     */
+    private static byte[] ascii(String date) {
+        byte[] bytes = new byte[date.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = date.charAt(i);
+            if (c >= 0x80) {
+                return null;
+            }
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    /**
+     * Decode dates written in full in the layout of the date format.
+     * Days out of the month roll over to the next months, as they do with a lenient java.text.SimpleDateFormat.
+     * @return the epoch day, com.woobadeau.jpmorgan.transaction.DateDecoder#NOT_DECODED if the date is not recognised
+     */
+    private long fastDecode(byte[] date) {
+        switch (layout) {
+            case DAY_MONTH_YEAR:
+                if (date.length != 11 || date[2] != fieldSeparator || date[6] != fieldSeparator) {
+                    return NOT_DECODED;
+                }
+                return epochDay(digits(date, 7, 4), month(date, 3), digits(date, 0, 2));
+            case YEAR_MONTH_DAY:
+                if (date.length != 8) {
+                    return NOT_DECODED;
+                }
+                return epochDay(digits(date, 0, 4), digits(date, 4, 2), digits(date, 6, 2));
+            default:
+                return NOT_DECODED;
+        }
+    }
+
+    /**
+     * @return the value of the ASCII digits, -1 if one of them is not a digit
+     */
+    private static int digits(byte[] date, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte c = date[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return the month (1 to 12) of the short name, -1 if it is not the exact short name of a month
+     */
+    private int month(byte[] date, int start) {
+        for (int month = 0; month < MONTHS; month++) {
+            byte[] name = monthNames[month];
+            if (date[start] == name[0] && date[start + 1] == name[1] && date[start + 2] == name[2]) {
+                return month + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static long epochDay(int year, int month, int day) {
+        if (year < FIRST_FAST_YEAR || month < 1 || month > MONTHS || day < 0) {
+            return NOT_DECODED;
+        }
+        return LocalDate.of(year, month, 1).toEpochDay() + day - 1;
+    }
+
+    private long parse(String date) {
+        position.setIndex(0);
+        position.setErrorIndex(-1);
+        Date parsed = dateParser.parse(date, position);
+        return position.getIndex() == 0 ? NOT_DECODED : EpochDays.of(parsed);
+    }
+}
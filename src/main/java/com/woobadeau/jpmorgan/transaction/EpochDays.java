@@ -0,0 +1,46 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversions between java.util.Date and epoch days (number of days since 1970-01-01) in the default time zone.<br/>
+ * Dates parsed from settlement files are midnights in the default time zone, as loaded when this class is initialised.
+ */
+public final class EpochDays {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+    private static final ZoneId ZONE_ID = TIME_ZONE.toZoneId();
+
+    private EpochDays() {
+    }
+
+    /**
+     * @param date a date
+     * @return the epoch day of the date in the default time zone, the time of the day is ignored
+     */
+    public static long of(Date date) {
+        long time = date.getTime();
+        return Math.floorDiv(time + TIME_ZONE.getOffset(time), MILLIS_PER_DAY);
+    }
+
+    /**
+     * @param epochDay an epoch day
+     * @return the date at the start of the epoch day in the default time zone
+     */
+    public static Date toDate(long epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZONE_ID).toInstant());
+    }
+
+    /**
+     * @param epochDay an epoch day
+     * @return the day of week, with the values of java.util.Calendar#DAY_OF_WEEK: 1 for Sunday to 7 for Saturday
+     */
+    public static int dayOfWeek(long epochDay) {
+        //1970-01-01 was a Thursday
+        return (int) Math.floorMod(epochDay + Calendar.THURSDAY - 1, 7L) + 1;
+    }
+}
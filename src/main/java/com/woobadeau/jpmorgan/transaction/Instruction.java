@@ -3,13 +3,25 @@ package com.woobadeau.jpmorgan.transaction;
 import java.math.BigDecimal;
 import java.util.Date;
 
+/**
+ * Instruction of a settlement file.<br/>
+ * Dates are held as epoch days in the default time zone (see com.woobadeau.jpmorgan.transaction.EpochDays),
+ * the java.util.Date objects are only created when they are asked for.
+ */
 public class Instruction {
+    /**
+     * Epoch day of a date that is not set
+     */
+    private static final long NO_DAY = Long.MIN_VALUE;
+
     private String entity;
     private TransactionDirection transactionDirection;
     private BigDecimal forex;
     private String currency;
     private Date instructionDate;
+    private long instructionEpochDay = NO_DAY;
     private Date settlementDate;
+    private long settlementEpochDay = NO_DAY;
     private int units;
     private BigDecimal pricePerUnit;
 
@@ -46,19 +58,48 @@ public class Instruction {
     }
 
     public Date getInstructionDate() {
+        if (instructionDate == null && instructionEpochDay != NO_DAY) {
+            instructionDate = EpochDays.toDate(instructionEpochDay);
+        }
         return instructionDate;
     }
 
     public void setInstructionDate(Date instructionDate) {
         this.instructionDate = instructionDate;
+        this.instructionEpochDay = instructionDate == null ? NO_DAY : EpochDays.of(instructionDate);
+    }
+
+    public long getInstructionEpochDay() {
+        return instructionEpochDay;
+    }
+
+    public void setInstructionEpochDay(long instructionEpochDay) {
+        this.instructionEpochDay = instructionEpochDay;
+        this.instructionDate = null;
     }
 
     public Date getSettlementDate() {
+        if (settlementDate == null && settlementEpochDay != NO_DAY) {
+            settlementDate = EpochDays.toDate(settlementEpochDay);
+        }
         return settlementDate;
     }
 
     public void setSettlementDate(Date settlementDate) {
         this.settlementDate = settlementDate;
+        this.settlementEpochDay = settlementDate == null ? NO_DAY : EpochDays.of(settlementDate);
+    }
+
+    /**
+     * @return the epoch day of the settlement date requested, in the default time zone
+     */
+    public long getSettlementEpochDay() {
+        return settlementEpochDay;
+    }
+
+    public void setSettlementEpochDay(long settlementEpochDay) {
+        this.settlementEpochDay = settlementEpochDay;
+        this.settlementDate = null;
     }
 
     public int getUnits() {
@@ -0,0 +1,189 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+/**
+ * One row group of a columnar settlement file, see com.woobadeau.jpmorgan.transaction.InstructionColumnsWriter for the format.<br/>
+ * Values are read in place from the buffer of the group, rows being numbered from 0 within the group.
+ * Entities and currencies are ids in the dictionaries of the file, shared by all its groups.
+ */
+public class InstructionColumns {
+    /**
+     * Scale marking amounts whose unscaled value does not fit in a long,
+     * the unscaled column then holds the index of the amount in the decimals of the file.
+     */
+    public static final int DECIMAL_SCALE = Byte.MIN_VALUE;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final String[] entities;
+    private final String[] currencies;
+    private final BigDecimal[] decimals;
+
+    private final int entityOffset;
+    private final int currencyOffset;
+    private final int instructionDayOffset;
+    private final int settlementDayOffset;
+    private final int unitsOffset;
+    private final int incomingOffset;
+    private final int forexOffset;
+    private final int priceOffset;
+    private final int forexScaleOffset;
+    private final int priceScaleOffset;
+
+    InstructionColumns(ByteBuffer buffer, String[] entities, String[] currencies, BigDecimal[] decimals) {
+        this.buffer = buffer;
+        this.size = buffer.getInt(0);
+        this.entities = entities;
+        this.currencies = currencies;
+        this.decimals = decimals;
+        this.entityOffset = Integer.BYTES;
+        this.currencyOffset = entityOffset + size * Integer.BYTES;
+        this.instructionDayOffset = currencyOffset + size * Integer.BYTES;
+        this.settlementDayOffset = instructionDayOffset + size * Integer.BYTES;
+        this.unitsOffset = settlementDayOffset + size * Integer.BYTES;
+        this.incomingOffset = unitsOffset + size * Integer.BYTES;
+        this.forexOffset = incomingOffset + bitmapWords(size) * Long.BYTES;
+        this.priceOffset = forexOffset + size * Long.BYTES;
+        this.forexScaleOffset = priceOffset + size * Long.BYTES;
+        this.priceScaleOffset = forexScaleOffset + size;
+    }
+
+    /**
+     * @return the number of bytes of a group of the given number of rows
+     */
+    static long groupBytes(int rows) {
+        return Integer.BYTES + rows * (5L * Integer.BYTES + 2L * Long.BYTES + 2) + bitmapWords(rows) * (long) Long.BYTES;
+    }
+
+    static int bitmapWords(int rows) {
+        return (rows + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * @return the number of rows of the group
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of entities in the dictionary of the file
+     */
+    public int entityCount() {
+        return entities.length;
+    }
+
+    /**
+     * @return the number of currencies in the dictionary of the file
+     */
+    public int currencyCount() {
+        return currencies.length;
+    }
+
+    /**
+     * @param entityId an entity id of the file
+     * @return the entity name, as spelled in the instructions
+     */
+    public String entity(int entityId) {
+        return entities[entityId];
+    }
+
+    /**
+     * @param currencyId a currency id of the file
+     * @return the currency code
+     */
+    public String currency(int currencyId) {
+        return currencies[currencyId];
+    }
+
+    public int entityId(int row) {
+        return buffer.getInt(entityOffset + row * Integer.BYTES);
+    }
+
+    public int currencyId(int row) {
+        return buffer.getInt(currencyOffset + row * Integer.BYTES);
+    }
+
+    /**
+     * @return the instruction date, as an epoch day, see com.woobadeau.jpmorgan.transaction.EpochDays
+     */
+    public long instructionEpochDay(int row) {
+        return buffer.getInt(instructionDayOffset + row * Integer.BYTES);
+    }
+
+    /**
+     * @return the requested settlement date, as an epoch day, see com.woobadeau.jpmorgan.transaction.EpochDays
+     */
+    public long settlementEpochDay(int row) {
+        return buffer.getInt(settlementDayOffset + row * Integer.BYTES);
+    }
+
+    public int units(int row) {
+        return buffer.getInt(unitsOffset + row * Integer.BYTES);
+    }
+
+    /**
+     * @return true for incoming (S) instructions, false for outgoing (B) ones
+     */
+    public boolean incoming(int row) {
+        return (buffer.getLong(incomingOffset + (row >>> 6) * Long.BYTES) & (1L << row)) != 0;
+    }
+
+    /**
+     * @return the unscaled value of the forex, meaningless if its scale is com.woobadeau.jpmorgan.transaction.InstructionColumns#DECIMAL_SCALE
+     */
+    public long forexUnscaled(int row) {
+        return buffer.getLong(forexOffset + row * Long.BYTES);
+    }
+
+    /**
+     * @return the scale of the forex, com.woobadeau.jpmorgan.transaction.InstructionColumns#DECIMAL_SCALE if it is only available as com.woobadeau.jpmorgan.transaction.InstructionColumns#forex(int)
+     */
+    public int forexScale(int row) {
+        return buffer.get(forexScaleOffset + row);
+    }
+
+    public BigDecimal forex(int row) {
+        return decimal(forexUnscaled(row), forexScale(row));
+    }
+
+    /**
+     * @return the unscaled value of the price per unit, meaningless if its scale is com.woobadeau.jpmorgan.transaction.InstructionColumns#DECIMAL_SCALE
+     */
+    public long priceUnscaled(int row) {
+        return buffer.getLong(priceOffset + row * Long.BYTES);
+    }
+
+    /**
+     * @return the scale of the price per unit, com.woobadeau.jpmorgan.transaction.InstructionColumns#DECIMAL_SCALE if it is only available as com.woobadeau.jpmorgan.transaction.InstructionColumns#price(int)
+     */
+    public int priceScale(int row) {
+        return buffer.get(priceScaleOffset + row);
+    }
+
+    public BigDecimal price(int row) {
+        return decimal(priceUnscaled(row), priceScale(row));
+    }
+
+    /**
+     * @return the instruction of the row, as it was written
+     */
+    public Instruction instruction(int row) {
+        Instruction instruction = new Instruction();
+        instruction.setEntity(entity(entityId(row)));
+        instruction.setTransactionDirection(incoming(row) ? TransactionDirection.S : TransactionDirection.B);
+        instruction.setForex(forex(row));
+        instruction.setCurrency(currency(currencyId(row)));
+        instruction.setInstructionEpochDay(instructionEpochDay(row));
+        instruction.setSettlementEpochDay(settlementEpochDay(row));
+        instruction.setUnits(units(row));
+        instruction.setPricePerUnit(price(row));
+        return instruction;
+    }
+
+    private BigDecimal decimal(long unscaled, int scale) {
+        return scale == DECIMAL_SCALE ? decimals[(int) unscaled] : BigDecimal.valueOf(unscaled, scale);
+    }
+}
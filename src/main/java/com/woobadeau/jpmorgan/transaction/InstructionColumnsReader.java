@@ -0,0 +1,162 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a columnar settlement file written by com.woobadeau.jpmorgan.transaction.InstructionColumnsWriter.<br/>
+ * Only the footer is read when the file is opened, each row group is memory mapped when it is asked for.
+ */
+public class InstructionColumnsReader implements Closeable {
+    private static final int TRAILER_BYTES = Long.BYTES + InstructionColumnsWriter.MAGIC.length;
+
+    private final FileChannel channel;
+    private final String[] entities;
+    private final String[] currencies;
+    private final BigDecimal[] decimals;
+    private final long[] groupOffsets;
+    private final long footerOffset;
+    private final long rows;
+
+    private InstructionColumnsReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long fileSize = channel.size();
+        if (fileSize < InstructionColumnsWriter.MAGIC.length + TRAILER_BYTES) {
+            throw new IOException("Not a columnar settlement file: too short");
+        }
+        ByteBuffer trailer = read(fileSize - TRAILER_BYTES, TRAILER_BYTES);
+        footerOffset = trailer.getLong();
+        if (!hasMagic(trailer) || footerOffset < InstructionColumnsWriter.MAGIC.length || footerOffset > fileSize - TRAILER_BYTES) {
+            throw new IOException("Not a columnar settlement file, or an incomplete one");
+        }
+        ByteBuffer footer = read(footerOffset, (int) (fileSize - TRAILER_BYTES - footerOffset));
+        entities = readStrings(footer);
+        currencies = readStrings(footer);
+        decimals = new BigDecimal[footer.getInt()];
+        for (int i = 0; i < decimals.length; i++) {
+            decimals[i] = new BigDecimal(readString(footer));
+        }
+        groupOffsets = new long[footer.getInt()];
+        for (int i = 0; i < groupOffsets.length; i++) {
+            groupOffsets[i] = footer.getLong();
+        }
+        rows = footer.getLong();
+    }
+
+    /**
+     * @param file the columnar settlement file
+     * @return a reader of the file, to be closed
+     */
+    public static InstructionColumnsReader open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new InstructionColumnsReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param file a settlement file
+     * @return true if the file starts with the magic bytes of a columnar settlement file, false for a text one
+     */
+    public static boolean isColumnar(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(InstructionColumnsWriter.MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                //Read until the magic bytes are complete or the file ends
+            }
+            magic.flip();
+            return hasMagic(magic);
+        }
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer) {
+        if (buffer.remaining() < InstructionColumnsWriter.MAGIC.length) {
+            return false;
+        }
+        byte[] magic = new byte[InstructionColumnsWriter.MAGIC.length];
+        buffer.get(magic);
+        return Arrays.equals(magic, InstructionColumnsWriter.MAGIC);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of columnar settlement file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String[] readStrings(ByteBuffer footer) {
+        String[] strings = new String[footer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(footer);
+        }
+        return strings;
+    }
+
+    private static String readString(ByteBuffer footer) {
+        byte[] bytes = new byte[footer.getInt()];
+        footer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of instructions in the file
+     */
+    public long rowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the number of row groups in the file
+     */
+    public int groupCount() {
+        return groupOffsets.length;
+    }
+
+    /**
+     * @return the number of entities in the dictionary of the file, entity ids range from 0 to this number excluded
+     */
+    public int entityCount() {
+        return entities.length;
+    }
+
+    /**
+     * @return the number of currencies in the dictionary of the file, currency ids range from 0 to this number excluded
+     */
+    public int currencyCount() {
+        return currencies.length;
+    }
+
+    /**
+     * Map a row group of the file.
+     * @param index the index of the group, from 0 to com.woobadeau.jpmorgan.transaction.InstructionColumnsReader#groupCount() excluded
+     * @return the columns of the group
+     */
+    public InstructionColumns group(int index) throws IOException {
+        long start = groupOffsets[index];
+        long end = index + 1 < groupOffsets.length ? groupOffsets[index + 1] : footerOffset;
+        StageMetrics.bytesRead(end - start);
+        return new InstructionColumns(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), entities, currencies, decimals);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
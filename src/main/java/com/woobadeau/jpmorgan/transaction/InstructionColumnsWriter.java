@@ -0,0 +1,230 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes instructions to a columnar settlement file, read back with com.woobadeau.jpmorgan.transaction.InstructionColumnsReader.<br/>
+ * Rows are written in groups, each group holding one column after the other:
+ * entity ids, currency ids, instruction and requested settlement epoch days, units (ints),
+ * a bitmap of incoming instructions (longs), unscaled forex and price values (longs), then forex and price scales (bytes).
+ * Entities and currencies are encoded with dictionaries written after the last group, together with the amounts that do not
+ * fit in a long and the offsets of the groups. The file ends with the offset of this footer and the magic bytes it starts with.
+ * All values are big endian.
+ */
+public class InstructionColumnsWriter implements Closeable {
+    static final byte[] MAGIC = {'S', 'E', 'T', 'L', 'C', 'O', 'L', '1'};
+    static final int DEFAULT_ROWS_PER_GROUP = 1 << 20;
+    /**
+     * Highest number of rows keeping a group under 2GB, so that it can be mapped in one buffer
+     */
+    static final int MAX_ROWS_PER_GROUP = 50000000;
+
+    private final FileChannel channel;
+    private final int rowsPerGroup;
+
+    private final Map<String, Integer> entityIds = new HashMap<>();
+    private final List<String> entities = new ArrayList<>();
+    private final Map<String, Integer> currencyIds = new HashMap<>();
+    private final List<String> currencies = new ArrayList<>();
+    private final List<BigDecimal> decimals = new ArrayList<>();
+    private final List<Long> groupOffsets = new ArrayList<>();
+    private long rows;
+
+    /**
+     * Columns of the current group
+     */
+    private final int[] entityColumn;
+    private final int[] currencyColumn;
+    private final int[] instructionDayColumn;
+    private final int[] settlementDayColumn;
+    private final int[] unitsColumn;
+    private final long[] incomingBitmap;
+    private final long[] forexColumn;
+    private final long[] priceColumn;
+    private final byte[] forexScaleColumn;
+    private final byte[] priceScaleColumn;
+    private int size;
+
+    public InstructionColumnsWriter(File file) throws IOException {
+        this(file, DEFAULT_ROWS_PER_GROUP);
+    }
+
+    /**
+     * @param file the file to be written, replaced if it exists
+     * @param rowsPerGroup the number of rows of each group but the last one
+     */
+    InstructionColumnsWriter(File file, int rowsPerGroup) throws IOException {
+        if (rowsPerGroup < 1 || rowsPerGroup > MAX_ROWS_PER_GROUP) {
+            throw new IllegalArgumentException("Rows per group must be between 1 and " + MAX_ROWS_PER_GROUP + ", got " + rowsPerGroup);
+        }
+        this.rowsPerGroup = rowsPerGroup;
+        this.entityColumn = new int[rowsPerGroup];
+        this.currencyColumn = new int[rowsPerGroup];
+        this.instructionDayColumn = new int[rowsPerGroup];
+        this.settlementDayColumn = new int[rowsPerGroup];
+        this.unitsColumn = new int[rowsPerGroup];
+        this.incomingBitmap = new long[InstructionColumns.bitmapWords(rowsPerGroup)];
+        this.forexColumn = new long[rowsPerGroup];
+        this.priceColumn = new long[rowsPerGroup];
+        this.forexScaleColumn = new byte[rowsPerGroup];
+        this.priceScaleColumn = new byte[rowsPerGroup];
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        writeFully(ByteBuffer.wrap(MAGIC));
+    }
+
+    /**
+     * Append an instruction to the file
+     * @param instruction a parsed instruction
+     */
+    public void write(Instruction instruction) throws IOException {
+        if (size == rowsPerGroup) {
+            writeGroup();
+        }
+        entityColumn[size] = id(entityIds, entities, instruction.getEntity());
+        currencyColumn[size] = id(currencyIds, currencies, instruction.getCurrency());
+        instructionDayColumn[size] = epochDay(instruction.getInstructionEpochDay());
+        settlementDayColumn[size] = epochDay(instruction.getSettlementEpochDay());
+        unitsColumn[size] = instruction.getUnits();
+        if (instruction.getTransactionDirection() == TransactionDirection.S) {
+            incomingBitmap[size >>> 6] |= 1L << size;
+        }
+        forexScaleColumn[size] = amount(instruction.getForex(), forexColumn);
+        priceScaleColumn[size] = amount(instruction.getPricePerUnit(), priceColumn);
+        size++;
+        rows++;
+    }
+
+    private static int id(Map<String, Integer> ids, List<String> names, String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    private static int epochDay(long epochDay) throws IOException {
+        if (epochDay < Integer.MIN_VALUE || epochDay > Integer.MAX_VALUE) {
+            throw new IOException("Date " + EpochDays.toDate(epochDay) + " cannot be written as an epoch day");
+        }
+        return (int) epochDay;
+    }
+
+    /**
+     * Store the unscaled value of the amount in the column of the current row
+     * @return the scale of the amount, com.woobadeau.jpmorgan.transaction.InstructionColumns#DECIMAL_SCALE if it is written with the decimals of the file
+     */
+    private byte amount(BigDecimal amount, long[] column) {
+        if (amount.unscaledValue().bitLength() < Long.SIZE && amount.scale() > InstructionColumns.DECIMAL_SCALE && amount.scale() <= Byte.MAX_VALUE) {
+            column[size] = amount.unscaledValue().longValue();
+            return (byte) amount.scale();
+        }
+        column[size] = decimals.size();
+        decimals.add(amount);
+        return (byte) InstructionColumns.DECIMAL_SCALE;
+    }
+
+    private void writeGroup() throws IOException {
+        groupOffsets.add(channel.position());
+        ByteBuffer buffer = ByteBuffer.allocate((int) InstructionColumns.groupBytes(size));
+        buffer.putInt(size);
+        putInts(buffer, entityColumn);
+        putInts(buffer, currencyColumn);
+        putInts(buffer, instructionDayColumn);
+        putInts(buffer, settlementDayColumn);
+        putInts(buffer, unitsColumn);
+        buffer.asLongBuffer().put(incomingBitmap, 0, InstructionColumns.bitmapWords(size));
+        buffer.position(buffer.position() + InstructionColumns.bitmapWords(size) * Long.BYTES);
+        putLongs(buffer, forexColumn);
+        putLongs(buffer, priceColumn);
+        buffer.put(forexScaleColumn, 0, size);
+        buffer.put(priceScaleColumn, 0, size);
+        buffer.flip();
+        writeFully(buffer);
+        Arrays.fill(incomingBitmap, 0);
+        size = 0;
+    }
+
+    private void putInts(ByteBuffer buffer, int[] column) {
+        buffer.asIntBuffer().put(column, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+    }
+
+    private void putLongs(ByteBuffer buffer, long[] column) {
+        buffer.asLongBuffer().put(column, 0, size);
+        buffer.position(buffer.position() + size * Long.BYTES);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the number of instructions written so far
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * Write the last group and the footer, then close the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (size > 0) {
+                writeGroup();
+            }
+            long footerOffset = channel.position();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream footer = new DataOutputStream(bytes);
+            writeStrings(footer, entities);
+            writeStrings(footer, currencies);
+            footer.writeInt(decimals.size());
+            for (BigDecimal decimal : decimals) {
+                writeString(footer, decimal.toString());
+            }
+            footer.writeInt(groupOffsets.size());
+            for (long groupOffset : groupOffsets) {
+                footer.writeLong(groupOffset);
+            }
+            footer.writeLong(rows);
+            footer.writeLong(footerOffset);
+            footer.write(MAGIC);
+            footer.flush();
+            writeFully(ByteBuffer.wrap(bytes.toByteArray()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void writeStrings(DataOutputStream footer, List<String> strings) throws IOException {
+        footer.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(footer, string);
+        }
+    }
+
+    private static void writeString(DataOutputStream footer, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        footer.writeInt(bytes.length);
+        footer.write(bytes);
+    }
+}
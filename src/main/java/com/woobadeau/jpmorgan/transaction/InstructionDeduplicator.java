@@ -0,0 +1,562 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.DeduplicationException;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of the instructions seen so far, to skip the instructions replayed by at least once feeds.<br/>
+ * Instructions are encoded from their normalised fields: amounts without trailing zeros and dates as epoch days,
+ * so the same instruction written with other number or date formats is still a duplicate.
+ * Entities are folded with String#toUpperCase, as the reports fold them, while currencies are compared as spelled.
+ * Encodings are indexed by their 64-bit fingerprint, whose highest bits select one of several segments.
+ * Each segment appends the encodings to its own arena and indexes them in its own open addressing table, under its own lock,
+ * so that threads adding instructions at the same time rarely wait for each other.
+ * Instructions with the same fingerprint are compared byte for byte, so distinct instructions are never taken for duplicates.<br/>
+ * The tables and the arenas are either on the heap or in direct buffers outside of it, tables being split in pages so that they are only bounded by memory.
+ * A com.woobadeau.jpmorgan.exception.DeduplicationException is thrown once they no longer fit in it. All methods are thread safe.<br/>
+ * A source whose instructions should only be kept if it is read to the end, such as one file of a batch, adds them to a
+ * com.woobadeau.jpmorgan.transaction.InstructionDeduplicator#pending() deduplicator committed once the source is read.
+ */
+public class InstructionDeduplicator {
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 1 << 8;
+    /**
+     * Highest number of slots of a segment, about 800 million instructions in each of them
+     */
+    private static final int MAX_CAPACITY = 1 << 30;
+    /**
+     * Number of slots of the pages of the tables, 16MB each
+     */
+    private static final int PAGE_BITS = 20;
+    private static final int FIRST_CHUNK_SIZE = 1 << 12;
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+    private static final byte LONG_AMOUNT = 0;
+    private static final byte DECIMAL_AMOUNT = 1;
+
+    private final boolean offHeap;
+    /**
+     * Bits of the fingerprints kept, all but in tests forcing collisions
+     */
+    private final long fingerprintMask;
+    private final int pageBits;
+    private final int maxCapacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    /**
+     * Encoding of the instruction being added by each thread
+     */
+    private final ThreadLocal<Encoding> encodings = ThreadLocal.withInitial(Encoding::new);
+    /**
+     * Deduplicator the instructions are added to when this one is committed, null if this one is not pending
+     */
+    private final InstructionDeduplicator committed;
+
+    public InstructionDeduplicator() {
+        this(false);
+    }
+
+    /**
+     * @param offHeap true to keep the tables and the encodings in direct buffers, outside of the heap
+     */
+    public InstructionDeduplicator(boolean offHeap) {
+        this(offHeap, -1L);
+    }
+
+    InstructionDeduplicator(boolean offHeap, long fingerprintMask) {
+        this(offHeap, fingerprintMask, PAGE_BITS, MAX_CAPACITY);
+    }
+
+    /**
+     * @param pageBits the number of slots of the pages of the tables, as a power of 2
+     * @param maxCapacity the highest number of slots of a segment, a power of 2
+     */
+    InstructionDeduplicator(boolean offHeap, long fingerprintMask, int pageBits, int maxCapacity) {
+        this(offHeap, fingerprintMask, pageBits, maxCapacity, null);
+    }
+
+    private InstructionDeduplicator(boolean offHeap, long fingerprintMask, int pageBits, int maxCapacity, InstructionDeduplicator committed) {
+        this.offHeap = offHeap;
+        this.fingerprintMask = fingerprintMask;
+        this.pageBits = pageBits;
+        this.maxCapacity = maxCapacity;
+        this.committed = committed;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return a deduplicator taking the instructions of this one for duplicates, but holding the instructions added to it apart
+     * until com.woobadeau.jpmorgan.transaction.InstructionDeduplicator#commit() adds them to this one.
+     * The instructions of a source that fails are simply not committed, so they are not skipped when other sources replay them.
+     */
+    public InstructionDeduplicator pending() {
+        return new InstructionDeduplicator(offHeap, fingerprintMask, pageBits, maxCapacity, this);
+    }
+
+    /**
+     * Add the instructions of this pending deduplicator, and the number of duplicates it skipped, to the deduplicator it was created from.
+     * Nothing is added if that deduplicator now holds one of the instructions, added since by another source read at the same time:
+     * both sources kept the instruction, and this one should be read again with a new pending deduplicator.
+     * @return true if the instructions were added, false if nothing was added
+     */
+    public boolean commit() throws DeduplicationException {
+        if (committed == null) {
+            throw new IllegalStateException("Only pending deduplicators are committed");
+        }
+        return commit(0);
+    }
+
+    /**
+     * Hold the locks of the segments of the committed deduplicator from the given one, in order, so that the commit is atomic
+     */
+    private boolean commit(int segment) throws DeduplicationException {
+        if (segment < SEGMENTS) {
+            synchronized (committed.segments[segment]) {
+                return commit(segment + 1);
+            }
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            synchronized (segments[i]) {
+                if (segments[i].anyIn(committed.segments[i])) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            synchronized (segments[i]) {
+                segments[i].addTo(committed.segments[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param instruction a parsed instruction
+     * @return true if the instruction was not seen before, false for a duplicate
+     */
+    public boolean add(Instruction instruction) throws DeduplicationException {
+        Encoding encoding = encodings.get();
+        encoding.clear();
+        encoding.putString(instruction.getEntity().toUpperCase());
+        encoding.put((byte) instruction.getTransactionDirection().ordinal());
+        encoding.putAmount(instruction.getForex());
+        encoding.putString(instruction.getCurrency());
+        encoding.putLong(instruction.getInstructionEpochDay());
+        encoding.putLong(instruction.getSettlementEpochDay());
+        encoding.putLong(instruction.getUnits());
+        encoding.putAmount(instruction.getPricePerUnit());
+        return add(encoding);
+    }
+
+    /**
+     * @param columns a group of a columnar settlement file
+     * @param row a row of the group
+     * @return true if the instruction of the row was not seen before, false for a duplicate
+     */
+    public boolean add(InstructionColumns columns, int row) throws DeduplicationException {
+        Encoding encoding = encodings.get();
+        encoding.clear();
+        encoding.putString(columns.entity(columns.entityId(row)).toUpperCase());
+        encoding.put((byte) (columns.incoming(row) ? TransactionDirection.S : TransactionDirection.B).ordinal());
+        if (columns.forexScale(row) == InstructionColumns.DECIMAL_SCALE) {
+            encoding.putAmount(columns.forex(row));
+        } else {
+            encoding.putAmount(columns.forexUnscaled(row), columns.forexScale(row));
+        }
+        encoding.putString(columns.currency(columns.currencyId(row)));
+        encoding.putLong(columns.instructionEpochDay(row));
+        encoding.putLong(columns.settlementEpochDay(row));
+        encoding.putLong(columns.units(row));
+        if (columns.priceScale(row) == InstructionColumns.DECIMAL_SCALE) {
+            encoding.putAmount(columns.price(row));
+        } else {
+            encoding.putAmount(columns.priceUnscaled(row), columns.priceScale(row));
+        }
+        return add(encoding);
+    }
+
+    /**
+     * @return the number of distinct instructions seen
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of duplicates seen
+     */
+    public long duplicates() {
+        long duplicates = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                duplicates += segment.duplicates;
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * @return the number of bytes of the tables and the arenas
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes();
+            }
+        }
+        return bytes;
+    }
+
+    private boolean add(Encoding encoding) throws DeduplicationException {
+        ByteBuffer bytes = encoding.bytes;
+        int length = bytes.position();
+        long fingerprint = fingerprint(bytes, length) & fingerprintMask;
+        int index = (int) (fingerprint >>> (Long.SIZE - SEGMENT_BITS));
+        boolean seen = false;
+        if (committed != null) {
+            synchronized (committed.segments[index]) {
+                seen = committed.segments[index].contains(fingerprint, bytes, length);
+            }
+        }
+        Segment segment = segments[index];
+        synchronized (segment) {
+            if (seen) {
+                segment.duplicates++;
+                return false;
+            }
+            return segment.add(fingerprint, bytes, length);
+        }
+    }
+
+    private LongBuffer[] allocateTable(int slots) throws DeduplicationException {
+        try {
+            return pages(slots);
+        } catch (OutOfMemoryError e) {
+            throw outOfMemory();
+        }
+    }
+
+    /**
+     * @return the pages of a table of the given number of slots
+     */
+    private LongBuffer[] pages(int slots) {
+        int pageSlots = Math.min(slots, 1 << pageBits);
+        LongBuffer[] pages = new LongBuffer[slots / pageSlots];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = offHeap ? ByteBuffer.allocateDirect(pageSlots * 2 * Long.BYTES).asLongBuffer() : LongBuffer.allocate(pageSlots * 2);
+        }
+        return pages;
+    }
+
+    private ByteBuffer allocate(int bytes) throws DeduplicationException {
+        try {
+            return offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+        } catch (OutOfMemoryError e) {
+            throw outOfMemory();
+        }
+    }
+
+    private DeduplicationException outOfMemory() {
+        return new DeduplicationException(offHeap ? "Not enough direct memory to deduplicate more instructions, raise -XX:MaxDirectMemorySize"
+                : "Not enough heap to deduplicate more instructions, raise -Xmx or keep the fingerprints off the heap with -dedup offheap");
+    }
+
+    private long fingerprintAt(LongBuffer[] table, int slot) {
+        return table[slot >>> pageBits].get(2 * (slot & ((1 << pageBits) - 1)));
+    }
+
+    private long referenceAt(LongBuffer[] table, int slot) {
+        return table[slot >>> pageBits].get(2 * (slot & ((1 << pageBits) - 1)) + 1);
+    }
+
+    private void put(LongBuffer[] table, int slot, long fingerprint, long reference) {
+        LongBuffer page = table[slot >>> pageBits];
+        int index = 2 * (slot & ((1 << pageBits) - 1));
+        page.put(index, fingerprint);
+        page.put(index + 1, reference);
+    }
+
+    /**
+     * Table and arena of the fingerprints sharing their highest bits, guarded by the monitor of the segment
+     */
+    private class Segment {
+        /**
+         * Pages of pairs of fingerprint and reference to the encoding in the arena plus one, 0 marking a free slot
+         */
+        private LongBuffer[] table;
+        private int capacity;
+        private int size;
+        private long duplicates;
+        /**
+         * Arena of length prefixed encodings, a reference being the index of the chunk in the high int and the position in the low int
+         */
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer chunk;
+
+        Segment() {
+            this.capacity = INITIAL_CAPACITY;
+            this.table = pages(capacity);
+        }
+
+        /**
+         * @param encoding the buffer holding the encoding from its index 0
+         * @return true if the encoding was added, false if the segment already held it
+         */
+        boolean add(long fingerprint, ByteBuffer encoding, int length) throws DeduplicationException {
+            int slot = find(fingerprint, encoding, length);
+            if (slot < 0) {
+                duplicates++;
+                return false;
+            }
+            if (size == capacity / 4 * 3) {
+                //Grown before the encoding is added, so that it is not added if the table cannot grow
+                grow();
+                slot = find(fingerprint, encoding, length);
+            }
+            long reference = append(encoding, length);
+            put(table, slot, fingerprint, reference + 1);
+            size++;
+            return true;
+        }
+
+        /**
+         * @param encoding the buffer holding the encoding from its index 0
+         */
+        boolean contains(long fingerprint, ByteBuffer encoding, int length) {
+            return find(fingerprint, encoding, length) < 0;
+        }
+
+        /**
+         * @return the free slot where the encoding goes, -1 if the segment holds it
+         */
+        private int find(long fingerprint, ByteBuffer encoding, int length) {
+            int mask = capacity - 1;
+            int slot = (int) fingerprint & mask;
+            long reference;
+            while ((reference = referenceAt(table, slot)) != 0) {
+                if (fingerprintAt(table, slot) == fingerprint && sameEncoding(reference - 1, encoding, length)) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * @return true if the other segment holds one of the encodings of this one
+         */
+        boolean anyIn(Segment other) {
+            for (int i = 0; i < capacity; i++) {
+                long reference = referenceAt(table, i);
+                if (reference != 0 && other.contains(fingerprintAt(table, i), stored(reference - 1), storedLength(reference - 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Add the encodings and the duplicates of this segment to the other one, which holds none of the encodings
+         */
+        void addTo(Segment other) throws DeduplicationException {
+            for (int i = 0; i < capacity; i++) {
+                long reference = referenceAt(table, i);
+                if (reference != 0) {
+                    other.add(fingerprintAt(table, i), stored(reference - 1), storedLength(reference - 1));
+                }
+            }
+            other.duplicates += duplicates;
+        }
+
+        /**
+         * @return a view of the arena starting at the stored encoding
+         */
+        private ByteBuffer stored(long reference) {
+            ByteBuffer view = chunks.get((int) (reference >>> 32)).duplicate();
+            view.position((int) reference + Integer.BYTES);
+            return view.slice();
+        }
+
+        private int storedLength(long reference) {
+            return chunks.get((int) (reference >>> 32)).getInt((int) reference);
+        }
+
+        private boolean sameEncoding(long reference, ByteBuffer encoding, int length) {
+            ByteBuffer stored = chunks.get((int) (reference >>> 32));
+            int position = (int) reference;
+            if (stored.getInt(position) != length) {
+                return false;
+            }
+            position += Integer.BYTES;
+            for (int i = 0; i < length; i++) {
+                if (stored.get(position + i) != encoding.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the reference of the encoding appended to the arena
+         */
+        private long append(ByteBuffer encoding, int length) throws DeduplicationException {
+            int needed = Integer.BYTES + length;
+            if (chunk == null || chunk.remaining() < needed) {
+                //Chunks grow with the segment, so that segments holding few instructions stay small
+                int chunkSize = chunk == null ? FIRST_CHUNK_SIZE : Math.min(chunk.capacity() * 2, MAX_CHUNK_SIZE);
+                chunk = allocate(Math.max(chunkSize, needed));
+                chunks.add(chunk);
+            }
+            long reference = ((long) (chunks.size() - 1) << 32) | chunk.position();
+            chunk.putInt(length);
+            for (int i = 0; i < length; i++) {
+                chunk.put(encoding.get(i));
+            }
+            return reference;
+        }
+
+        private void grow() throws DeduplicationException {
+            if (capacity == maxCapacity) {
+                throw new DeduplicationException("Cannot deduplicate more than " + (long) capacity / 4 * 3 * SEGMENTS + " distinct instructions");
+            }
+            LongBuffer[] grown = allocateTable(capacity * 2);
+            int mask = capacity * 2 - 1;
+            for (int i = 0; i < capacity; i++) {
+                long reference = referenceAt(table, i);
+                if (reference != 0) {
+                    long fingerprint = fingerprintAt(table, i);
+                    int slot = (int) fingerprint & mask;
+                    while (referenceAt(grown, slot) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    put(grown, slot, fingerprint, reference);
+                }
+            }
+            table = grown;
+            capacity *= 2;
+        }
+
+        long bytes() {
+            long bytes = (long) capacity * 2 * Long.BYTES;
+            for (ByteBuffer arenaChunk : chunks) {
+                bytes += arenaChunk.capacity();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Encoding of the fields of an instruction, reused for the instructions added by a thread
+     */
+    private static class Encoding {
+        private ByteBuffer bytes = ByteBuffer.allocate(256);
+
+        void clear() {
+            bytes.clear();
+        }
+
+        private void ensureRemaining(int count) {
+            if (bytes.remaining() < count) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + count));
+                bytes.flip();
+                grown.put(bytes);
+                bytes = grown;
+            }
+        }
+
+        void put(byte value) {
+            ensureRemaining(1);
+            bytes.put(value);
+        }
+
+        void putLong(long value) {
+            ensureRemaining(Long.BYTES);
+            bytes.putLong(value);
+        }
+
+        /**
+         * Put the length and the chars of the string, so that no string is a prefix of the encoding of another one
+         */
+        void putString(String string) {
+            ensureRemaining(Integer.BYTES + string.length() * Character.BYTES);
+            bytes.putInt(string.length());
+            for (int i = 0; i < string.length(); i++) {
+                bytes.putChar(string.charAt(i));
+            }
+        }
+
+        /**
+         * Put the amount without trailing zeros, in the same way as com.woobadeau.jpmorgan.transaction.InstructionDeduplicator.Encoding#putAmount(long, int) when it fits in a long
+         */
+        void putAmount(BigDecimal amount) {
+            if (amount.unscaledValue().bitLength() >= Long.SIZE) {
+                amount = amount.stripTrailingZeros();
+            }
+            if (amount.unscaledValue().bitLength() < Long.SIZE) {
+                putAmount(amount.unscaledValue().longValue(), amount.scale());
+                return;
+            }
+            byte[] unscaled = amount.unscaledValue().toByteArray();
+            ensureRemaining(1 + 2 * Integer.BYTES + unscaled.length);
+            bytes.put(DECIMAL_AMOUNT);
+            bytes.putInt(amount.scale());
+            bytes.putInt(unscaled.length);
+            bytes.put(unscaled);
+        }
+
+        void putAmount(long unscaled, int scale) {
+            if (unscaled == 0) {
+                scale = 0;
+            }
+            while (unscaled != 0 && unscaled % 10 == 0) {
+                unscaled /= 10;
+                scale--;
+            }
+            ensureRemaining(1 + Long.BYTES + Integer.BYTES);
+            bytes.put(LONG_AMOUNT);
+            bytes.putLong(unscaled);
+            bytes.putInt(scale);
+        }
+    }
+
+    /**
+     * @return a 64-bit hash of the first bytes of the buffer, read 8 bytes at a time
+     */
+    static long fingerprint(ByteBuffer bytes, int length) {
+        long hash = 0x9E3779B97F4A7C15L ^ length;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ mix(bytes.getLong(i)), 31) * 0xC2B2AE3D27D4EB4FL;
+        }
+        long tail = 0;
+        for (; i < length; i++) {
+            tail = (tail << 8) | (bytes.get(i) & 0xFF);
+        }
+        return mix(hash ^ mix(tail));
+    }
+
+    /**
+     * Finalisation step of MurmurHash3, spreading every bit of the value over the whole result
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,189 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads instructions from a region of a settlement file through memory mapped windows.<br/>
+ * Windows always end on a line boundary so that lines are never split between two of them.<br/>
+ * Given rejects, the reader is lenient: malformed lines are handed to them and skipped instead of stopping the read.
+ */
+public class InstructionFileReader implements Closeable {
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final BufferInstructionParser parser;
+    private final InstructionRejects rejects;
+    private final String source;
+    private final long end;
+    private final int windowSize;
+    private long position;
+    private MappedByteBuffer window;
+
+    /**
+     * Read a region of a file. The region should start at the beginning of a line and end after a line terminator or at the end of the file.
+     * @param channel the channel of the file, left open when closing this reader
+     * @param start offset of the first byte of the region
+     * @param end offset after the last byte of the region
+     * @param parser the parser for the lines
+     */
+    public InstructionFileReader(FileChannel channel, long start, long end, BufferInstructionParser parser) {
+        this(channel, false, start, end, parser, null, null, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Read a region of a file, skipping malformed lines. The region should start at the beginning of a line and end after a line terminator or at the end of the file.
+     * @param channel the channel of the file, left open when closing this reader
+     * @param start offset of the first byte of the region
+     * @param end offset after the last byte of the region
+     * @param parser the parser for the lines
+     * @param rejects the rejected lines
+     * @param source the name of the file, written with its rejected lines
+     */
+    public InstructionFileReader(FileChannel channel, long start, long end, BufferInstructionParser parser, InstructionRejects rejects, String source) {
+        this(channel, false, start, end, parser, rejects, source, DEFAULT_WINDOW_SIZE);
+    }
+
+    InstructionFileReader(FileChannel channel, boolean ownsChannel, long start, long end, BufferInstructionParser parser, InstructionRejects rejects, String source, int windowSize) {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.position = start;
+        this.end = end;
+        this.parser = parser;
+        this.rejects = rejects;
+        this.source = source;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Open a reader over a whole file.
+     * @param file the settlement file
+     * @param parser the parser for the lines
+     * @return a reader to be closed by the caller
+     */
+    public static InstructionFileReader open(File file, BufferInstructionParser parser) throws IOException {
+        return open(file, parser, null);
+    }
+
+    /**
+     * Open a reader over a whole file, skipping malformed lines if rejects are given.
+     * @param file the settlement file
+     * @param parser the parser for the lines
+     * @param rejects the rejected lines, null to stop on the first malformed line
+     * @return a reader to be closed by the caller
+     */
+    public static InstructionFileReader open(File file, BufferInstructionParser parser, InstructionRejects rejects) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return new InstructionFileReader(channel, true, 0, channel.size(), parser, rejects, file.getPath(), DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Split a file in chunks ending on line boundaries, to be read by separate readers.
+     * Fewer chunks than requested are returned when the file is too small.
+     * @param channel the channel of the file
+     * @param chunks the number of chunks wanted
+     * @return the offsets of the chunks: chunk i goes from offsets[i] (inclusive) to offsets[i + 1] (exclusive)
+     */
+    public static long[] splitAtLines(FileChannel channel, int chunks) throws IOException {
+        long size = channel.size();
+        long[] offsets = new long[chunks + 1];
+        int count = 1;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int i = 1; i < chunks; i++) {
+            long boundary = nextLineStart(channel, size * i / chunks, size, probe);
+            if (boundary > offsets[count - 1] && boundary < size) {
+                offsets[count++] = boundary;
+            }
+        }
+        offsets[count++] = size;
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * @return the offset of the first line starting at or after the given offset
+     */
+    private static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer probe) throws IOException {
+        long position = Math.max(0, from - 1);
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * @return the next instruction of the region, null when the region is exhausted
+     * @throws InstructionParsingException if the line cannot be parsed and the reader is not lenient
+     */
+    public Instruction next() throws IOException, InstructionParsingException {
+        while (true) {
+            while (window == null || !window.hasRemaining()) {
+                if (position >= end) {
+                    return null;
+                }
+                window = mapWindow();
+            }
+            if (rejects == null) {
+                return parser.next(window);
+            }
+            Instruction instruction = parser.next(window, rejects, source);
+            if (instruction != null) {
+                return instruction;
+            }
+        }
+    }
+
+    /**
+     * Map the next window, cut after its last line terminator.
+     * The window is enlarged when a single line does not fit in it.
+     */
+    private MappedByteBuffer mapWindow() throws IOException {
+        long size = Math.min(windowSize, end - position);
+        while (true) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            if (position + size == end) {
+                position = end;
+                StageMetrics.bytesRead(size);
+                return buffer;
+            }
+            int lastLineEnd = (int) size - 1;
+            while (lastLineEnd >= 0 && buffer.get(lastLineEnd) != '\n') {
+                lastLineEnd--;
+            }
+            if (lastLineEnd >= 0) {
+                buffer.limit(lastLineEnd + 1);
+                position += lastLineEnd + 1;
+                StageMetrics.bytesRead(lastLineEnd + 1);
+                return buffer;
+            }
+            size = Math.min(Math.min(size * 2, Integer.MAX_VALUE), end - position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
@@ -1,16 +1,22 @@
 package com.woobadeau.jpmorgan.transaction;
 
 import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.metrics.Stage;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
 
 public class InstructionParser {
-    private static final String DEFAULT_DATE_FORMAT = "dd MMM yyyy";
-    private static final String DEFAULT_SEPARATOR = " ";
+    static final String DEFAULT_DATE_FORMAT = "dd MMM yyyy";
+    static final String DEFAULT_SEPARATOR = " ";
+    /**
+     * Decoder of the last date format used by the thread, keeping its cache of dates from line to line
+     */
+    private static final ThreadLocal<DateDecoder> DATE_DECODERS = new ThreadLocal<>();
 
     /**
      * Parse a line representing an instruction.
@@ -30,38 +36,150 @@ public class InstructionParser {
      * @throws InstructionParsingException if the line cannot be parsed (Wrong number of fields, incorrect data...).
      */
     public static Instruction parseLine(String line, String separator, String dateFormat) throws InstructionParsingException {
-        if (separator == null) {
-            separator = DEFAULT_SEPARATOR;
-        }
-        if (dateFormat == null) {
-            dateFormat = DEFAULT_DATE_FORMAT;
+        long parse = StageMetrics.start();
+        try {
+            return decodeOrThrow(line, separator == null ? DEFAULT_SEPARATOR : separator, dateFormat == null ? DEFAULT_DATE_FORMAT : dateFormat);
+        } finally {
+            StageMetrics.stop(Stage.PARSE, parse);
         }
+    }
+
+    private static Instruction decodeOrThrow(String line, String separator, String dateFormat) throws InstructionParsingException {
         Instruction instruction = new Instruction();
         String[] fields = line.split(separator);
         int dateLength = dateFormat.split(separator).length;
         int countedFields = fields.length - ((dateLength - 1) * 2);
         if (fields.length - ((dateLength - 1) * 2) != 8) {
-            throw new InstructionParsingException("Line {"+line+"} does not contain the correct number of fields.\n found "+ countedFields +" and expecting 8" );
+            throw new InstructionParsingException("Line {"+line+"} does not contain the correct number of fields.\n found "+ countedFields +" and expecting 8", RejectReason.FIELD_COUNT);
         }
         int offset = 0;
+        RejectReason reason = null;
         try {
             instruction.setEntity(fields[offset++]);
+            reason = RejectReason.DIRECTION;
             instruction.setTransactionDirection(TransactionDirection.valueOf(fields[offset++]));
+            reason = RejectReason.FOREX;
             instruction.setForex(new BigDecimal(fields[offset++]));
             instruction.setCurrency(fields[offset++]);
-            instruction.setInstructionDate(parseDate(dateFormat, fields, dateLength, offset, separator));
+            reason = RejectReason.INSTRUCTION_DATE;
+            instruction.setInstructionEpochDay(parseDate(dateFormat, fields, dateLength, offset, separator));
             offset += dateLength;
-            instruction.setSettlementDate(parseDate(dateFormat, fields, dateLength, offset, separator));
+            reason = RejectReason.SETTLEMENT_DATE;
+            instruction.setSettlementEpochDay(parseDate(dateFormat, fields, dateLength, offset, separator));
             offset += dateLength;
+            reason = RejectReason.UNITS;
             instruction.setUnits(Integer.parseInt(fields[offset++]));
+            reason = RejectReason.PRICE;
             instruction.setPricePerUnit(new BigDecimal(fields[offset++]));
         } catch (Exception e) {
-            throw new InstructionParsingException("Error parsing line {"+line+"} for field "+offset, e);
+            throw new InstructionParsingException("Error parsing line {"+line+"} for field "+offset, e, reason);
         }
+        return instruction;
+    }
 
+    /**
+     * Parse a line representing an instruction, without stopping on malformed lines:
+     * the lines com.woobadeau.jpmorgan.transaction.InstructionParser#parseLine(java.lang.String, java.lang.String, java.lang.String) cannot parse
+     * are handed to the rejects instead.
+     * @param line the formated line to be parsed
+     * @param separator the field separator
+     * @param dateFormat the date format
+     * @param rejects the rejected lines
+     * @param source the file the line comes from
+     * @return The com.woobadeau.jpmorgan.transaction.Instruction object represented by this line, null if it was rejected
+     */
+    public static Instruction parseLine(String line, String separator, String dateFormat, InstructionRejects rejects, String source) throws IOException {
+        Instruction instruction = new Instruction();
+        RejectReason reason = tryParse(line, separator, dateFormat, instruction);
+        if (reason != null) {
+            rejects.reject(reason, source, line);
+            return null;
+        }
         return instruction;
     }
 
+    /**
+     * Parse a line representing an instruction, without throwing exceptions.
+     * A line is rejected when com.woobadeau.jpmorgan.transaction.InstructionParser#parseLine(java.lang.String, java.lang.String, java.lang.String) would throw,
+     * and the instruction is the same otherwise: fields are checked with the grammar of the parsers they would be given to before being decoded,
+     * so malformed lines cost no more than valid ones.
+     * @param line the formated line to be parsed
+     * @param separator the field separator, defaults to a single space if null
+     * @param dateFormat the date format, defaults to dd MMM yyyy if null
+     * @param instruction the instruction the fields of the line are set on, left incomplete if the line is rejected
+     * @return the reason the line is rejected, null if it was parsed
+     */
+    public static RejectReason tryParse(String line, String separator, String dateFormat, Instruction instruction) {
+        long parse = StageMetrics.start();
+        RejectReason reason = decode(line, separator == null ? DEFAULT_SEPARATOR : separator, dateFormat == null ? DEFAULT_DATE_FORMAT : dateFormat, instruction);
+        StageMetrics.stop(Stage.PARSE, parse);
+        return reason;
+    }
+
+    private static RejectReason decode(String line, String separator, String dateFormat, Instruction instruction) {
+        String[] fields = line.split(separator);
+        int dateLength = dateFormat.split(separator).length;
+        if (fields.length - ((dateLength - 1) * 2) != 8) {
+            return RejectReason.FIELD_COUNT;
+        }
+        int offset = 0;
+        instruction.setEntity(fields[offset++]);
+        TransactionDirection direction = checkedDirection(fields[offset++]);
+        if (direction == null) {
+            return RejectReason.DIRECTION;
+        }
+        instruction.setTransactionDirection(direction);
+        BigDecimal forex = checkedDecimal(fields[offset++]);
+        if (forex == null) {
+            return RejectReason.FOREX;
+        }
+        instruction.setForex(forex);
+        instruction.setCurrency(fields[offset++]);
+        long instructionDay = checkedDate(dateFormat, fields, dateLength, offset, separator);
+        if (instructionDay == DateDecoder.NOT_DECODED) {
+            return RejectReason.INSTRUCTION_DATE;
+        }
+        instruction.setInstructionEpochDay(instructionDay);
+        offset += dateLength;
+        long settlementDay = checkedDate(dateFormat, fields, dateLength, offset, separator);
+        if (settlementDay == DateDecoder.NOT_DECODED) {
+            return RejectReason.SETTLEMENT_DATE;
+        }
+        instruction.setSettlementEpochDay(settlementDay);
+        offset += dateLength;
+        long units = NumberGrammar.checkedInteger(fields[offset++]);
+        if (units == NumberGrammar.NOT_DECODED) {
+            return RejectReason.UNITS;
+        }
+        instruction.setUnits((int) units);
+        BigDecimal price = checkedDecimal(fields[offset++]);
+        if (price == null) {
+            return RejectReason.PRICE;
+        }
+        instruction.setPricePerUnit(price);
+        return null;
+    }
+
+    /**
+     * @return the direction, null if java.lang.Enum#valueOf(java.lang.Class, java.lang.String) would reject it
+     */
+    private static TransactionDirection checkedDirection(String field) {
+        if (field.equals("B")) {
+            return TransactionDirection.B;
+        }
+        if (field.equals("S")) {
+            return TransactionDirection.S;
+        }
+        return null;
+    }
+
+    /**
+     * @return the decimal, null if java.math.BigDecimal#BigDecimal(java.lang.String) would reject it
+     */
+    private static BigDecimal checkedDecimal(String field) {
+        return NumberGrammar.isDecimal(field) ? new BigDecimal(field) : null;
+    }
+
     /**
      * Parse a date in the requested format with potentially a separator that should be used to join fields.
      * @param dateFormat format the date should be parsed
@@ -69,14 +187,33 @@ public class InstructionParser {
      * @param dateLength the number of fields the date consists of
      * @param offset the first field of the date in the fields parameter
      * @param separator the separator that should be used to join the date
-     * @return the date parsed
+     * @return the epoch day of the date parsed
      * @throws ParseException if the date cannot be parsed with the given dateFormat
      */
-    private static Date parseDate(String dateFormat, String[] fields, int dateLength, int offset, String separator) throws ParseException {
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat);
+    private static long parseDate(String dateFormat, String[] fields, int dateLength, int offset, String separator) throws ParseException {
+        String date = dateLength == 1 ? fields[offset] : String.join(separator, Arrays.copyOfRange(fields, offset, offset + dateLength));
+        long epochDay = dateDecoder(dateFormat).decode(date);
+        if (epochDay == DateDecoder.NOT_DECODED) {
+            throw new ParseException("Unparseable date: \"" + date + "\"", 0);
+        }
+        return epochDay;
+    }
+
+    /**
+     * @return the epoch day of the date, com.woobadeau.jpmorgan.transaction.DateDecoder#NOT_DECODED if it cannot be parsed with the given dateFormat
+     */
+    private static long checkedDate(String dateFormat, String[] fields, int dateLength, int offset, String separator) {
+        String date = dateLength == 1 ? fields[offset] : String.join(separator, Arrays.copyOfRange(fields, offset, offset + dateLength));
+        return dateDecoder(dateFormat).decode(date);
+    }
 
-        String instructionDate = String.join(separator, Arrays.copyOfRange(fields, offset, offset+dateLength));
-        return simpleDateFormat.parse(instructionDate);
+    private static DateDecoder dateDecoder(String dateFormat) {
+        DateDecoder dateDecoder = DATE_DECODERS.get();
+        if (dateDecoder == null || !dateDecoder.getDateFormat().equals(dateFormat)) {
+            dateDecoder = new DateDecoder(dateFormat, Charset.defaultCharset());
+            DATE_DECODERS.set(dateDecoder);
+        }
+        return dateDecoder;
     }
 
     /**
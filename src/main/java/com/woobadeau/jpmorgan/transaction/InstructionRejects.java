@@ -0,0 +1,115 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Lines rejected by a lenient read of settlement files, counted per com.woobadeau.jpmorgan.transaction.RejectReason
+ * and written to a reject file as they are found.<br/>
+ * Each rejected line is written as its reason, the file it comes from and the line itself, separated by tabs.
+ * Lines are copied byte for byte, so that they can be fixed and read again. All methods are thread safe.
+ */
+public class InstructionRejects implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream output;
+    private final Charset charset;
+    private final long[] counts = new long[RejectReason.values().length];
+
+    /**
+     * @param file the reject file, replaced if it exists
+     */
+    public InstructionRejects(File file) throws IOException {
+        this(new FileOutputStream(file), Charset.defaultCharset());
+    }
+
+    /**
+     * @param output the stream rejected lines are written to, closed with this object
+     * @param charset the charset of the reasons and sources, the same as the one of the settlement files
+     */
+    public InstructionRejects(OutputStream output, Charset charset) {
+        this.output = new BufferedOutputStream(output, BUFFER_SIZE);
+        this.charset = charset;
+    }
+
+    /**
+     * Reject the line between start (inclusive) and end (exclusive) in the buffer
+     * @param source the file the line comes from
+     */
+    public synchronized void reject(RejectReason reason, String source, ByteBuffer buffer, int start, int end) throws IOException {
+        writeHeader(reason, source);
+        for (int i = start; i < end; i++) {
+            output.write(buffer.get(i));
+        }
+        output.write('\n');
+    }
+
+    /**
+     * @param source the file the line comes from
+     */
+    public synchronized void reject(RejectReason reason, String source, String line) throws IOException {
+        writeHeader(reason, source);
+        output.write(line.getBytes(charset));
+        output.write('\n');
+    }
+
+    private void writeHeader(RejectReason reason, String source) throws IOException {
+        counts[reason.ordinal()]++;
+        StageMetrics.lineRejected();
+        output.write(reason.name().getBytes(charset));
+        output.write('\t');
+        output.write(source.getBytes(charset));
+        output.write('\t');
+    }
+
+    /**
+     * @return the number of lines rejected for the reason
+     */
+    public synchronized long count(RejectReason reason) {
+        return counts[reason.ordinal()];
+    }
+
+    /**
+     * @return the number of lines rejected for any reason
+     */
+    public synchronized long total() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+
+    /**
+     * @return the number of rejected lines, followed by the count of each reason found
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("Rejected ").append(total()).append(" lines");
+        String separator = ": ";
+        for (RejectReason reason : RejectReason.values()) {
+            if (counts[reason.ordinal()] > 0) {
+                builder.append(separator).append(reason).append(' ').append(counts[reason.ordinal()]);
+                separator = ", ";
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,164 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Grammar of the numbers of instruction lines, the one of java.math.BigDecimal#BigDecimal(java.lang.String) for decimals
+ * and of java.lang.Integer#parseInt(java.lang.String) for integers.<br/>
+ * Both parsers check fields with it before decoding them, so that malformed fields are rejected without exceptions
+ * and the parsers reject exactly the same fields.
+ */
+final class NumberGrammar {
+    /**
+     * Marks an integer that is not accepted by java.lang.Integer#parseInt(java.lang.String)
+     */
+    static final long NOT_DECODED = Long.MIN_VALUE;
+
+    private NumberGrammar() {
+    }
+
+    /**
+     * @return true if java.math.BigDecimal#BigDecimal(java.lang.String) accepts the field
+     */
+    static boolean isDecimal(CharSequence field) {
+        int end = field.length();
+        int i = 0;
+        if (i < end && (field.charAt(i) == '-' || field.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = field.charAt(i);
+            if (Character.isDigit(c)) {
+                digits++;
+                if (point) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < end) {
+            if (field.charAt(i) != 'e' && field.charAt(i) != 'E') {
+                return false;
+            }
+            i++;
+            boolean negative = false;
+            if (i < end && (field.charAt(i) == '-' || field.charAt(i) == '+')) {
+                negative = field.charAt(i) == '-';
+                i++;
+            }
+            if (i == end) {
+                return false;
+            }
+            long exponent = 0;
+            for (; i < end; i++) {
+                int digit = Character.digit(field.charAt(i), 10);
+                if (digit < 0) {
+                    return false;
+                }
+                exponent = exponent * 10 + digit;
+                if (exponent > -(long) Integer.MIN_VALUE) {
+                    return false;
+                }
+            }
+            exponent = negative ? -exponent : exponent;
+            //The exponent and the scale it gives must both fit in an int
+            long scale = fractionDigits - exponent;
+            if (exponent > Integer.MAX_VALUE || scale > Integer.MAX_VALUE || scale < Integer.MIN_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the int, com.woobadeau.jpmorgan.transaction.NumberGrammar#NOT_DECODED if java.lang.Integer#parseInt(java.lang.String) rejects the field
+     */
+    static long checkedInteger(CharSequence field) {
+        int end = field.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < end && (field.charAt(i) == '-' || field.charAt(i) == '+')) {
+            negative = field.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return NOT_DECODED;
+        }
+        long magnitude = 0;
+        for (; i < end; i++) {
+            int digit = Character.digit(field.charAt(i), 10);
+            if (digit < 0) {
+                return NOT_DECODED;
+            }
+            magnitude = magnitude * 10 + digit;
+            if (magnitude > -(long) Integer.MIN_VALUE) {
+                return NOT_DECODED;
+            }
+        }
+        if (!negative && magnitude > Integer.MAX_VALUE) {
+            return NOT_DECODED;
+        }
+        return negative ? -magnitude : magnitude;
+    }
+
+    /**
+     * @return true if the bytes are all ASCII, so that they can be checked as com.woobadeau.jpmorgan.transaction.NumberGrammar.AsciiField
+     * without being decoded
+     */
+    static boolean isAscii(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ASCII bytes of a buffer seen as characters, without copying them.
+     */
+    static final class AsciiField implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+
+        AsciiField(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) buffer.get(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new AsciiField(buffer, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            char[] characters = new char[end - start];
+            for (int i = 0; i < characters.length; i++) {
+                characters[i] = charAt(i);
+            }
+            return new String(characters);
+        }
+    }
+}
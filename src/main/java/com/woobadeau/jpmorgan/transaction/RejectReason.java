@@ -0,0 +1,8 @@
+package com.woobadeau.jpmorgan.transaction;
+
+/**
+ * Reason a settlement line is not a valid instruction: its number of fields, or the first field that cannot be parsed.
+ */
+public enum RejectReason {
+    FIELD_COUNT, DIRECTION, FOREX, INSTRUCTION_DATE, SETTLEMENT_DATE, UNITS, PRICE
+}
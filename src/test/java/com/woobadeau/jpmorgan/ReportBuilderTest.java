@@ -0,0 +1,41 @@
+package com.woobadeau.jpmorgan;
+
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReportBuilderTest {
+
+    /**
+     * Test the options of a run are not carried over to the next run of the same JVM
+     */
+    @Test
+    public void runsIndependent() throws Exception {
+        List<String> lines = RandomInstructions.lines(13, 500);
+        File file = File.createTempFile("settlements", ".txt");
+        File first = File.createTempFile("report", ".csv");
+        File second = File.createTempFile("report", ".csv");
+        File third = File.createTempFile("report", ".txt");
+        try {
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+            ReportBuilder.main(new String[]{"-f", file.getPath(), "-of", "csv", "-o", first.getPath()});
+            ReportBuilder.main(new String[]{"-f", file.getPath(), "-of", "csv", "-o", second.getPath()});
+            ReportBuilder.main(new String[]{"-f", file.getPath(), "-o", third.getPath()});
+            String report = new String(Files.readAllBytes(first.toPath()), StandardCharsets.UTF_8);
+            assertEquals(report, new String(Files.readAllBytes(second.toPath()), StandardCharsets.UTF_8));
+            //Without -of, the default text format is back
+            assertEquals("Settlement Report :", Files.readAllLines(third.toPath(), StandardCharsets.UTF_8).get(0));
+        } finally {
+            file.delete();
+            first.delete();
+            second.delete();
+            third.delete();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.woobadeau.jpmorgan.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StageMetricsTest {
+
+    /**
+     * Test latencies are found back within the precision of their bucket.
+     */
+    @Test
+    public void buckets() {
+        for (long nanos = 0; nanos < 1000000; nanos = nanos * 2 + 1) {
+            long value = StageRecorder.bucketValue(StageRecorder.bucket(nanos));
+            assertTrue(Math.abs(value - nanos) <= nanos / 8, nanos + " -> " + value);
+        }
+        assertTrue(StageRecorder.bucket(Long.MAX_VALUE) < StageRecorder.BUCKETS);
+    }
+
+    /**
+     * Test the events of several threads are all counted, and reported through JMX.
+     */
+    @Test
+    public void threadsMerged() throws Exception {
+        StageMetrics.enable();
+        StageMetrics metrics = StageMetrics.getInstance();
+        long events = metrics.getEvents()[Stage.SETTLE.ordinal()];
+        long bytes = metrics.getBytesRead();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    long start = StageMetrics.start();
+                    StageMetrics.stop(Stage.SETTLE, start);
+                    StageMetrics.bytesRead(10);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(events + 40000, metrics.getEvents()[Stage.SETTLE.ordinal()]);
+        assertEquals(bytes + 400000, metrics.getBytesRead());
+        assertTrue(metrics.getMaxNanos()[Stage.SETTLE.ordinal()] >= metrics.getP99Nanos()[Stage.SETTLE.ordinal()] / 2);
+
+        long[] jmxEvents = (long[]) ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(StageMetrics.OBJECT_NAME), "Events");
+        assertTrue(jmxEvents[Stage.SETTLE.ordinal()] >= events + 40000);
+    }
+
+    /**
+     * Test the recorders of ended threads are retired without losing their events.
+     */
+    @Test
+    public void endedThreadsRetired() throws Exception {
+        StageMetrics.enable();
+        StageMetrics metrics = StageMetrics.getInstance();
+        long events = metrics.getEvents()[Stage.AGGREGATE.ordinal()];
+        int liveRecorders = metrics.liveRecorders();
+        for (int i = 0; i < 20; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    StageMetrics.stop(Stage.AGGREGATE, StageMetrics.start());
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(events + 20000, metrics.getEvents()[Stage.AGGREGATE.ordinal()]);
+        assertTrue(metrics.liveRecorders() <= liveRecorders);
+    }
+
+    /**
+     * Test a queue depth shared by concurrent pipelines loses no sample.
+     */
+    @Test
+    public void queueDepthShared() throws Exception {
+        QueueDepth depth = new QueueDepth("shared", 8);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int max = i + 2;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    depth.record(j % 2 == 0 ? 0 : max);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals((2 + 3 + 4 + 5) * 5000 / 40000d, depth.getMeanDepth());
+        assertEquals(5, depth.getMaxDepth());
+    }
+}
@@ -0,0 +1,170 @@
+package com.woobadeau.jpmorgan.server;
+
+import com.woobadeau.jpmorgan.settlement.ConcurrentReportAccumulator;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Currency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IngestServerTest {
+
+    private static String readResponse(BufferedReader reader) throws Exception {
+        StringBuilder response = new StringBuilder();
+        String line;
+        while (!"END".equals(line = reader.readLine())) {
+            response.append(line).append('\n');
+        }
+        return response.toString();
+    }
+
+    /**
+     * @return the amount as reports format it, in the currency format of the default locale
+     */
+    private static String usd(String amount) {
+        NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+        currencyFormat.setCurrency(Currency.getInstance("USD"));
+        return currencyFormat.format(new BigDecimal(amount));
+    }
+
+    @Test
+    public void testIngestAndReport() throws Exception {
+        try (IngestServer server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ",", "yyyyMMdd", 2,
+                new ConcurrentReportAccumulator(2, -1))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+                writer.write("foo,B,0.50,SGP,20160101,20160104,200,100.25\n");
+                writer.write("bar,S,1.00,GBP,20160101,20160104,100,10\r\n");
+                writer.write("bar,S,1.00\n");
+                writer.write("#REPORT 20160104\n");
+                writer.flush();
+
+                String error = reader.readLine();
+                assertTrue(error.startsWith("ERR Line 3: "), error);
+                assertEquals("On 04 Jan 2016:\n" +
+                        "Incoming: " + usd("1000") + "\n" +
+                        "Incoming entity ranks: foo, bar\n" +
+                        "Outgoing: " + usd("10025") + "\n" +
+                        "Outgoing entity ranks: bar, foo\n", readResponse(reader));
+
+                writer.write("#REPORT 20160105\n#STATS\n#QUIT\n");
+                writer.flush();
+                assertEquals("No settlement on 05 Jan 2016\n", readResponse(reader));
+                String statistics = readResponse(reader);
+                assertTrue(statistics.contains("Instructions: 2\n"), statistics);
+                assertTrue(statistics.contains("Rejected lines: 1\n"), statistics);
+                assertEquals(null, reader.readLine());
+            }
+            assertEquals(2, server.getStatistics().getInstructions());
+        }
+    }
+
+    /**
+     * Test entities are read in UTF-8, as the responses are written
+     */
+    @Test
+    public void testUtf8Entities() throws Exception {
+        try (IngestServer server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ",", "yyyyMMdd", 1,
+                new ConcurrentReportAccumulator(1, -1))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                writer.write("Z\u00fcrich,B,0.50,SGP,20160101,20160104,200,100.25\n");
+                writer.write("\u00c5lesund,B,0.50,SGP,20160101,20160104,100,100.25\n");
+                writer.write("#REPORT 20160104\n#QUIT\n");
+                writer.flush();
+                String report = readResponse(reader);
+                assertTrue(report.contains("Z\u00fcrich"), report);
+                assertTrue(report.contains("\u00c5lesund"), report);
+            }
+        }
+    }
+
+    /**
+     * Test a client sending commands faster than it reads the responses gets all of them, in order,
+     * the server holding back its lines while the responses pile up
+     */
+    @Test
+    public void testPipelinedReports() throws Exception {
+        int reports = 2000;
+        try (IngestServer server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ",", "yyyyMMdd", 1,
+                new ConcurrentReportAccumulator(2, -1))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                //Sent from another thread, the server stops reading until the responses are read
+                Thread sender = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            writer.write("entity" + i + ",B,0.50,SGP,20160101,20160104,200,100.25\n");
+                        }
+                        for (int i = 0; i < reports; i++) {
+                            writer.write("#REPORT\n");
+                        }
+                        writer.write("#REPORT 20160105\n#QUIT\n");
+                        writer.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                sender.start();
+                String first = readResponse(reader);
+                assertTrue(first.length() * reports > IngestLoop.MAX_PENDING_OUTPUT, "reports too small to fill the responses");
+                for (int i = 1; i < reports; i++) {
+                    assertEquals(first, readResponse(reader));
+                }
+                assertEquals("No settlement on 05 Jan 2016\n", readResponse(reader));
+                assertEquals(null, reader.readLine());
+                sender.join();
+            }
+        }
+    }
+
+    /**
+     * Test a report larger than the responses held for a connection is streamed whole, with the text of the report of the snapshot
+     */
+    @Test
+    public void testStreamedReport() throws Exception {
+        ConcurrentReportAccumulator accumulator = new ConcurrentReportAccumulator(2, -1);
+        try (IngestServer server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ",", "yyyyMMdd", 1, accumulator)) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                LocalDate date = LocalDate.of(2016, 1, 1);
+                for (int day = 0; day < 2000; day++, date = date.plusDays(1)) {
+                    String settlementDate = date.format(DateTimeFormatter.BASIC_ISO_DATE);
+                    for (int i = 0; i < 40; i++) {
+                        writer.write("streamed-entity-" + i + (i % 2 == 0 ? ",B" : ",S") + ",0.50,SGP," + settlementDate + "," + settlementDate + "," + (i + 1) + ",100.25\n");
+                    }
+                }
+                writer.write("#REPORT\n#QUIT\n");
+                writer.flush();
+                String report = readResponse(reader);
+                assertTrue(report.length() > IngestLoop.MAX_PENDING_OUTPUT, "report too small to be streamed in several parts");
+                assertEquals(accumulator.snapshot().toString(), report);
+                assertEquals(null, reader.readLine());
+            }
+        }
+    }
+}
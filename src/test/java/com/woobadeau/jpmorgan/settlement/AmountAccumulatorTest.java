@@ -0,0 +1,69 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for AmountAccumulator.
+ */
+public class AmountAccumulatorTest {
+
+    /**
+     * Test fixed point totals are the same as java.math.BigDecimal totals.
+     */
+    @Test
+    public void fixedPointSameAsDecimal() {
+        AmountAccumulator fixedPoint = new AmountAccumulator(4);
+        AmountAccumulator decimal = new AmountAccumulator(AmountAccumulator.DECIMAL_MODE);
+        fixedPoint.addProduct(new BigDecimal("100.25"), new BigDecimal("0.50"), 200);
+        decimal.addProduct(new BigDecimal("100.25"), new BigDecimal("0.50"), 200);
+        fixedPoint.addProduct(new BigDecimal("-3"), new BigDecimal("1.1"), 7);
+        decimal.addProduct(new BigDecimal("-3"), new BigDecimal("1.1"), 7);
+
+        assertEquals(0, decimal.value().compareTo(fixedPoint.value()));
+        assertEquals(0, decimal.compareTo(fixedPoint));
+    }
+
+    /**
+     * Test amounts with more decimals than the scale keep the total exact.
+     */
+    @Test
+    public void moreDecimalsThanScale() {
+        AmountAccumulator accumulator = new AmountAccumulator(2);
+        accumulator.addProduct(new BigDecimal("100.25"), new BigDecimal("0.5"), 200);
+        accumulator.addProduct(new BigDecimal("0.125"), new BigDecimal("0.001"), 1);
+
+        assertEquals(0, new BigDecimal("10025.000125").compareTo(accumulator.value()));
+    }
+
+    /**
+     * Test overflowing products and totals keep the total exact.
+     */
+    @Test
+    public void overflow() {
+        AmountAccumulator accumulator = new AmountAccumulator(6);
+        BigDecimal big = new BigDecimal("999999999999.999999");
+        accumulator.addProduct(big, big, Integer.MAX_VALUE);
+        accumulator.add(new BigDecimal("1"));
+
+        assertEquals(0, big.multiply(big).multiply(new BigDecimal(Integer.MAX_VALUE)).add(BigDecimal.ONE).compareTo(accumulator.value()));
+    }
+
+    /**
+     * Test merging accumulators of different scales.
+     */
+    @Test
+    public void addAccumulators() {
+        AmountAccumulator total = new AmountAccumulator(2);
+        AmountAccumulator other = new AmountAccumulator(4);
+        total.add(new BigDecimal("1.25"));
+        other.add(new BigDecimal("0.0001"));
+        total.add(other);
+
+        assertEquals(0, new BigDecimal("1.2501").compareTo(total.value()));
+        assertTrue(total.compareTo(other) > 0);
+    }
+}
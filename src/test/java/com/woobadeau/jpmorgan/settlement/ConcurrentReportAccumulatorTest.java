@@ -0,0 +1,227 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrentReportAccumulatorTest {
+
+    private static final int FEEDS = 4;
+
+    @Test
+    public void testConcurrentFeedsSameAsSequential() throws Exception {
+        List<Instruction> instructions = RandomInstructions.instructions(42, 20000);
+        ReportAccumulator sequential = new ReportAccumulator();
+        for (Instruction instruction : instructions) {
+            sequential.accept(instruction);
+        }
+
+        ConcurrentReportAccumulator accumulator = new ConcurrentReportAccumulator(2, -1);
+        ExecutorService feeds = Executors.newFixedThreadPool(FEEDS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int feed = 0; feed < FEEDS; feed++) {
+                int first = feed;
+                results.add(feeds.submit(() -> {
+                    for (int i = first; i < instructions.size(); i += FEEDS) {
+                        if (i % 100 == 0) {
+                            accumulator.acceptAll(instructions.subList(i, Math.min(i + 1, instructions.size())));
+                        } else {
+                            accumulator.accept(instructions.get(i));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            feeds.shutdown();
+        }
+
+        assertSameTotalsAndRanks(sequential.toReport(), accumulator.snapshot());
+    }
+
+    /**
+     * Compare two reports day by day and entity by entity.
+     * Entities are spelled as first seen, which depends on the order the feeds ran in: they are matched ignoring case, as reports do,
+     * while their amounts, the totals and the order of the ranks must be the same.
+     */
+    private static void assertSameTotalsAndRanks(SettlementReport expected, SettlementReport actual) {
+        assertEquals(expected.getDailyReports().keySet(), actual.getDailyReports().keySet());
+        for (Map.Entry<Date, DailyReport> day : expected.getDailyReports().entrySet()) {
+            DailyReport expectedDay = day.getValue();
+            DailyReport actualDay = actual.getDailyReports().get(day.getKey());
+            BigDecimal[] expectedTotals = expectedDay.getTotals();
+            BigDecimal[] actualTotals = actualDay.getTotals();
+            assertEquals(0, expectedTotals[0].compareTo(actualTotals[0]), day.getKey() + " incoming");
+            assertEquals(0, expectedTotals[1].compareTo(actualTotals[1]), day.getKey() + " outgoing");
+            Map<String, EntityReport> actualEntities = actualDay.getEntityReports();
+            assertEquals(expectedDay.getEntityReports().size(), actualEntities.size(), day.getKey() + " entities");
+            for (EntityReport expectedEntity : expectedDay.getEntityReports().values()) {
+                EntityReport actualEntity = actualEntities.get(expectedEntity.getEntity());
+                assertEquals(0, expectedEntity.getIncomingValue().compareTo(actualEntity.getIncomingValue()), day.getKey() + " " + expectedEntity.getEntity());
+                assertEquals(0, expectedEntity.getOutgoingValue().compareTo(actualEntity.getOutgoingValue()), day.getKey() + " " + expectedEntity.getEntity());
+            }
+            assertSameRanks(expectedDay.getIncomingRanks(), actualDay.getIncomingRanks());
+            assertSameRanks(expectedDay.getOutgoingRanks(), actualDay.getOutgoingRanks());
+        }
+    }
+
+    private static void assertSameRanks(List<String> expected, List<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(expected.get(i).equalsIgnoreCase(actual.get(i)), "rank " + i + ": " + expected + " " + actual);
+        }
+    }
+
+    @Test
+    public void testSnapshotsWhileFeeding() throws Exception {
+        List<Instruction> instructions = RandomInstructions.instructions(42, 20000);
+        ConcurrentReportAccumulator accumulator = new ConcurrentReportAccumulator(4, 2);
+        ExecutorService feeds = Executors.newFixedThreadPool(FEEDS);
+        try {
+            for (int feed = 0; feed < FEEDS; feed++) {
+                int first = feed;
+                feeds.submit(() -> {
+                    for (int i = first; i < instructions.size(); i += FEEDS) {
+                        accumulator.accept(instructions.get(i));
+                    }
+                    return null;
+                });
+            }
+            //Each snapshot holds all the instructions of the previous one
+            BigDecimal previous = BigDecimal.ZERO;
+            for (int i = 0; i < 20; i++) {
+                BigDecimal total = total(accumulator.snapshot());
+                assertTrue(total.compareTo(previous) >= 0);
+                previous = total;
+            }
+        } finally {
+            feeds.shutdown();
+            assertTrue(feeds.awaitTermination(1, TimeUnit.MINUTES));
+        }
+
+        ReportAccumulator sequential = new ReportAccumulator();
+        for (Instruction instruction : instructions) {
+            sequential.accept(instruction);
+        }
+        assertEquals(0, total(sequential.toReport()).compareTo(total(accumulator.snapshot())));
+    }
+
+    /**
+     * Test snapshots are consistent cuts: each feed alternates between two entities, a snapshot holding an instruction of a feed
+     * without an earlier one would give the second entity more than the first one, or the first one two more than the second one
+     */
+    @Test
+    public void testSnapshotsHoldPrefixesOfFeeds() throws Exception {
+        int pairs = 20000;
+        //More feeds than stripes, so that feeds move to stripes merged later than the one they left
+        int feedCount = FEEDS * 2;
+        ConcurrentReportAccumulator accumulator = new ConcurrentReportAccumulator(4, -1);
+        //Other instructions make the stripes long to merge, leaving the feeds time to move from stripe to stripe during a snapshot
+        ExecutorService feeds = Executors.newFixedThreadPool(feedCount);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int feed = 0; feed < feedCount; feed++) {
+                List<Instruction> others = RandomInstructions.instructions(feed, 5000, 3, null, 0);
+                results.add(feeds.submit(() -> {
+                    accumulator.acceptAll(others);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            results.clear();
+            for (int feed = 0; feed < feedCount; feed++) {
+                Instruction first = InstructionParser.parseLine("feed" + feed + "first B 1 GBP 01 Jan 2016 04 Jan 2016 1 1");
+                Instruction second = InstructionParser.parseLine("feed" + feed + "second B 1 GBP 01 Jan 2016 04 Jan 2016 1 1");
+                results.add(feeds.submit(() -> {
+                    for (int i = 0; i < pairs; i++) {
+                        accumulator.accept(first);
+                        accumulator.accept(second);
+                    }
+                    return null;
+                }));
+            }
+            boolean done = false;
+            while (!done) {
+                done = true;
+                for (Future<?> result : results) {
+                    done &= result.isDone();
+                }
+                Map<String, BigDecimal> amounts = amounts(accumulator.snapshot());
+                for (int feed = 0; feed < feedCount; feed++) {
+                    BigDecimal first = amounts.getOrDefault("FEED" + feed + "FIRST", BigDecimal.ZERO);
+                    BigDecimal second = amounts.getOrDefault("FEED" + feed + "SECOND", BigDecimal.ZERO);
+                    assertTrue(second.compareTo(first) <= 0 && first.compareTo(second.add(BigDecimal.ONE)) <= 0,
+                            "feed " + feed + ": " + first + " then " + second);
+                }
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            Map<String, BigDecimal> amounts = amounts(accumulator.snapshot());
+            assertEquals(0, BigDecimal.valueOf(pairs).compareTo(amounts.get("FEED0SECOND")));
+        } finally {
+            feeds.shutdown();
+        }
+    }
+
+    /**
+     * @return the outgoing amount of each entity, over all the days, by upper case entity
+     */
+    private static Map<String, BigDecimal> amounts(SettlementReport report) {
+        Map<String, BigDecimal> amounts = new HashMap<>();
+        for (DailyReport dailyReport : report.getDailyReports().values()) {
+            for (EntityReport entityReport : dailyReport.entityReports()) {
+                amounts.merge(entityReport.getEntity().toUpperCase(), entityReport.getOutgoingValue(), BigDecimal::add);
+            }
+        }
+        return amounts;
+    }
+
+    /**
+     * Test the snapshot of one day is the day of the full snapshot, and holds no other day
+     */
+    @Test
+    public void testDaySnapshot() throws Exception {
+        ConcurrentReportAccumulator accumulator = new ConcurrentReportAccumulator(4, -1);
+        for (Instruction instruction : RandomInstructions.instructions(3, 2000)) {
+            accumulator.accept(instruction);
+        }
+        SettlementReport snapshot = accumulator.snapshot();
+        for (Date settlementDate : snapshot.getDailyReports().keySet()) {
+            SettlementReport daySnapshot = accumulator.snapshot(settlementDate);
+            assertEquals(1, daySnapshot.getDayCount());
+            assertEquals(snapshot.toString(settlementDate), daySnapshot.toString(settlementDate));
+        }
+        assertEquals(0, accumulator.snapshot(new Date(0)).getDayCount());
+    }
+
+    private static BigDecimal total(SettlementReport report) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (DailyReport dailyReport : report.getDailyReports().values()) {
+            BigDecimal[] totals = dailyReport.getTotals();
+            total = total.add(totals[0]).add(totals[1]);
+        }
+        return total;
+    }
+}
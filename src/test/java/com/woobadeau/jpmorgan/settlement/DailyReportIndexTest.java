@@ -0,0 +1,89 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for DailyReportIndex.
+ */
+public class DailyReportIndexTest {
+
+    /**
+     * Test days are found after the index grew towards earlier and later days.
+     */
+    @Test
+    public void growsInBothDirections() {
+        DailyReportIndex index = new DailyReportIndex();
+        DailyReport middle = index.getOrCreate(17000);
+        DailyReport early = index.getOrCreate(16000);
+        DailyReport late = index.getOrCreate(18000);
+
+        assertSame(middle, index.getOrCreate(17000));
+        assertSame(early, index.get(16000));
+        assertSame(late, index.get(18000));
+        assertNull(index.get(16999));
+        assertNull(index.get(15000));
+        assertNull(index.get(19000));
+        assertEquals(3, index.size());
+        assertEquals(16000, index.firstDay());
+        assertEquals(18000, index.lastDay());
+    }
+
+    /**
+     * Test outlying days are kept apart from the dense days, whichever comes first, and still found in order.
+     */
+    @Test
+    public void outlyingDays() {
+        long yearOne = LocalDate.of(1, 1, 1).toEpochDay();
+        long year9999 = LocalDate.of(9999, 12, 31).toEpochDay();
+        DailyReportIndex index = new DailyReportIndex();
+        DailyReport first = index.getOrCreate(year9999);
+        DailyReport middle = index.getOrCreate(17000);
+        DailyReport early = index.getOrCreate(yearOne);
+        index.getOrCreate(17001);
+        index.getOrCreate(16990);
+
+        assertSame(first, index.getOrCreate(year9999));
+        assertSame(middle, index.get(17000));
+        assertSame(early, index.getOrCreate(yearOne));
+        assertNull(index.get(yearOne + 1));
+        assertEquals(5, index.size());
+        assertEquals(yearOne, index.firstDay());
+        assertEquals(year9999, index.lastDay());
+        List<Long> days = new ArrayList<>();
+        for (long day = index.firstDay(); day <= index.lastDay(); day = index.dayFrom(day + 1)) {
+            days.add(day);
+        }
+        assertEquals(Arrays.asList(yearOne, 16990L, 17000L, 17001L, year9999), days);
+
+        DailyReportIndex merged = new DailyReportIndex();
+        merged.getOrCreate(17000);
+        merged.merge(index);
+        assertEquals(5, merged.size());
+        assertNotNull(merged.get(yearOne));
+        assertNotNull(merged.get(year9999));
+    }
+
+    /**
+     * Test merging adds the days of the other index.
+     */
+    @Test
+    public void mergeAddsDays() {
+        DailyReportIndex index = new DailyReportIndex();
+        index.getOrCreate(17000);
+        DailyReportIndex other = new DailyReportIndex();
+        other.getOrCreate(17000);
+        other.getOrCreate(16990);
+
+        index.merge(other);
+        assertEquals(2, index.size());
+        assertEquals(16990, index.firstDay());
+        assertNotNull(index.get(16990));
+    }
+}
@@ -0,0 +1,46 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for EntityDictionary.
+ */
+public class EntityDictionaryTest {
+
+    /**
+     * Test entity ids ignore case and keep the first spelling seen.
+     */
+    @Test
+    public void idsIgnoreCase() {
+        EntityDictionary dictionary = new EntityDictionary();
+        int foo = dictionary.idOf("foo");
+        int bar = dictionary.idOf("Bar");
+
+        assertNotEquals(foo, bar);
+        assertEquals(foo, dictionary.idOf("FOO"));
+        assertEquals(foo, dictionary.idOf("fOo"));
+        assertEquals(bar, dictionary.idOf("bar"));
+        assertEquals("foo", dictionary.name(foo));
+        assertEquals("Bar", dictionary.name(bar));
+        assertEquals(2, dictionary.size());
+    }
+
+    /**
+     * Test daily reports keep the first spelling seen on their day.
+     */
+    @Test
+    public void dailyReportsKeepTheirSpelling() {
+        EntityDictionary dictionary = new EntityDictionary();
+        int id = dictionary.idOf("foo");
+        DailyReport firstDay = new DailyReport(dictionary, AmountAccumulator.DECIMAL_MODE);
+        DailyReport secondDay = new DailyReport(dictionary, AmountAccumulator.DECIMAL_MODE);
+        firstDay.getOrCreateEntityReport(id, "foo");
+        secondDay.getOrCreateEntityReport(dictionary.idOf("FOO"), "FOO");
+
+        assertSame(secondDay.getOrCreateEntityReport(id, "Foo"), secondDay.getEntityReports().get("foo"));
+        assertEquals("foo", firstDay.entityReports().get(0).getEntity());
+        assertEquals("FOO", secondDay.entityReports().get(0).getEntity());
+    }
+}
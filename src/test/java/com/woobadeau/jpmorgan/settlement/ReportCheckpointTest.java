@@ -0,0 +1,71 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReportCheckpointTest {
+
+    /**
+     * Entities spelled in several cases, the checkpoint must keep the spelling seen first
+     */
+    private static final String[] ENTITIES = {"foo", "FOO", "bar", "Bar", "baz"};
+
+    /**
+     * Test a run resumed from a checkpoint gives the same report as a single run over all the instructions
+     */
+    @Test
+    public void resumedSameAsSingleRun() throws Exception {
+        List<Instruction> instructions = RandomInstructions.instructions(11, 5000, ENTITIES, 1, "98765432109876543210.125", 500);
+        ReportAccumulator single = new ReportAccumulator();
+        for (Instruction instruction : instructions) {
+            single.accept(instruction);
+        }
+
+        File checkpoint = File.createTempFile("settlements", ".checkpoint");
+        checkpoint.deleteOnExit();
+        ReportAccumulator yesterday = new ReportAccumulator(2);
+        for (Instruction instruction : instructions.subList(0, 3000)) {
+            yesterday.accept(instruction);
+        }
+        yesterday.writeCheckpoint(checkpoint);
+
+        ReportAccumulator today = new ReportAccumulator();
+        today.readCheckpoint(checkpoint);
+        for (Instruction instruction : instructions.subList(3000, instructions.size())) {
+            today.accept(instruction);
+        }
+        assertEquals(single.toReport().toString(), today.toReport().toString());
+
+        //A checkpoint of a resumed run holds all the instructions again
+        today.writeCheckpoint(checkpoint);
+        ReportAccumulator tomorrow = new ReportAccumulator(4);
+        tomorrow.readCheckpoint(checkpoint);
+        assertEquals(single.toReport().toString(), tomorrow.toReport().toString());
+    }
+
+    @Test
+    public void corruptedCheckpoint() throws Exception {
+        File checkpoint = File.createTempFile("settlements", ".checkpoint");
+        checkpoint.deleteOnExit();
+        ReportAccumulator accumulator = new ReportAccumulator();
+        for (Instruction instruction : RandomInstructions.instructions(11, 100, ENTITIES, 1, "98765432109876543210.125", 500)) {
+            accumulator.accept(instruction);
+        }
+        accumulator.writeCheckpoint(checkpoint);
+        byte[] bytes = Files.readAllBytes(checkpoint.toPath());
+        Files.write(checkpoint.toPath(), Arrays.copyOf(bytes, bytes.length - 10));
+        assertThrows(IOException.class, () -> new ReportAccumulator().readCheckpoint(checkpoint));
+        Files.write(checkpoint.toPath(), "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25\n".getBytes());
+        assertThrows(IOException.class, () -> new ReportAccumulator().readCheckpoint(checkpoint));
+    }
+}
@@ -0,0 +1,86 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReportWriterTest {
+
+    private static SettlementReport report() throws Exception {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        accumulator.accept(InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 04 Jan 2016 200 100.25"));
+        accumulator.accept(InstructionParser.parseLine("bar S 1 SGP 01 Jan 2016 04 Jan 2016 10 1.5"));
+        accumulator.accept(InstructionParser.parseLine("foo S 1 SGP 01 Jan 2016 04 Jan 2016 1 2"));
+        accumulator.accept(InstructionParser.parseLine("a,\"b S 1 SGP 01 Jan 2016 05 Jan 2016 1 3", " ", null));
+        return accumulator.toReport();
+    }
+
+    private static String write(ReportFormat format, SettlementReport report) throws Exception {
+        StringWriter out = new StringWriter();
+        format.writer(out).write(report);
+        return out.toString();
+    }
+
+    @Test
+    public void textSameAsToString() throws Exception {
+        SettlementReport report = report();
+        assertEquals(report.toString(), write(ReportFormat.TEXT, report));
+        assertEquals("Settlement Report :\nOn 04 Jan 2016:\n", report.toString().substring(0, 36));
+    }
+
+    @Test
+    public void csvReport() throws Exception {
+        assertEquals("date,entity,incoming,outgoing,incomingRank,outgoingRank\n" +
+                        "2016-01-04,foo,2.00,10025.00,1,2\n" +
+                        "2016-01-04,bar,15.00,0.00,2,1\n" +
+                        "2016-01-05,\"a,\"\"b\",3.00,0.00,1,1\n",
+                write(ReportFormat.CSV, report()));
+    }
+
+    /**
+     * Test amounts of CSV and JSON reports are exact, not rounded to cents as in the text report
+     */
+    @Test
+    public void exactAmounts() throws Exception {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        accumulator.accept(InstructionParser.parseLine("foo B 1 SGP 01 Jan 2016 04 Jan 2016 1 0.125"));
+        accumulator.accept(InstructionParser.parseLine("foo S 0.5 SGP 01 Jan 2016 04 Jan 2016 1 5"));
+        SettlementReport report = accumulator.toReport();
+        assertEquals("date,entity,incoming,outgoing,incomingRank,outgoingRank\n2016-01-04,foo,2.50,0.125,1,1\n", write(ReportFormat.CSV, report));
+        assertEquals("{\"days\":[\n" +
+                        "{\"date\":\"2016-01-04\",\"incoming\":2.50,\"outgoing\":0.125,\"entities\":[" +
+                        "{\"entity\":\"foo\",\"incoming\":2.50,\"outgoing\":0.125,\"incomingRank\":1,\"outgoingRank\":1}]}\n" +
+                        "]}\n",
+                write(ReportFormat.JSON, report));
+    }
+
+    @Test
+    public void jsonReport() throws Exception {
+        assertEquals("{\"days\":[\n" +
+                        "{\"date\":\"2016-01-04\",\"incoming\":17.00,\"outgoing\":10025.00,\"entities\":[" +
+                        "{\"entity\":\"foo\",\"incoming\":2.00,\"outgoing\":10025.00,\"incomingRank\":1,\"outgoingRank\":2}," +
+                        "{\"entity\":\"bar\",\"incoming\":15.00,\"outgoing\":0.00,\"incomingRank\":2,\"outgoingRank\":1}]},\n" +
+                        "{\"date\":\"2016-01-05\",\"incoming\":3.00,\"outgoing\":0.00,\"entities\":[" +
+                        "{\"entity\":\"a,\\\"b\",\"incoming\":3.00,\"outgoing\":0.00,\"incomingRank\":1,\"outgoingRank\":1}]}\n" +
+                        "]}\n",
+                write(ReportFormat.JSON, report()));
+        assertEquals("{\"days\":[]}\n", write(ReportFormat.JSON, new ReportAccumulator().toReport()));
+    }
+
+    @Test
+    public void singleDay() throws Exception {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd");
+        SettlementReport report = report();
+        StringWriter out = new StringWriter();
+        ReportFormat.JSON.writer(out).write(report, formatter.parse("20160106"));
+        assertEquals("{\"date\":\"2016-01-06\",\"incoming\":0.00,\"outgoing\":0.00,\"entities\":[]}\n", out.toString());
+        assertEquals("No settlement on 06 Jan 2016\n", report.toString(formatter.parse("20160106")));
+        out = new StringWriter();
+        ReportFormat.CSV.writer(out).write(report, formatter.parse("20160105"));
+        assertEquals("date,entity,incoming,outgoing,incomingRank,outgoingRank\n2016-01-05,\"a,\"\"b\",3.00,0.00,1,1\n", out.toString());
+    }
+}
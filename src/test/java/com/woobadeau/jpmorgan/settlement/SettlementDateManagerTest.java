@@ -2,12 +2,18 @@ package com.woobadeau.jpmorgan.settlement;
 
 import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
 import com.woobadeau.jpmorgan.exception.SettlementException;
+import com.woobadeau.jpmorgan.transaction.EpochDays;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -193,6 +199,121 @@ public class SettlementDateManagerTest {
         Assertions.assertThrows(SettlementException.class, () -> settlementDateManager.dateSettled(MONDAY, "NONE"));
     }
 
+    /**
+     * Test settlement on epoch days gives the same days as com.woobadeau.jpmorgan.settlement.SettlementDateManager#dateSettled(java.util.Date, java.lang.String)
+     */
+    @Test
+    public void epochDaySettlementSameAsDateSettlement() throws SettlementConfigurationException, SettlementException {
+        SettlementDateManager settlementDateManager = SettlementDateManager.getInstance();
+        Date[] week = {MONDAY, TUESDAY, WEDNESDAY, THURSDAY, FRIDAY, SATURDAY, SUNDAY};
+        for (String currency : new String[]{"AED", "SAR", "XXX"}) {
+            int currencyId = settlementDateManager.currencyId(currency);
+            for (Date date : week) {
+                assertEquals(EpochDays.of(settlementDateManager.dateSettled(date, currency)),
+                        settlementDateManager.settledEpochDay(EpochDays.of(date), currencyId));
+            }
+        }
+    }
+
+    /**
+     * Test batch settlement of epoch days
+     */
+    @Test
+    public void batchEpochDaySettlement() throws SettlementConfigurationException, SettlementException {
+        SettlementDateManager settlementDateManager = SettlementDateManager.getInstance();
+        long[] days = {EpochDays.of(FRIDAY), EpochDays.of(SATURDAY), EpochDays.of(SUNDAY)};
+        int[] currencies = {settlementDateManager.currencyId("AED"), settlementDateManager.currencyId("XXX"), settlementDateManager.currencyId("XXX")};
+        long[] settled = new long[3];
+        settlementDateManager.settledEpochDays(days, currencies, settled, 3);
+        assertArrayEquals(new long[]{EpochDays.of(SUNDAY), EpochDays.of(NEXT_MONDAY), EpochDays.of(NEXT_MONDAY)}, settled);
+    }
+
+    /**
+     * Test a configuration that cannot be loaded leaves the current one in place, and loaded configurations cannot be modified
+     */
+    @Test
+    public void failedSetupKeepsConfiguration() throws SettlementConfigurationException {
+        SettlementDateManager settlementDateManager = SettlementDateManager.getInstance();
+        assertThrows(SettlementConfigurationException.class, () -> SettlementDateManager.setup(
+                new ByteArrayInputStream("currency.default=Monday".getBytes(StandardCharsets.UTF_8))));
+        assertSame(settlementDateManager, SettlementDateManager.getInstance());
+        assertThrows(UnsupportedOperationException.class, () -> settlementDateManager.currencyDaySettlement.remove("AED"));
+        assertThrows(UnsupportedOperationException.class, () -> settlementDateManager.defaultDaySettlement.add(Calendar.SUNDAY));
+    }
+
+    /**
+     * Test the configuration file is reloaded when it changes
+     */
+    @Test
+    public void watcherReloadsConfiguration() throws Exception {
+        Path directory = Files.createTempDirectory("settlement");
+        Path file = directory.resolve("currency_setup.properties");
+        Files.write(file, "currency.default=2,3,4,5,6".getBytes(StandardCharsets.UTF_8));
+        SettlementDateManager.setup(Files.newInputStream(file));
+        assertEquals(NEXT_MONDAY, SettlementDateManager.getInstance().dateSettled(SATURDAY, "GBP"));
+
+        SettlementConfigurationWatcher watcher = new SettlementConfigurationWatcher(file);
+        try {
+            Path update = directory.resolve("update.properties");
+            Files.write(update, "currency.default=1,2,3,4,5,6,7".getBytes(StandardCharsets.UTF_8));
+            Files.move(update, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long deadline = System.currentTimeMillis() + 30000;
+            while (!SATURDAY.equals(SettlementDateManager.getInstance().dateSettled(SATURDAY, "GBP")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(SATURDAY, SettlementDateManager.getInstance().dateSettled(SATURDAY, "GBP"));
+        } finally {
+            watcher.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+            reset();
+        }
+    }
+
+    /**
+     * Test holidays are skipped within the calendar years, and ignored outside of them
+     */
+    @Test
+    public void holidaysSkipped() throws SettlementConfigurationException, SettlementException, ParseException {
+        SettlementDateManager settlementDateManager = SettlementDateManager.setup(SettlementDateManagerTest.class.getResourceAsStream("/testHolidays.properties"));
+
+        //AED: Sunday 12 and Monday 13 are holidays
+        assertEquals(formatter.parse("20180814"), settlementDateManager.dateSettled(FRIDAY, "AED"));
+        assertEquals(formatter.parse("20180814"), settlementDateManager.dateSettled(SUNDAY, "AED"));
+        assertEquals(WEDNESDAY, settlementDateManager.dateSettled(WEDNESDAY, "AED"));
+
+        //Default: Friday 10 is a holiday
+        assertEquals(NEXT_MONDAY, settlementDateManager.dateSettled(FRIDAY, "GBP"));
+        assertEquals(THURSDAY, settlementDateManager.dateSettled(THURSDAY, "GBP"));
+
+        //JPY: default days with its own holidays, Friday 10 is not one of them
+        assertEquals(FRIDAY, settlementDateManager.dateSettled(FRIDAY, "JPY"));
+        assertEquals(formatter.parse("20180814"), settlementDateManager.dateSettled(SATURDAY, "JPY"));
+
+        //SAR: its own settlement days with the default holidays, Sunday 12 is one of them
+        assertEquals(NEXT_MONDAY, settlementDateManager.dateSettled(SATURDAY, "SAR"));
+        assertEquals(NEXT_MONDAY, settlementDateManager.dateSettled(SUNDAY, "SAR"));
+        assertEquals(THURSDAY, settlementDateManager.dateSettled(THURSDAY, "SAR"));
+
+        //Monday 31 December is a holiday, the next business day is after the calendar years
+        assertEquals(formatter.parse("20190101"), settlementDateManager.dateSettled(formatter.parse("20181229"), "GBP"));
+        //Outside of the calendar years only days of week are considered
+        assertEquals(formatter.parse("20190102"), settlementDateManager.dateSettled(formatter.parse("20190102"), "GBP"));
+    }
+
+    /**
+     * Test malformed holidays are rejected
+     */
+    @Test
+    public void malformedHolidays() {
+        assertThrows(SettlementConfigurationException.class, () -> SettlementDateManager.setup(
+                new ByteArrayInputStream("currency.default=2,3,4,5,6\ncurrency.default.holidays=2016-12-25".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(SettlementConfigurationException.class, () -> SettlementDateManager.setup(
+                new ByteArrayInputStream("currency.holidays.JPY=20161225".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(SettlementConfigurationException.class, () -> SettlementDateManager.setup(
+                new ByteArrayInputStream("currency.default=2,3,4,5,6\ncurrency.calendarYears=2020".getBytes(StandardCharsets.UTF_8))));
+    }
+
     private void assertCanSettleOnSameDay(Date date, String currency) throws SettlementConfigurationException, SettlementException {
         Date dateSettled = SettlementDateManager.getInstance().dateSettled(date, currency);
         assertEquals(date, dateSettled);
@@ -0,0 +1,154 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionDeduplicator;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import com.woobadeau.jpmorgan.transaction.RejectReason;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SettlementFileBatchTest {
+
+    /**
+     * Entities spelled in several cases, files merged in order must keep the spelling seen first
+     */
+    private static final String[] ENTITIES = {"foo", "FOO", "bar", "Bar", "baz"};
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Test files read concurrently give the same report as the files read one after the other, and failures are reported per file
+     */
+    @Test
+    public void sameAsSequentialRead() throws Exception {
+        Path directory = Files.createTempDirectory("settlements");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ReportAccumulator sequential = new ReportAccumulator();
+            List<File> files = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                List<String> lines = RandomInstructions.lines(i, 1000 + i * 100, ENTITIES, 1, null, 0);
+                for (String line : lines) {
+                    sequential.accept(InstructionParser.parseLine(line));
+                }
+                Path file = directory.resolve("desk" + i + ".txt");
+                Files.write(file, lines, StandardCharsets.UTF_8);
+                files.add(file.toFile());
+            }
+            Path broken = directory.resolve("broken.txt");
+            Files.write(broken, Arrays.asList("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25", "not an instruction"), StandardCharsets.UTF_8);
+
+            SettlementFileBatch batch = new SettlementFileBatch(null, null, 2);
+            ReportAccumulator accumulator = new ReportAccumulator();
+            List<SettlementFileBatch.FileResult> results = batch.accumulate(files, accumulator, executor);
+            assertEquals(sequential.toReport().toString(), accumulator.toReport().toString());
+            assertEquals(6, results.size());
+            assertEquals(1000, results.get(0).getInstructions());
+            assertNull(results.get(5).getFailure());
+
+            List<File> withBroken = new ArrayList<>(files);
+            withBroken.add(2, broken.toFile());
+            accumulator = new ReportAccumulator();
+            results = batch.accumulate(withBroken, accumulator, executor);
+            assertEquals(sequential.toReport().toString(), accumulator.toReport().toString());
+            assertTrue(results.get(2).getFailure() instanceof InstructionParsingException);
+            assertEquals(0, results.get(2).getInstructions());
+        } finally {
+            executor.shutdown();
+            delete(directory);
+        }
+    }
+
+    /**
+     * Test instructions of a failed file are still aggregated from the files replaying them, and replays of other files are skipped
+     */
+    @Test
+    public void deduplicatedWithFailedFile() throws Exception {
+        Path directory = Files.createTempDirectory("settlements");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<String> lines = RandomInstructions.lines(5, 3000);
+            ReportAccumulator expected = new ReportAccumulator();
+            InstructionDeduplicator distinct = new InstructionDeduplicator();
+            for (String line : lines) {
+                Instruction instruction = InstructionParser.parseLine(line);
+                if (distinct.add(instruction)) {
+                    expected.accept(instruction);
+                }
+            }
+            List<String> failing = new ArrayList<>(lines);
+            failing.add("not an instruction");
+            List<File> files = new ArrayList<>();
+            for (List<String> fileLines : Arrays.asList(failing, lines, lines, failing, lines)) {
+                Path file = directory.resolve("desk" + files.size() + ".txt");
+                Files.write(file, fileLines, StandardCharsets.UTF_8);
+                files.add(file.toFile());
+            }
+
+            InstructionDeduplicator deduplicator = new InstructionDeduplicator();
+            ReportAccumulator accumulator = new ReportAccumulator();
+            List<SettlementFileBatch.FileResult> results = new SettlementFileBatch(null, null, -1, deduplicator).accumulate(files, accumulator, executor);
+            assertEquals(expected.toReport().toString(), accumulator.toReport().toString());
+            assertNotNull(results.get(0).getFailure());
+            assertNotNull(results.get(3).getFailure());
+            assertEquals(distinct.size(), deduplicator.size());
+            assertEquals(distinct.duplicates() + 2L * lines.size(), deduplicator.duplicates());
+
+            //Lines rejected by a file read again are only written once
+            ByteArrayOutputStream rejected = new ByteArrayOutputStream();
+            InstructionRejects rejects = new InstructionRejects(rejected, StandardCharsets.UTF_8);
+            accumulator = new ReportAccumulator();
+            results = new SettlementFileBatch(null, null, -1, new InstructionDeduplicator(), rejects)
+                    .accumulate(Arrays.asList(files.get(0), files.get(1), files.get(3)), accumulator, executor);
+            assertEquals(expected.toReport().toString(), accumulator.toReport().toString());
+            assertNull(results.get(0).getFailure());
+            assertEquals(2, rejects.count(RejectReason.FIELD_COUNT));
+        } finally {
+            executor.shutdown();
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void resolveFiles() throws Exception {
+        Path directory = Files.createTempDirectory("settlements");
+        try {
+            Files.createDirectories(directory.resolve("desk1"));
+            Files.createDirectories(directory.resolve("desk2"));
+            for (String name : Arrays.asList("b.txt", "a.txt", ".hidden", "c.csv", "desk1/x.txt", "desk2/y.txt")) {
+                Files.write(directory.resolve(name), new byte[0]);
+            }
+            assertEquals(Arrays.asList(directory.resolve("a.txt").toFile(), directory.resolve("b.txt").toFile(), directory.resolve("c.csv").toFile()),
+                    SettlementFileBatch.resolve(directory.toString()));
+            assertEquals(Arrays.asList(directory.resolve("a.txt").toFile(), directory.resolve("b.txt").toFile()),
+                    SettlementFileBatch.resolve(directory + "/*.txt"));
+            assertEquals(Arrays.asList(directory.resolve("desk1/x.txt").toFile(), directory.resolve("desk2/y.txt").toFile()),
+                    SettlementFileBatch.resolve(directory + "/desk*/*.txt"));
+            assertThrows(IOException.class, () -> SettlementFileBatch.resolve(directory + "/*.xml"));
+        } finally {
+            delete(directory);
+        }
+    }
+}
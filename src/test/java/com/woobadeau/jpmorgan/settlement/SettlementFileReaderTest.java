@@ -0,0 +1,98 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import com.woobadeau.jpmorgan.transaction.RejectReason;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SettlementFileReaderTest {
+
+    /**
+     * Test a file gives the same report whether it is mapped, pipelined, compressed or split with a regular expression
+     */
+    @Test
+    public void sameReportWhateverTheRead() throws Exception {
+        List<String> lines = RandomInstructions.lines(11, 2000);
+        ReportAccumulator sequential = new ReportAccumulator();
+        for (String line : lines) {
+            sequential.accept(InstructionParser.parseLine(line));
+        }
+        String expected = sequential.toReport().toString();
+        File plain = write(lines, ".txt", false);
+        File compressed = write(lines, ".txt.gz", true);
+        File semicolons = write(semicolons(lines), ".txt.gz", true);
+        try {
+            assertEquals(expected, read(new SettlementFileReader(null, null, 1, false, null), plain, lines.size()));
+            assertEquals(expected, read(new SettlementFileReader(null, null, 2, true, null), plain, lines.size()));
+            assertEquals(expected, read(new SettlementFileReader(null, null, 1, false, null), compressed, lines.size()));
+            assertEquals(expected, read(new SettlementFileReader("[;]", null, 1, false, null), semicolons, lines.size()));
+        } finally {
+            plain.delete();
+            compressed.delete();
+            semicolons.delete();
+        }
+    }
+
+    /**
+     * Test malformed lines are rejected by the line parser used for separators that are regular expressions
+     */
+    @Test
+    public void lenientRegularExpression() throws Exception {
+        List<String> lines = RandomInstructions.lines(5, 100);
+        lines.set(10, "foo B 0.50 SGP 01 Jan 2016");
+        lines.set(20, "foo X 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25");
+        File file = write(semicolons(lines), ".txt", false);
+        try {
+            InstructionRejects rejects = new InstructionRejects(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+            ReportAccumulator accumulator = new ReportAccumulator();
+            assertEquals(98, new SettlementFileReader("[;]", null, 1, false, rejects).read(file, accumulator::accept));
+            assertEquals(1, rejects.count(RejectReason.FIELD_COUNT));
+            assertEquals(1, rejects.count(RejectReason.DIRECTION));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the lines with their fields separated by semicolons, dates keeping their spaces
+     */
+    private static List<String> semicolons(List<String> lines) {
+        List<String> converted = new ArrayList<>();
+        for (String line : lines) {
+            String[] fields = line.split(" ");
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < fields.length; i++) {
+                boolean inDate = i == 5 || i == 6 || i == 8 || i == 9;
+                builder.append(i == 0 ? "" : inDate ? " " : ";").append(fields[i]);
+            }
+            converted.add(builder.toString());
+        }
+        return converted;
+    }
+
+    private static String read(SettlementFileReader reader, File file, int instructions) throws Exception {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        assertEquals(instructions, reader.read(file, accumulator::accept));
+        return accumulator.toReport().toString();
+    }
+
+    private static File write(List<String> lines, String suffix, boolean gzip) throws Exception {
+        File file = File.createTempFile("settlements", suffix);
+        try (OutputStream output = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+            output.write(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,119 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import com.woobadeau.jpmorgan.transaction.InstructionRejects;
+import com.woobadeau.jpmorgan.transaction.RejectReason;
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SettlementPipelineTest {
+
+    /**
+     * Entities spelled in several cases, parsers must hand them in file order to keep the spelling seen first
+     */
+    private static final String[] ENTITIES = {"foo", "FOO", "bar", "Bar", "baz"};
+
+    /**
+     * Test the pipeline gives the same report as a sequential read, with blocks smaller than some lines and no line end at the end of the file
+     */
+    @Test
+    public void sameAsSequentialRead() throws Exception {
+        List<String> lines = RandomInstructions.lines(7, 5000, ENTITIES, 1, null, 0);
+        ReportAccumulator sequential = new ReportAccumulator();
+        for (String line : lines) {
+            sequential.accept(InstructionParser.parseLine(line));
+        }
+        File file = File.createTempFile("settlements", ".txt");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Files.write(file.toPath(), String.join("\r\n", lines).getBytes(StandardCharsets.UTF_8));
+            for (int parsers = 1; parsers <= 3; parsers++) {
+                for (int blockSize : new int[]{16, 1000, 1 << 20}) {
+                    ReportAccumulator accumulator = new ReportAccumulator();
+                    long instructions = new SettlementPipeline(null, null, parsers, null, blockSize, 2).accumulate(file, accumulator, executor);
+                    assertEquals(lines.size(), instructions);
+                    assertEquals(sequential.toReport().toString(), accumulator.toReport().toString(), parsers + " parsers, blocks of " + blockSize);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    /**
+     * Test a gzip compressed file gives the same report as the plain one
+     */
+    @Test
+    public void compressedFile() throws Exception {
+        List<String> lines = RandomInstructions.lines(3, 5000, ENTITIES, 1, null, 0);
+        ReportAccumulator sequential = new ReportAccumulator();
+        for (String line : lines) {
+            sequential.accept(InstructionParser.parseLine(line));
+        }
+        File file = File.createTempFile("settlements", ".txt.gz");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+            ReportAccumulator accumulator = new ReportAccumulator();
+            assertEquals(lines.size(), new SettlementPipeline(null, null, 2, null, 4096, 2).accumulate(file, accumulator, executor));
+            assertEquals(sequential.toReport().toString(), accumulator.toReport().toString());
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    /**
+     * Test the first malformed line fails the pipeline, and lenient pipelines skip it
+     */
+    @Test
+    public void malformedLines() throws Exception {
+        List<String> lines = RandomInstructions.lines(11, 2000, ENTITIES, 1, null, 0);
+        ReportAccumulator sequential = new ReportAccumulator();
+        for (String line : lines) {
+            sequential.accept(InstructionParser.parseLine(line));
+        }
+        lines.add(1500, "not an instruction");
+        lines.add(700, "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1x");
+        File file = File.createTempFile("settlements", ".txt");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+            InstructionParsingException exception = assertThrows(InstructionParsingException.class,
+                    () -> new SettlementPipeline(null, null, 2, null, 512, 2).accumulate(file, new ReportAccumulator(), executor));
+            assertTrue(exception.getMessage().contains("200 1x"), exception.getMessage());
+
+            ByteArrayOutputStream rejected = new ByteArrayOutputStream();
+            InstructionRejects rejects = new InstructionRejects(rejected, StandardCharsets.UTF_8);
+            ReportAccumulator accumulator = new ReportAccumulator();
+            assertEquals(2000, new SettlementPipeline(null, null, 2, rejects, 512, 2).accumulate(file, accumulator, executor));
+            assertEquals(sequential.toReport().toString(), accumulator.toReport().toString());
+            assertEquals(1, rejects.count(RejectReason.PRICE));
+            assertEquals(1, rejects.count(RejectReason.FIELD_COUNT));
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+}
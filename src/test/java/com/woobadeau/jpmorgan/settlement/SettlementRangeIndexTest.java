@@ -0,0 +1,140 @@
+package com.woobadeau.jpmorgan.settlement;
+
+import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SettlementRangeIndexTest {
+
+    /**
+     * Entities spelled in several cases, and more of them than the top lists asked for so that ranks are cut
+     */
+    private static final String[] ENTITIES = {"foo", "FOO", "bar", "Bar", "baz", "qux", "quux"};
+
+    private static SettlementReport report(int count, long seed, int fixedPointScale) throws Exception {
+        ReportAccumulator accumulator = new ReportAccumulator(fixedPointScale);
+        for (Instruction instruction : RandomInstructions.instructions(seed, count, ENTITIES, 3, null, 0)) {
+            accumulator.accept(instruction);
+        }
+        return accumulator.toReport();
+    }
+
+    /**
+     * Sum the amounts of each entity over the range by scanning the daily reports, upper case names as keys
+     */
+    private static Map<String, BigDecimal> scan(SettlementReport report, long firstDay, long lastDay, boolean incoming) {
+        Map<String, BigDecimal> amounts = new HashMap<>();
+        for (long day = firstDay; day <= lastDay; day++) {
+            DailyReport dailyReport = report.getDailyReport(day);
+            if (dailyReport != null) {
+                for (EntityReport entityReport : dailyReport.entityReports()) {
+                    amounts.merge(entityReport.getEntity().toUpperCase(),
+                            incoming ? entityReport.getIncomingValue() : entityReport.getOutgoingValue(), BigDecimal::add);
+                }
+            }
+        }
+        return amounts;
+    }
+
+    private static void assertSameAmount(BigDecimal expected, BigDecimal actual, String message) {
+        assertEquals(0, expected.compareTo(actual), message + ": expected " + expected + " but was " + actual);
+    }
+
+    private static void assertRanges(SettlementReport report) {
+        SettlementRangeIndex index = report.rangeIndex();
+        Random random = new Random(3);
+        long first = report.firstDay() - 5;
+        long span = report.lastDay() - report.firstDay() + 10;
+        for (int query = 0; query < 300; query++) {
+            long from = first + random.nextInt((int) span);
+            long to = from + random.nextInt((int) span) - 5;
+            String range = from + ".." + to;
+            for (boolean incoming : new boolean[]{true, false}) {
+                Map<String, BigDecimal> expected = scan(report, from, to, incoming);
+                BigDecimal total = BigDecimal.ZERO;
+                for (BigDecimal amount : expected.values()) {
+                    total = total.add(amount);
+                }
+                assertSameAmount(total, incoming ? index.totalIncoming(from, to) : index.totalOutgoing(from, to), range);
+                for (String entity : new String[]{"foo", "Bar", "BAZ", "qux", "quux", "unknown"}) {
+                    BigDecimal amount = expected.getOrDefault(entity.toUpperCase(), BigDecimal.ZERO);
+                    assertSameAmount(amount, incoming ? index.incoming(entity, from, to) : index.outgoing(entity, from, to), entity + " " + range);
+                }
+                List<String> top = incoming ? index.topIncoming(from, to, 3) : index.topOutgoing(from, to, 3);
+                List<Map.Entry<String, BigDecimal>> best = new ArrayList<>();
+                for (Map.Entry<String, BigDecimal> entry : expected.entrySet()) {
+                    if (entry.getValue().signum() != 0) {
+                        best.add(entry);
+                    }
+                }
+                best.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+                assertEquals(Math.min(3, best.size()), top.size(), range);
+                for (int i = 0; i < top.size(); i++) {
+                    assertSameAmount(best.get(i).getValue(), expected.get(top.get(i).toUpperCase()), "rank " + i + " " + range);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test range totals, entity amounts and top entities are the ones found by scanning the daily reports
+     */
+    @Test
+    public void sameAsScan() throws Exception {
+        assertRanges(report(3000, 5, AmountAccumulator.DECIMAL_MODE));
+        assertRanges(report(3000, 6, 4));
+    }
+
+    /**
+     * Test entities with the same amount are ranked alphabetically, and an empty report answers zero
+     */
+    @Test
+    public void tiesAndEmptyReport() throws Exception {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        for (String entity : new String[]{"zeta", "alpha", "mid"}) {
+            accumulator.accept(InstructionParser.parseLine(entity + " S 1 SGP 01 Jan 2016 05 Jan 2016 10 10"));
+        }
+        accumulator.accept(InstructionParser.parseLine("mid S 1 SGP 01 Jan 2016 12 Jan 2016 1 1"));
+        SettlementRangeIndex index = accumulator.toReport().rangeIndex();
+        long day = accumulator.toReport().firstDay();
+        assertEquals(Arrays.asList("alpha", "mid", "zeta"), index.topIncoming(day, day, 5));
+        assertEquals(Arrays.asList("mid", "alpha"), index.topIncoming(day, day + 30, 2));
+        assertEquals(Collections.emptyList(), index.topOutgoing(day, day + 30, 2));
+        assertSameAmount(new BigDecimal(301), index.totalIncoming(Long.MIN_VALUE, Long.MAX_VALUE), "total");
+        assertSameAmount(new BigDecimal(101), index.incoming("MID", Long.MIN_VALUE, Long.MAX_VALUE), "mid");
+
+        SettlementRangeIndex empty = new ReportAccumulator().toReport().rangeIndex();
+        assertSameAmount(BigDecimal.ZERO, empty.totalIncoming(Long.MIN_VALUE, Long.MAX_VALUE), "empty");
+        assertSameAmount(BigDecimal.ZERO, empty.outgoing("foo", 0, 100), "empty");
+        assertEquals(Collections.emptyList(), empty.topIncoming(0, 100, 3));
+    }
+
+    /**
+     * Test days thousands of years apart are summed without spanning the days between them
+     */
+    @Test
+    public void outlyingDays() throws Exception {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        accumulator.accept(InstructionParser.parseLine("foo S 1 SGP 01 Jan 0001 01 Jan 0001 1 1"));
+        accumulator.accept(InstructionParser.parseLine("foo S 1 SGP 01 Jan 2016 05 Jan 2016 1 10"));
+        accumulator.accept(InstructionParser.parseLine("bar S 1 SGP 01 Jan 9999 01 Jan 9999 1 100"));
+        SettlementReport report = accumulator.toReport();
+        SettlementRangeIndex index = report.rangeIndex();
+        assertSameAmount(new BigDecimal(111), index.totalIncoming(Long.MIN_VALUE, Long.MAX_VALUE), "total");
+        assertSameAmount(new BigDecimal(11), index.incoming("foo", Long.MIN_VALUE, report.firstDay() + 1000000), "foo");
+        assertSameAmount(new BigDecimal(110), index.totalIncoming(report.firstDay() + 1, report.lastDay()), "after the first day");
+        assertEquals(Arrays.asList("bar", "foo"), index.topIncoming(Long.MIN_VALUE, Long.MAX_VALUE, 2));
+    }
+}
@@ -3,16 +3,27 @@ package com.woobadeau.jpmorgan.settlement;
 import com.woobadeau.jpmorgan.exception.SettlementConfigurationException;
 import com.woobadeau.jpmorgan.exception.SettlementException;
 import com.woobadeau.jpmorgan.transaction.Instruction;
+import com.woobadeau.jpmorgan.transaction.InstructionColumnsReader;
+import com.woobadeau.jpmorgan.transaction.InstructionColumnsWriter;
+import com.woobadeau.jpmorgan.transaction.InstructionParser;
 import com.woobadeau.jpmorgan.transaction.PresetInstructions;
+import com.woobadeau.jpmorgan.transaction.RandomInstructions;
+import com.woobadeau.jpmorgan.transaction.TransactionDirection;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -109,6 +120,86 @@ public class SettlementReportManagerTest {
         assertEquals(0, foo.getOutgoingValue().doubleValue());
     }
 
+    @Test
+    public void testIncrementalAccumulationMatchesSetReport() throws SettlementConfigurationException, SettlementException {
+        Set<Instruction> instructions = new HashSet<Instruction>() {{
+            add(PresetInstructions.INSTRUCTION_1);
+            add(PresetInstructions.INSTRUCTION_4);
+            add(PresetInstructions.INSTRUCTION_5);
+        }};
+        ReportAccumulator accumulator = new ReportAccumulator();
+        accumulator.accept(PresetInstructions.INSTRUCTION_1);
+        accumulator.accept(PresetInstructions.INSTRUCTION_4);
+        accumulator.accept(PresetInstructions.INSTRUCTION_5);
+
+        assertEquals(SettlementReportManager.createReport(instructions).toString(), accumulator.toReport().toString());
+        assertEquals(accumulator.toReport().toString(), SettlementReportManager.createReport(Arrays.asList(
+                PresetInstructions.INSTRUCTION_1, PresetInstructions.INSTRUCTION_4, PresetInstructions.INSTRUCTION_5).iterator()).toString());
+    }
+
+    @Test
+    public void testParallelReportSameAsSequential() throws Exception {
+        File file = File.createTempFile("settlements", ".txt");
+        file.deleteOnExit();
+        //Entities spelled in several cases, the chunks being merged in file order keep the spelling seen first
+        String[] entities = {"foo", "FOO", "bar", "Bar", "baz", "qux"};
+        Files.write(file.toPath(), RandomInstructions.lines(42, 60000, entities, 1, null, 0), StandardCharsets.UTF_8);
+
+        ReportAccumulator accumulator = new ReportAccumulator();
+        Scanner scanner = new Scanner(file);
+        while (scanner.hasNextLine()) {
+            accumulator.accept(InstructionParser.parseLine(scanner.nextLine()));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(accumulator.toReport().toString(), SettlementReportManager.createReport(file, null, null, pool).toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testColumnarReportSameAsText() throws Exception {
+        File file = File.createTempFile("settlements", ".col");
+        file.deleteOnExit();
+        ReportAccumulator accumulator = new ReportAccumulator();
+        //Two spellings of foo, distinct entities of the file, folded into one entity of the report
+        String[] entities = {"foo", "FOO", "bar", "baz"};
+        try (InstructionColumnsWriter writer = new InstructionColumnsWriter(file)) {
+            for (Instruction instruction : RandomInstructions.instructions(7, 5000, entities, 1, "98765432109876543210.5", 1000)) {
+                accumulator.accept(instruction);
+                writer.write(instruction);
+            }
+        }
+        try (InstructionColumnsReader reader = InstructionColumnsReader.open(file)) {
+            assertEquals(accumulator.toReport().toString(), SettlementReportManager.createReport(reader).toString());
+            ReportAccumulator fixedPoint = new ReportAccumulator(2);
+            fixedPoint.accept(reader);
+            assertEquals(accumulator.toReport().toString(), fixedPoint.toReport().toString());
+        }
+    }
+
+    @Test
+    public void testTopEntities() throws SettlementConfigurationException, SettlementException {
+        ReportAccumulator accumulator = new ReportAccumulator();
+        String[] entities = {"a", "b", "c", "d", "e"};
+        int[] units = {10, 50, 30, 50, 20};
+        for (int i = 0; i < entities.length; i++) {
+            accumulator.accept(PresetInstructions.getInstruction(entities[i], TransactionDirection.B, BigDecimal.ONE, "GBP", "20160101", "20160104", units[i], BigDecimal.ONE));
+        }
+        SettlementReport report = accumulator.toReport();
+
+        assertEquals(Arrays.asList("b", "d", "c"), report.topOutgoing(INSTRUCTION_DATE, 3));
+        assertEquals(Arrays.asList("b"), report.topOutgoing(INSTRUCTION_DATE, 1));
+        assertEquals(Arrays.asList("b", "d", "c", "e", "a"), report.topOutgoing(INSTRUCTION_DATE, 10));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), report.topIncoming(INSTRUCTION_DATE, 10));
+
+        //Rankings follow instructions accepted after the first query
+        accumulator.accept(PresetInstructions.getInstruction("a", TransactionDirection.B, BigDecimal.ONE, "GBP", "20160101", "20160104", 100, BigDecimal.ONE));
+        assertEquals(Arrays.asList("a", "b"), report.topOutgoing(INSTRUCTION_DATE, 2));
+        assertEquals(Arrays.asList("e", "c", "b", "d", "a"), SettlementReportManager.sortOutgoing(report.getDailyReports().get(INSTRUCTION_DATE)));
+    }
+
     @Test
     public void testAggregateIncomingOutgoing() throws SettlementConfigurationException, SettlementException {
         Set<Instruction> instructions = new HashSet<Instruction>() {{
@@ -0,0 +1,200 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import com.woobadeau.jpmorgan.metrics.Stage;
+import com.woobadeau.jpmorgan.metrics.StageMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Scanner;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferInstructionParserTest {
+
+    /**
+     * Test the byte level parser gives the same instructions as the reference line parser
+     */
+    @Test
+    public void sameAsLineParserTest() throws InstructionParsingException {
+        assertSameAsLineParser("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25", null, null);
+        assertSameAsLineParser("foo,B,0.50,SGP,01 Jan 2016,02 Jan 2016,200,100.25", ",", null);
+        assertSameAsLineParser("foo,B,0.50,SGP,20160101,20160102,200,100.25", ",", "yyyyMMdd");
+        assertSameAsLineParser("bar::S::-1.::AED::20160101::20160102::+17::.125", "::", "yyyyMMdd");
+        assertSameAsLineParser("bar S 1.5E2 AED 01 Jan 2016 02 Jan 2016 -3 12345678901234567890.5", null, null);
+    }
+
+    /**
+     * Test the parse stage of a line that cannot be parsed is stopped, so that the latencies of the thread are not skewed
+     */
+    @Test
+    public void parseStageStoppedOnFailure() {
+        StageMetrics.enable();
+        long events = StageMetrics.getInstance().getEvents()[Stage.PARSE.ordinal()];
+        BufferInstructionParser parser = new BufferInstructionParser(null, null);
+        assertThrows(InstructionParsingException.class, () -> parser.next(wrap("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200")));
+        assertThrows(InstructionParsingException.class, () -> parser.next(wrap("foo X 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertThrows(InstructionParsingException.class, () -> InstructionParser.parseLine("foo X 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25"));
+        assertEquals(events + 3, StageMetrics.getInstance().getEvents()[Stage.PARSE.ordinal()]);
+    }
+
+    /**
+     * Test lines are read one after the other from a direct buffer, with unix and windows line ends.
+     */
+    @Test
+    public void severalLinesInDirectBuffer() throws InstructionParsingException {
+        byte[] bytes = "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25\r\nbar S 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25\n"
+                .getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        BufferInstructionParser parser = new BufferInstructionParser(null, null);
+        assertEquals("foo", parser.next(buffer).getEntity());
+        assertEquals("bar", parser.next(buffer).getEntity());
+        assertNull(parser.next(buffer));
+    }
+
+    /**
+     * Test the line ends java.util.Scanner#nextLine() also breaks on do not end lines, so the lines they join are rejected together.
+     */
+    @Test
+    public void onlyNewLinesEndLines() throws IOException {
+        String line = "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25";
+        for (String lineEnd : new String[]{"\r", "\u0085", "\u2028", "\u2029"}) {
+            String lines = line + lineEnd + line + "\n" + line;
+            try (Scanner scanner = new Scanner(lines)) {
+                int scanned = 0;
+                while (scanner.hasNextLine()) {
+                    scanner.nextLine();
+                    scanned++;
+                }
+                assertEquals(3, scanned);
+            }
+            InstructionRejects rejects = new InstructionRejects(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+            BufferInstructionParser parser = new BufferInstructionParser(null, null, StandardCharsets.UTF_8);
+            assertNotNull(parser.next(buffer, rejects, "test"));
+            assertNull(parser.next(buffer, rejects, "test"));
+            assertEquals(1, rejects.count(RejectReason.FIELD_COUNT));
+        }
+    }
+
+    /**
+     * Test com.woobadeau.jpmorgan.exception.InstructionParsingException is thrown for the same lines as the reference parser.
+     */
+    @Test
+    public void wrongLines() {
+        BufferInstructionParser parser = new BufferInstructionParser(",", null);
+        assertThrows(InstructionParsingException.class, () -> parser.next(wrap("foo,B,0.50,SGP,20160101,20160102,200,100.25")));
+        assertThrows(InstructionParsingException.class, () -> parser.next(wrap("foo,X,0.50,SGP,01 Jan 2016,02 Jan 2016,200,100.25")));
+        assertThrows(InstructionParsingException.class, () -> parser.next(wrap("foo,B,0.50,SGP,01 Jan 2016,02 Jan 2016,2000000000000,100.25")));
+        assertThrows(InstructionParsingException.class, () -> parser.next(wrap("foo,B,0.50,SGP,01 Jan 2016,02 Jan 2016,200")));
+    }
+
+    /**
+     * Test regular expression separators are left to the line parser.
+     */
+    @Test
+    public void supportedSeparators() {
+        assertTrue(BufferInstructionParser.supportsSeparator(null));
+        assertTrue(BufferInstructionParser.supportsSeparator(";"));
+        assertFalse(BufferInstructionParser.supportsSeparator("|"));
+        assertFalse(BufferInstructionParser.supportsSeparator("\\s+"));
+    }
+
+    /**
+     * Test a file is read entirely when lines span several mapped windows.
+     */
+    @Test
+    public void fileReadAcrossWindows() throws IOException, InstructionParsingException {
+        File file = File.createTempFile("instructions", ".txt");
+        file.deleteOnExit();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("entity").append(i).append(" B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25\n");
+        }
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        try (InstructionFileReader reader = new InstructionFileReader(java.nio.channels.FileChannel.open(file.toPath()), true, 0, file.length(),
+                new BufferInstructionParser(null, null), null, null, 20)) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals("entity" + i, reader.next().getEntity());
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * Test lenient parsing rejects the lines the reference parser cannot parse, for the same reason as both strict parsers, and parses the other ones the same way.
+     */
+    @Test
+    public void lenientSameAsLineParser() throws InstructionParsingException {
+        String[] lines = {
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25 extra",
+                "",
+                "foo X 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo BS 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 0.5.0 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B - SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 1e SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 1.5E+3 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B .5e-2 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Foo 2016 02 Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 xx Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 2000000000000 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 2147483648 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 -2147483648 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 0000000000012 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 12a 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 + 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 \u0661\u0662 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25x",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 12345678901234567890.5",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1e99999999999",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1e2147483647",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 0.5e-2147483648",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 5e-2147483648",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 \u0661.5",
+        };
+        BufferInstructionParser parser = new BufferInstructionParser(null, null, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            Instruction actual = parser.tryParse(wrap(line), 0, line.getBytes(StandardCharsets.UTF_8).length);
+            try {
+                Instruction expected = InstructionParser.parseLine(line);
+                assertNotNull(actual, line);
+                assertEquals(expected.getForex(), actual.getForex(), line);
+                assertEquals(expected.getSettlementDate(), actual.getSettlementDate(), line);
+                assertEquals(expected.getUnits(), actual.getUnits(), line);
+                assertEquals(expected.getPricePerUnit(), actual.getPricePerUnit(), line);
+            } catch (InstructionParsingException e) {
+                assertNull(actual, line);
+                assertEquals(e.getReason(), parser.rejectReason(), line);
+                InstructionParsingException strict = assertThrows(InstructionParsingException.class, () -> parser.parse(wrap(line), 0, line.getBytes(StandardCharsets.UTF_8).length), line);
+                assertEquals(e.getReason(), strict.getReason(), line);
+            }
+        }
+    }
+
+    private void assertSameAsLineParser(String line, String separator, String dateFormat) throws InstructionParsingException {
+        Instruction expected = InstructionParser.parseLine(line, separator, dateFormat);
+        Instruction actual = new BufferInstructionParser(separator, dateFormat).next(wrap(line));
+        assertEquals(expected.getEntity(), actual.getEntity());
+        assertEquals(expected.getTransactionDirection(), actual.getTransactionDirection());
+        assertEquals(expected.getForex(), actual.getForex());
+        assertEquals(expected.getCurrency(), actual.getCurrency());
+        assertEquals(expected.getInstructionDate(), actual.getInstructionDate());
+        assertEquals(expected.getSettlementDate(), actual.getSettlementDate());
+        assertEquals(expected.getUnits(), actual.getUnits());
+        assertEquals(expected.getPricePerUnit(), actual.getPricePerUnit());
+    }
+
+    private static ByteBuffer wrap(String line) {
+        return ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+    }
+}
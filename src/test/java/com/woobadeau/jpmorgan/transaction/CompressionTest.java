@@ -0,0 +1,74 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CompressionTest {
+
+    private static byte[] content() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            content.append("entity").append(i % 50).append(" B 0.50 SGP 01 Jan 2016 02 Jan 2016 ").append(i).append(" 100.25\n");
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(File file, Compression compression) throws IOException {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] block = new byte[4096];
+        try (InputStream input = compression.open(file)) {
+            int length;
+            while ((length = input.read(block)) >= 0) {
+                read.write(block, 0, length);
+            }
+        }
+        return read.toByteArray();
+    }
+
+    /**
+     * Test compressed files are detected from their magic bytes and read back as they were written
+     */
+    @Test
+    public void detectAndDecompress() throws IOException {
+        byte[] content = content();
+        File plain = File.createTempFile("settlements", ".txt");
+        File gzip = File.createTempFile("settlements", ".txt");
+        File zstd = File.createTempFile("settlements", ".txt");
+        File empty = File.createTempFile("settlements", ".txt");
+        try {
+            Files.write(plain.toPath(), content);
+            try (OutputStream output = new GZIPOutputStream(new FileOutputStream(gzip))) {
+                output.write(content);
+            }
+            try (OutputStream output = new ZstdOutputStream(new FileOutputStream(zstd))) {
+                output.write(content);
+            }
+
+            assertEquals(Compression.NONE, Compression.detect(plain));
+            assertEquals(Compression.GZIP, Compression.detect(gzip));
+            assertEquals(Compression.ZSTD, Compression.detect(zstd));
+            assertEquals(Compression.NONE, Compression.detect(empty));
+            assertArrayEquals(content, read(plain, Compression.NONE));
+            assertArrayEquals(content, read(gzip, Compression.GZIP));
+            assertArrayEquals(content, read(zstd, Compression.ZSTD));
+        } finally {
+            plain.delete();
+            gzip.delete();
+            zstd.delete();
+            empty.delete();
+        }
+    }
+}
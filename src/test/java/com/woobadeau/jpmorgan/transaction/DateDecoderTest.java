@@ -0,0 +1,58 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DateDecoderTest {
+
+    private static long expected(String dateFormat, String date) {
+        ParsePosition position = new ParsePosition(0);
+        Date parsed = new SimpleDateFormat(dateFormat).parse(date, position);
+        return position.getIndex() == 0 ? DateDecoder.NOT_DECODED : EpochDays.of(parsed);
+    }
+
+    private static void assertDecoded(String dateFormat, String... dates) {
+        DateDecoder decoder = new DateDecoder(dateFormat, StandardCharsets.UTF_8);
+        //Twice, so that the second decoding of each date comes from the cache
+        for (int pass = 0; pass < 2; pass++) {
+            for (String date : dates) {
+                byte[] bytes = ("|" + date + "|").getBytes(StandardCharsets.UTF_8);
+                assertEquals(expected(dateFormat, date), decoder.decode(ByteBuffer.wrap(bytes), 1, bytes.length - 1), dateFormat + " " + date);
+                assertEquals(expected(dateFormat, date), decoder.decode(date), dateFormat + " " + date);
+            }
+        }
+    }
+
+    /**
+     * Test dates decoded by the fast paths or the cache are the ones java.text.SimpleDateFormat parses, leniency included
+     */
+    @Test
+    public void sameAsSimpleDateFormat() {
+        assertDecoded("dd MMM yyyy", "01 Jan 2016", "29 Feb 2016", "31 Feb 2016", "00 Mar 2016", "31 Dec 1999", "15 Oct 1582",
+                "1 Jan 2016", "01 jan 2016", "01 JAN 2016", "01 January 2016", "01 Jan 16", "01 Jan 20166", "01 Jan 2016 trailing",
+                "01-Jan-2016", "0x Jan 2016", "01 Jxn 2016", "", "garbage");
+        assertDecoded("dd-MMM-yyyy", "04-Jan-2016", "04 Jan 2016", "99-Dec-2016");
+        assertDecoded("yyyyMMdd", "20160104", "20160229", "20160231", "20161301", "20160001", "20160100", "15821015", "2016010", "201601045",
+                "2016-01-04", "abcdefgh");
+        assertDecoded("yyyy-MM-dd", "2016-01-04", "2016-1-4", "04/01/2016");
+    }
+
+    /**
+     * Test dates sharing a cache slot are decoded each with their own epoch day
+     */
+    @Test
+    public void cacheCollisions() {
+        String[] dates = new String[2000];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = String.format("%02d %s %d", 1 + i % 28, new String[]{"Jan", "Apr", "Sep"}[i % 3], 1990 + i % 37);
+        }
+        assertDecoded("dd MMM yyyy", dates);
+    }
+}
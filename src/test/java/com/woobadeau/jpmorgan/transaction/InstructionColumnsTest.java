@@ -0,0 +1,87 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstructionColumnsTest {
+
+    private static final String[] LINES = {
+            "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+            "bar S 1.5E2 AED 01 Jan 2016 02 Jan 2016 -3 12345678901234567890.5",
+            "Foo S 0.40 SAR 31 Dec 1969 09 Jan 2016 200 100.25",
+            "foo B 0.70 AED 01 Jan 2016 02 Jan 2016 0 0",
+            "baz S 1E-130 GBP 29 Feb 2016 01 Mar 2016 2147483647 100.25",
+            "bar B 1.20 GBP 01 Jan 2016 02 Jan 2016 200 -0.001",
+            "foo S 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+    };
+
+    /**
+     * Test instructions are read back as they were written, across several groups and with amounts that do not fit in a long
+     */
+    @Test
+    public void roundTripTest() throws IOException, InstructionParsingException {
+        File file = File.createTempFile("settlements", ".col");
+        file.deleteOnExit();
+        List<Instruction> instructions = new ArrayList<>();
+        try (InstructionColumnsWriter writer = new InstructionColumnsWriter(file, 3)) {
+            for (String line : LINES) {
+                Instruction instruction = InstructionParser.parseLine(line);
+                instructions.add(instruction);
+                writer.write(instruction);
+            }
+            assertEquals(LINES.length, writer.rows());
+        }
+
+        assertTrue(InstructionColumnsReader.isColumnar(file));
+        try (InstructionColumnsReader reader = InstructionColumnsReader.open(file)) {
+            assertEquals(LINES.length, reader.rowCount());
+            assertEquals(3, reader.groupCount());
+            assertEquals(4, reader.entityCount());
+            assertEquals(4, reader.currencyCount());
+            int i = 0;
+            for (int group = 0; group < reader.groupCount(); group++) {
+                InstructionColumns columns = reader.group(group);
+                for (int row = 0; row < columns.size(); row++) {
+                    assertSameInstruction(instructions.get(i++), columns.instruction(row));
+                }
+            }
+            assertEquals(LINES.length, i);
+            InstructionColumns columns = reader.group(0);
+            assertEquals(InstructionColumns.DECIMAL_SCALE, columns.priceScale(1));
+            assertEquals(50, columns.forexUnscaled(0));
+            assertEquals(2, columns.forexScale(0));
+            assertFalse(columns.incoming(0));
+            assertTrue(columns.incoming(1));
+        }
+    }
+
+    @Test
+    public void textFileNotColumnarTest() throws IOException {
+        File file = File.createTempFile("settlements", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), (LINES[0] + "\n").getBytes(StandardCharsets.UTF_8));
+        assertFalse(InstructionColumnsReader.isColumnar(file));
+        assertThrows(IOException.class, () -> InstructionColumnsReader.open(file));
+    }
+
+    private static void assertSameInstruction(Instruction expected, Instruction actual) {
+        assertEquals(expected.getEntity(), actual.getEntity());
+        assertEquals(expected.getTransactionDirection(), actual.getTransactionDirection());
+        assertEquals(expected.getForex(), actual.getForex());
+        assertEquals(expected.getCurrency(), actual.getCurrency());
+        assertEquals(expected.getInstructionDate(), actual.getInstructionDate());
+        assertEquals(expected.getSettlementDate(), actual.getSettlementDate());
+        assertEquals(expected.getUnits(), actual.getUnits());
+        assertEquals(expected.getPricePerUnit(), actual.getPricePerUnit());
+    }
+}
@@ -0,0 +1,193 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.DeduplicationException;
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstructionDeduplicatorTest {
+
+    /**
+     * Many entities, so that instructions are mostly distinct and fill the table
+     */
+    private static final String[] ENTITIES = new String[50];
+
+    static {
+        for (int i = 0; i < ENTITIES.length; i++) {
+            ENTITIES[i] = "ent" + i;
+        }
+    }
+
+    /**
+     * Test the same instruction written with other number and date formats, or with its entity in another case, is a duplicate
+     */
+    @Test
+    public void normalisedDuplicates() throws InstructionParsingException, DeduplicationException {
+        InstructionDeduplicator deduplicator = new InstructionDeduplicator();
+        assertTrue(deduplicator.add(InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertFalse(deduplicator.add(InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertFalse(deduplicator.add(InstructionParser.parseLine("foo,B,.5,SGP,20160101,20160102,200,100.2500", ",", "yyyyMMdd")));
+        assertFalse(deduplicator.add(InstructionParser.parseLine("foo B 5E-1 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertFalse(deduplicator.add(InstructionParser.parseLine("FOO B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertTrue(deduplicator.add(InstructionParser.parseLine("foo S 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertTrue(deduplicator.add(InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 03 Jan 2016 200 100.25")));
+        assertTrue(deduplicator.add(InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 98765432109876543210.5")));
+        assertFalse(deduplicator.add(InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 98765432109876543210.50")));
+        assertTrue(deduplicator.add(InstructionParser.parseLine("foo B 0 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertFalse(deduplicator.add(InstructionParser.parseLine("foo B 0.00 SGP 01 Jan 2016 02 Jan 2016 200 100.25")));
+        assertEquals(5, deduplicator.size());
+        assertEquals(6, deduplicator.duplicates());
+    }
+
+    /**
+     * Test distinct instructions are kept when all their fingerprints collide, on and off the heap, while the table grows
+     */
+    @Test
+    public void collidingFingerprints() throws InstructionParsingException, DeduplicationException {
+        List<Instruction> instructions = RandomInstructions.instructions(3, 3000, ENTITIES, 1, null, 0);
+        for (InstructionDeduplicator deduplicator : new InstructionDeduplicator[]{new InstructionDeduplicator(false, 0), new InstructionDeduplicator(true, 0xF),
+                new InstructionDeduplicator(true), new InstructionDeduplicator(false, -1L, 4, 1 << 30)}) {
+            InstructionDeduplicator reference = new InstructionDeduplicator();
+            for (Instruction instruction : instructions) {
+                assertEquals(reference.add(instruction), deduplicator.add(instruction));
+                assertFalse(deduplicator.add(instruction));
+            }
+            assertEquals(reference.size(), deduplicator.size());
+            assertEquals(reference.duplicates() + instructions.size(), deduplicator.duplicates());
+        }
+    }
+
+    /**
+     * Test a full segment fails with a checked exception, without keeping the instruction it could not add
+     */
+    @Test
+    public void fullSegment() throws Exception {
+        InstructionDeduplicator deduplicator = new InstructionDeduplicator(false, 0, 4, 1 << 8);
+        List<Instruction> instructions = RandomInstructions.instructions(3, 1000, ENTITIES, 1, null, 0);
+        InstructionDeduplicator reference = new InstructionDeduplicator();
+        DeduplicationException failure = null;
+        int added = 0;
+        for (Instruction instruction : instructions) {
+            if (reference.add(instruction)) {
+                try {
+                    assertTrue(deduplicator.add(instruction));
+                    added++;
+                } catch (DeduplicationException e) {
+                    failure = e;
+                    //The instruction was not kept, so it is still not a duplicate
+                    assertThrows(DeduplicationException.class, () -> deduplicator.add(instruction));
+                    break;
+                }
+            }
+        }
+        assertNotNull(failure);
+        assertEquals(192, added);
+        assertEquals(added, deduplicator.size());
+        assertTrue(failure.getMessage().startsWith("Cannot deduplicate more than"));
+    }
+
+    /**
+     * Test threads adding the same instructions at once keep each distinct instruction once
+     */
+    @Test
+    public void concurrentAdds() throws Exception {
+        List<Instruction> instructions = RandomInstructions.instructions(5, 20000);
+        InstructionDeduplicator reference = new InstructionDeduplicator();
+        for (Instruction instruction : instructions) {
+            reference.add(instruction);
+        }
+        InstructionDeduplicator deduplicator = new InstructionDeduplicator(true);
+        AtomicLong added = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                results.add(executor.submit(() -> {
+                    for (Instruction instruction : instructions) {
+                        if (deduplicator.add(instruction)) {
+                            added.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(reference.size(), added.get());
+        assertEquals(reference.size(), deduplicator.size());
+        assertEquals(4L * instructions.size() - reference.size(), deduplicator.duplicates());
+    }
+
+    /**
+     * Test pending instructions are only skipped by other sources once committed, and a commit racing another one adds nothing
+     */
+    @Test
+    public void pendingCommit() throws InstructionParsingException, DeduplicationException {
+        Instruction first = InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25");
+        Instruction second = InstructionParser.parseLine("bar S 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25");
+        InstructionDeduplicator deduplicator = new InstructionDeduplicator();
+        InstructionDeduplicator failed = deduplicator.pending();
+        InstructionDeduplicator read = deduplicator.pending();
+        InstructionDeduplicator racing = deduplicator.pending();
+        assertTrue(failed.add(first));
+        assertTrue(read.add(first));
+        assertFalse(read.add(first));
+        assertTrue(racing.add(first));
+        assertTrue(racing.add(second));
+        assertEquals(0, deduplicator.size());
+
+        assertTrue(read.commit());
+        assertEquals(1, deduplicator.size());
+        assertEquals(1, deduplicator.duplicates());
+        assertFalse(racing.commit());
+        assertEquals(1, deduplicator.size());
+        assertFalse(deduplicator.pending().add(first));
+        assertTrue(deduplicator.add(second));
+        assertThrows(IllegalStateException.class, deduplicator::commit);
+    }
+
+    /**
+     * Test the rows of a columnar file are encoded as the instructions they were written from
+     */
+    @Test
+    public void columnsSameAsInstructions() throws IOException, InstructionParsingException, DeduplicationException {
+        File file = File.createTempFile("settlements", ".col");
+        file.deleteOnExit();
+        List<Instruction> instructions = RandomInstructions.instructions(3, 500, ENTITIES, 1, null, 0);
+        instructions.add(InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 98765432109876543210.5"));
+        instructions.add(InstructionParser.parseLine("Foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 98765432109876543210.5"));
+        try (InstructionColumnsWriter writer = new InstructionColumnsWriter(file, 64)) {
+            for (Instruction instruction : instructions) {
+                writer.write(instruction);
+            }
+        }
+        InstructionDeduplicator deduplicator = new InstructionDeduplicator();
+        for (Instruction instruction : instructions) {
+            deduplicator.add(instruction);
+        }
+        long size = deduplicator.size();
+        try (InstructionColumnsReader reader = InstructionColumnsReader.open(file)) {
+            for (int group = 0; group < reader.groupCount(); group++) {
+                InstructionColumns columns = reader.group(group);
+                for (int row = 0; row < columns.size(); row++) {
+                    assertFalse(deduplicator.add(columns, row));
+                }
+            }
+        }
+        assertEquals(size, deduplicator.size());
+    }
+}
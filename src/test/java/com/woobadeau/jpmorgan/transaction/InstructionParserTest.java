@@ -4,6 +4,7 @@ import com.woobadeau.jpmorgan.exception.InstructionParsingException;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class InstructionParserTest {
@@ -38,6 +39,54 @@ public class InstructionParserTest {
         assertThrows(InstructionParsingException.class, () -> InstructionParser.parseLine("foo B 0.50 SGP 01 Jan 2016 02 2016 200 100.25 2"));
     }
 
+    /**
+     * Test com.woobadeau.jpmorgan.transaction.InstructionParser#tryParse(java.lang.String, java.lang.String, java.lang.String, com.woobadeau.jpmorgan.transaction.Instruction)
+     * rejects the lines parseLine throws on, for the same reason, and parses the other ones the same way.
+     */
+    @Test
+    public void tryParseSameAsParseLine() {
+        String[] lines = {
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200",
+                "",
+                "foo X 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo b 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 0.5.0 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B - SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B . SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 1e SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 1e+ SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 1.5E+3 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B .5e-2 SGP 01 Jan 2016 02 Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Foo 2016 02 Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 xx Jan 2016 200 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 2147483648 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 -2147483648 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 12a 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 + 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 \u0661\u0662 100.25",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25x",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 \u0661.5",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1e2147483647",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1e2147483648",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1e-2147483648",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 0.5e-2147483647",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1e99999999999",
+                "foo B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1e00000000000005",
+        };
+        for (String line : lines) {
+            Instruction actual = new Instruction();
+            RejectReason reason = InstructionParser.tryParse(line, null, null, actual);
+            try {
+                Instruction expected = InstructionParser.parseLine(line);
+                assertNull(reason, line);
+                assertInstructionsEquals(expected, actual);
+            } catch (InstructionParsingException e) {
+                assertEquals(e.getReason(), reason, line);
+            }
+        }
+    }
+
     private void assertInstructionsEquals(Instruction expected, Instruction actual) {
         assertEquals(expected.getEntity(),actual.getEntity());
         assertEquals(expected.getTransactionDirection(),actual.getTransactionDirection());
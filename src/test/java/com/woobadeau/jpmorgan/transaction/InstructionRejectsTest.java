@@ -0,0 +1,75 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class InstructionRejectsTest {
+
+    /**
+     * Test a lenient read skips the malformed lines, across windows, and writes them to the reject file with their reason.
+     */
+    @Test
+    public void lenientFileRead() throws IOException, InstructionParsingException {
+        File file = File.createTempFile("instructions", ".txt");
+        file.deleteOnExit();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            content.append("entity").append(i).append(" B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 100.25\n");
+            if (i % 10 == 3) {
+                content.append("bad").append(i).append(" B 0.50 SGP 01 Jan 2016 02 Jan 2016 200\r\n");
+            } else if (i % 10 == 7) {
+                content.append("bad").append(i).append(" B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1O0.25\n");
+            }
+        }
+        content.append("bad S 0.50 SGP 01 Jan 2016 31 Fev 2016 200 100.25");
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream rejected = new ByteArrayOutputStream();
+        InstructionRejects rejects = new InstructionRejects(rejected, StandardCharsets.UTF_8);
+        try (InstructionFileReader reader = new InstructionFileReader(FileChannel.open(file.toPath()), true, 0, file.length(),
+                new BufferInstructionParser(null, null, StandardCharsets.UTF_8), rejects, "instructions.txt", 20)) {
+            for (int i = 0; i < 30; i++) {
+                assertEquals("entity" + i, reader.next().getEntity());
+            }
+            assertNull(reader.next());
+        }
+        rejects.close();
+
+        assertEquals(3, rejects.count(RejectReason.FIELD_COUNT));
+        assertEquals(3, rejects.count(RejectReason.PRICE));
+        assertEquals(1, rejects.count(RejectReason.SETTLEMENT_DATE));
+        assertEquals(7, rejects.total());
+        assertEquals("Rejected 7 lines: FIELD_COUNT 3, SETTLEMENT_DATE 1, PRICE 3", rejects.toString());
+        String[] lines = new String(rejected.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(7, lines.length);
+        assertEquals("FIELD_COUNT\tinstructions.txt\tbad3 B 0.50 SGP 01 Jan 2016 02 Jan 2016 200", lines[0]);
+        assertEquals("PRICE\tinstructions.txt\tbad7 B 0.50 SGP 01 Jan 2016 02 Jan 2016 200 1O0.25", lines[1]);
+        assertEquals("SETTLEMENT_DATE\tinstructions.txt\tbad S 0.50 SGP 01 Jan 2016 31 Fev 2016 200 100.25", lines[6]);
+    }
+
+    /**
+     * Test the line parser hands its malformed lines to the rejects with the same reasons.
+     */
+    @Test
+    public void lenientLineParser() throws IOException {
+        ByteArrayOutputStream rejected = new ByteArrayOutputStream();
+        InstructionRejects rejects = new InstructionRejects(rejected, StandardCharsets.UTF_8);
+        assertEquals("foo", InstructionParser.parseLine("foo;B;0.50;SGP;01 Jan 2016;02 Jan 2016;200;100.25", ";+", null, rejects, "a.txt").getEntity());
+        assertNull(InstructionParser.parseLine("foo;B;0.50;SGP;01 Jan 2016;02 Jan 2016;-;100.25", ";+", null, rejects, "a.txt"));
+        assertNull(InstructionParser.parseLine("foo;;;Q;0.50;SGP;01 Jan 2016;02 Jan 2016;200;100.25", ";+", null, rejects, "a.txt"));
+        rejects.close();
+        assertEquals("Rejected 2 lines: DIRECTION 1, UNITS 1", rejects.toString());
+        assertEquals("UNITS\ta.txt\tfoo;B;0.50;SGP;01 Jan 2016;02 Jan 2016;-;100.25\nDIRECTION\ta.txt\tfoo;;;Q;0.50;SGP;01 Jan 2016;02 Jan 2016;200;100.25\n",
+                new String(rejected.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
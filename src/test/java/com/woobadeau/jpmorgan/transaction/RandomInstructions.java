@@ -0,0 +1,78 @@
+package com.woobadeau.jpmorgan.transaction;
+
+import com.woobadeau.jpmorgan.exception.InstructionParsingException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of random instruction lines for testing purposes.<br/>
+ * Entities are spelled in several cases unless the test gives its own, instructions are made on 01 Jan 2016 and settle in the first months of 2016.
+ * The same seed always gives the same lines.
+ */
+public class RandomInstructions {
+    private static final String[] ENTITIES = {"foo", "FOO", "bar", "Bar", "baz", "qux"};
+    private static final String[] CURRENCIES = {"SGP", "AED", "SAR", "GBP"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar"};
+
+    /**
+     * @return lines settling in January 2016
+     */
+    public static List<String> lines(long seed, int count) {
+        return lines(seed, count, 1, null, 0);
+    }
+
+    /**
+     * @param months the number of months of 2016 the instructions settle in, 1 to 3
+     * @param extraAmount a price put on one line every extraAmountEvery lines, for instance one too large for fixed point longs, null for none
+     * @param extraAmountEvery the number of lines between two extra amounts, the first line having one
+     */
+    public static List<String> lines(long seed, int count, int months, String extraAmount, int extraAmountEvery) {
+        return lines(seed, count, ENTITIES, months, extraAmount, extraAmountEvery);
+    }
+
+    /**
+     * @param entities the entities the instructions are drawn from
+     * @param months the number of months of 2016 the instructions settle in, 1 to 3
+     * @param extraAmount a price put on one line every extraAmountEvery lines, for instance one too large for fixed point longs, null for none
+     * @param extraAmountEvery the number of lines between two extra amounts, the first line having one
+     */
+    public static List<String> lines(long seed, int count, String[] entities, int months, String extraAmount, int extraAmountEvery) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String price = String.valueOf(random.nextInt(100000) / 100d);
+            lines.add(entities[random.nextInt(entities.length)] + (random.nextBoolean() ? " B " : " S ") +
+                    random.nextInt(300) / 100d + " " + CURRENCIES[random.nextInt(CURRENCIES.length)] +
+                    " 01 Jan 2016 " + String.format("%02d", 1 + random.nextInt(28)) + " " + MONTHS[random.nextInt(months)] + " 2016 " +
+                    random.nextInt(1000) + " " + (extraAmount != null && i % extraAmountEvery == 0 ? extraAmount : price));
+        }
+        return lines;
+    }
+
+    /**
+     * @return instructions settling in January 2016
+     */
+    public static List<Instruction> instructions(long seed, int count) throws InstructionParsingException {
+        return instructions(seed, count, 1, null, 0);
+    }
+
+    /**
+     * @return the parsed com.woobadeau.jpmorgan.transaction.RandomInstructions#lines(long, int, int, java.lang.String, int)
+     */
+    public static List<Instruction> instructions(long seed, int count, int months, String extraAmount, int extraAmountEvery) throws InstructionParsingException {
+        return instructions(seed, count, ENTITIES, months, extraAmount, extraAmountEvery);
+    }
+
+    /**
+     * @return the parsed com.woobadeau.jpmorgan.transaction.RandomInstructions#lines(long, int, java.lang.String[], int, java.lang.String, int)
+     */
+    public static List<Instruction> instructions(long seed, int count, String[] entities, int months, String extraAmount, int extraAmountEvery) throws InstructionParsingException {
+        List<Instruction> instructions = new ArrayList<>(count);
+        for (String line : lines(seed, count, entities, months, extraAmount, extraAmountEvery)) {
+            instructions.add(InstructionParser.parseLine(line));
+        }
+        return instructions;
+    }
+}